@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The shapes of the synthetic archives used by the benchmarks.  Archives are generated from a fixed seed, so every
+ * run (and every version being compared) sees byte-for-byte identical input.  Even-numbered entries are stored and
+ * odd-numbered entries are deflated.
+ */
+public enum ArchiveShape {
+
+    /**
+     * Many tiny entries in a flat layout, as in a typical class library.
+     */
+    TINY_ENTRIES(20000, 200, 0, 1),
+    /**
+     * A few huge entries.
+     */
+    HUGE_ENTRIES(4, 32 << 20, 0, 1),
+    /**
+     * Entries with long comments, which inflate the central directory.
+     */
+    LONG_COMMENTS(2000, 1000, 8000, 1),
+    /**
+     * Entries in a deep directory tree, with long names.
+     */
+    DEEP_TREE(5000, 500, 0, 24),
+    ;
+
+    private static final long SEED = 0x6a7a6970L;
+
+    private static final String[] WORDS = {
+        "zip", "entry", "catalog", "directory", "header", "inflate", "deflate", "stored", "archive", "offset",
+        "local", "central", "record", "extra", "comment", "signature", "class", "resource", "public", "static",
+    };
+
+    private final int entries;
+    private final int size;
+    private final int commentLength;
+    private final int depth;
+
+    ArchiveShape(final int entries, final int size, final int commentLength, final int depth) {
+        this.entries = entries;
+        this.size = size;
+        this.commentLength = commentLength;
+        this.depth = depth;
+    }
+
+    /**
+     * Get the name of an entry of this shape.
+     *
+     * @param index the entry index
+     * @return the entry name
+     */
+    public String getName(int index) {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 1; i < depth; i ++) {
+            // fan out four ways at each level, reusing the index bits once they run out
+            b.append("level").append(i).append('-').append((index >>> ((i << 1) & 31)) & 3).append('/');
+        }
+        return b.append("entry-").append(index).append(".txt").toString();
+    }
+
+    /**
+     * Get the number of entries in an archive of this shape.
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * Write an archive of this shape.
+     *
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(File file) throws IOException {
+        final Random random = new Random(SEED + ordinal());
+        final ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            final byte[] data = new byte[size];
+            final CRC32 crc = new CRC32();
+            for (int i = 0; i < entries; i ++) {
+                fill(random, data);
+                final ZipEntry entry = new ZipEntry(getName(i));
+                entry.setTime(1244834656000L);
+                if ((i & 1) == 0) {
+                    crc.reset();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                } else {
+                    entry.setMethod(ZipEntry.DEFLATED);
+                }
+                if (commentLength > 0) {
+                    entry.setComment(text(random, commentLength));
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+            zos.close();
+        } finally {
+            try {
+                zos.close();
+            } catch (IOException e) {
+                // eat
+            }
+        }
+    }
+
+    private static void fill(final Random random, final byte[] data) {
+        // text-like content, so that deflate has something to do
+        int i = 0;
+        while (i < data.length) {
+            final String word = WORDS[random.nextInt(WORDS.length)];
+            for (int j = 0; j < word.length() && i < data.length; j ++) {
+                data[i ++] = (byte) word.charAt(j);
+            }
+            if (i < data.length) {
+                data[i ++] = (byte) (random.nextInt(8) == 0 ? '\n' : ' ');
+            }
+        }
+    }
+
+    private static String text(final Random random, final int length) {
+        final byte[] bytes = new byte[length];
+        fill(random, bytes);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i ++) {
+            chars[i] = (char) bytes[i];
+        }
+        return new String(chars);
+    }
+}
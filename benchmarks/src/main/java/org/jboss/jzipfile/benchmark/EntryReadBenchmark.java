@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+import org.jboss.jzipfile.Zip;
+import org.jboss.jzipfile.ZipArchive;
+import org.jboss.jzipfile.ZipCompressionMethod;
+import org.jboss.jzipfile.ZipEntry;
+import org.jboss.jzipfile.ZipEntryType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of reading the contents of every entry of an archive which uses the given compression method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EntryReadBenchmark extends ArchiveBenchmark {
+
+    @Param({ "STORE", "DEFLATE" })
+    public ZipCompressionMethod method;
+
+    private final byte[] buf = new byte[65536];
+    private ZipArchive archive;
+    private ZipFile zipFile;
+    private ZipEntry[] entries;
+    private java.util.zip.ZipEntry[] zipFileEntries;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        archive = ZipArchive.open(file);
+        zipFile = new ZipFile(file);
+        final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+        for (ZipEntry entry : archive.getCatalog().allEntries()) {
+            if (entry.getEntryType() == ZipEntryType.FILE && entry.getCompressionMethod() == method) {
+                entries.add(entry);
+            }
+        }
+        this.entries = entries.toArray(new ZipEntry[entries.size()]);
+        zipFileEntries = new java.util.zip.ZipEntry[this.entries.length];
+        for (int i = 0; i < zipFileEntries.length; i ++) {
+            zipFileEntries[i] = zipFile.getEntry(this.entries[i].getName());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        archive.close();
+        zipFile.close();
+    }
+
+    private long drain(final InputStream is) throws IOException {
+        try {
+            final byte[] buf = this.buf;
+            long total = 0L;
+            int cnt;
+            while ((cnt = is.read(buf)) != -1) {
+                total += (long) cnt;
+            }
+            return total;
+        } finally {
+            is.close();
+        }
+    }
+
+    @Benchmark
+    public long zipOpenEntry() throws IOException {
+        long total = 0L;
+        for (ZipEntry entry : entries) {
+            total += drain(Zip.openEntry(file, entry));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long archiveOpenEntry() throws IOException {
+        long total = 0L;
+        for (ZipEntry entry : entries) {
+            total += drain(archive.openEntry(entry));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long archiveReadEntry() throws IOException {
+        long total = 0L;
+        for (ZipEntry entry : entries) {
+            total += (long) archive.readEntry(entry).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long zipFileGetInputStream() throws IOException {
+        long total = 0L;
+        for (java.util.zip.ZipEntry entry : zipFileEntries) {
+            total += drain(zipFile.getInputStream(entry));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+import org.jboss.jzipfile.Zip;
+import org.jboss.jzipfile.ZipExtractStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of extracting an entire archive to an empty directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ExtractBenchmark extends ArchiveBenchmark {
+
+    private File destDir;
+
+    @Setup(Level.Invocation)
+    public void createDestination() throws IOException {
+        destDir = File.createTempFile("jzipfile-extract", "");
+        destDir.delete();
+        if (! destDir.mkdir()) {
+            throw new IOException("Cannot create " + destDir);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDestination() {
+        deleteTree(destDir);
+    }
+
+    @Benchmark
+    public void extract() throws IOException {
+        Zip.extract(file, destDir);
+    }
+
+    @Benchmark
+    public ZipExtractStatistics extractParallel() throws IOException {
+        return Zip.extract(file, destDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public void zipFileExtract() throws IOException {
+        final byte[] buf = new byte[65536];
+        final ZipFile zipFile = new ZipFile(file);
+        try {
+            final Enumeration<? extends java.util.zip.ZipEntry> e = zipFile.entries();
+            while (e.hasMoreElements()) {
+                final java.util.zip.ZipEntry entry = e.nextElement();
+                final File target = new File(destDir, entry.getName());
+                if (entry.isDirectory()) {
+                    target.mkdirs();
+                    continue;
+                }
+                target.getParentFile().mkdirs();
+                final InputStream is = zipFile.getInputStream(entry);
+                try {
+                    final FileOutputStream os = new FileOutputStream(target);
+                    try {
+                        int cnt;
+                        while ((cnt = is.read(buf)) != -1) {
+                            os.write(buf, 0, cnt);
+                        }
+                    } finally {
+                        os.close();
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+import org.jboss.jzipfile.Zip;
+import org.jboss.jzipfile.ZipCatalog;
+import org.jboss.jzipfile.ZipEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of looking up an entry by name in an already parsed catalog.  Each operation looks up the next
+ * name in archive order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LookupBenchmark extends ArchiveBenchmark {
+
+    private ZipCatalog catalog;
+    private ZipCatalog compactCatalog;
+    private ZipFile zipFile;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        catalog = Zip.readCatalog(file);
+        compactCatalog = Zip.readCompactCatalog(file);
+        zipFile = new ZipFile(file);
+        final String[] names = new String[shape.getEntryCount()];
+        for (int i = 0; i < names.length; i ++) {
+            names[i] = shape.getName(i);
+        }
+        this.names = names;
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    private String nextName() {
+        final String[] names = this.names;
+        final int next = this.next;
+        this.next = next + 1 == names.length ? 0 : next + 1;
+        return names[next];
+    }
+
+    @Benchmark
+    public ZipEntry getEntry() {
+        return catalog.getEntry(nextName());
+    }
+
+    @Benchmark
+    public ZipEntry getEntryCompact() {
+        return compactCatalog.getEntry(nextName());
+    }
+
+    @Benchmark
+    public ZipEntry indexedByName() {
+        return catalog.indexedByName().get(nextName());
+    }
+
+    @Benchmark
+    public java.util.zip.ZipEntry zipFileGetEntry() {
+        return zipFile.getEntry(nextName());
+    }
+}
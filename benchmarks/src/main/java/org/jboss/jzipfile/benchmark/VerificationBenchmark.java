@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jboss.jzipfile.ZipArchive;
+import org.jboss.jzipfile.ZipEntry;
+import org.jboss.jzipfile.ZipEntryType;
+import org.jboss.jzipfile.ZipVerification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of reading every file entry of an archive with and without CRC-32 verification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VerificationBenchmark extends ArchiveBenchmark {
+
+    @Param
+    public ZipVerification verification;
+
+    private final byte[] buf = new byte[65536];
+    private ZipArchive archive;
+    private ZipEntry[] entries;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        archive = ZipArchive.open(file);
+        final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+        for (ZipEntry entry : archive.getCatalog().allEntries()) {
+            if (entry.getEntryType() == ZipEntryType.FILE) {
+                entries.add(entry);
+            }
+        }
+        this.entries = entries.toArray(new ZipEntry[entries.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        archive.close();
+    }
+
+    @Benchmark
+    public long openEntry() throws IOException {
+        final byte[] buf = this.buf;
+        final ZipVerification verification = this.verification;
+        long total = 0L;
+        for (ZipEntry entry : entries) {
+            final InputStream is = archive.openEntry(entry, verification);
+            try {
+                int cnt;
+                while ((cnt = is.read(buf)) != -1) {
+                    total += (long) cnt;
+                }
+            } finally {
+                is.close();
+            }
+        }
+        return total;
+    }
+}
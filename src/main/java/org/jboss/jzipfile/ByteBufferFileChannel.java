@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import static java.lang.Math.min;
+
+/**
+ * A read-only file channel whose contents are held in a buffer.
+ */
+final class ByteBufferFileChannel extends ReadOnlyFileChannel {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferFileChannel(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        checkOpen();
+        if (position < 0L) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        final int size = buffer.limit();
+        if (position >= (long) size) {
+            return -1;
+        }
+        final int cnt = min(dst.remaining(), size - (int) position);
+        dst.put(region(position, cnt));
+        return cnt;
+    }
+
+    public long size() throws IOException {
+        checkOpen();
+        return buffer.limit();
+    }
+
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        checkOpen();
+        final int size = buffer.limit();
+        if (position >= (long) size) {
+            return 0L;
+        }
+        return target.write(region(position, (int) min(count, (long) size - position)));
+    }
+
+    private ByteBuffer region(final long position, final int len) {
+        final ByteBuffer region = buffer.duplicate();
+        region.position((int) position);
+        region.limit((int) position + len);
+        return region;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import static java.lang.Math.min;
+
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int read() {
+        final ByteBuffer buffer = this.buffer;
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    public int read(final byte[] b, final int off, final int len) {
+        final ByteBuffer buffer = this.buffer;
+        final int rem = buffer.remaining();
+        if (rem == 0) {
+            return len == 0 ? 0 : -1;
+        }
+        final int cnt = min(rem, len);
+        buffer.get(b, off, cnt);
+        return cnt;
+    }
+
+    public long skip(final long n) {
+        final ByteBuffer buffer = this.buffer;
+        if (n <= 0L) {
+            return 0L;
+        }
+        final int cnt = (int) min((long) buffer.remaining(), n);
+        buffer.position(buffer.position() + cnt);
+        return cnt;
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+    public void mark(final int readlimit) {
+        buffer.mark();
+    }
+
+    public void reset() {
+        buffer.reset();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void close() {
+        final ByteBuffer buffer = this.buffer;
+        buffer.position(buffer.limit());
+    }
+}
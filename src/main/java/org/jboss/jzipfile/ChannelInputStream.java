@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.lang.Math.min;
+
+/**
+ * An input stream which reads a region of a file channel using positional reads.  The channel's own position
+ * is never used or modified, so any number of these streams may read from one channel concurrently.  Closing the
+ * stream does not close the channel.
+ */
+final class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long pos;
+    private long mark;
+    private boolean closed;
+
+    ChannelInputStream(final FileChannel channel, final long pos, final long len) {
+        this.channel = channel;
+        this.pos = pos;
+        end = pos + len;
+        mark = pos;
+    }
+
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        checkClosed();
+        if (len == 0) {
+            return 0;
+        }
+        final long rem = end - pos;
+        if (rem <= 0L) {
+            return -1;
+        }
+        final int cnt = channel.read(ByteBuffer.wrap(b, off, (int) min(rem, (long) len)), pos);
+        if (cnt > 0) {
+            pos += (long) cnt;
+        }
+        return cnt;
+    }
+
+    public long skip(final long n) throws IOException {
+        checkClosed();
+        if (n <= 0L) {
+            return 0L;
+        }
+        final long cnt = min(n, end - pos);
+        pos += cnt;
+        return cnt;
+    }
+
+    public int available() throws IOException {
+        checkClosed();
+        return (int) min(end - pos, (long) Integer.MAX_VALUE);
+    }
+
+    public void mark(final int readlimit) {
+        mark = pos;
+    }
+
+    public void reset() throws IOException {
+        checkClosed();
+        pos = mark;
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
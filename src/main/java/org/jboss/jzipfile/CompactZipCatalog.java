@@ -0,0 +1,307 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+/**
+ * A zip catalog which keeps the raw central directory in a single array, along with a table of record offsets.
+ * Entry objects are created only when they are accessed, and decode their fields from the raw record on demand.
+ */
+final class CompactZipCatalog extends FlatZipCatalog {
+
+    private final byte[] directory;
+    private final int[] offsets;
+    private final ByteBuffer names;
+
+    CompactZipCatalog(final byte[] directory) throws ZipException {
+        this.directory = directory;
+        int[] offsets = new int[16];
+        int cnt = 0;
+        int pos = 0;
+        while (pos + 4 <= directory.length && getInt(pos) == 0x02014b50) {
+            if (pos + 46 > directory.length) {
+                throw new ZipException("Truncated central directory record");
+            }
+            if (getUnsignedShort(pos + 6) > 45) {
+                throw new ZipException("Need a later version to extract");
+            }
+            final int fnameLen = getUnsignedShort(pos + 28);
+            final int extraLen = getUnsignedShort(pos + 30);
+            final int commentLen = getUnsignedShort(pos + 32);
+            final int next = pos + 46 + fnameLen + extraLen + commentLen;
+            if (next > directory.length) {
+                throw new ZipException("Truncated central directory record");
+            }
+            if (fnameLen > 0 && directory[pos + 46] == '/') {
+                throw new ZipException("Leading slash not allowed in file name \"" + decode(pos, pos + 46, fnameLen) + "\"");
+            }
+            if (cnt == offsets.length) {
+                final int[] newOffsets = new int[cnt << 1];
+                System.arraycopy(offsets, 0, newOffsets, 0, cnt);
+                offsets = newOffsets;
+            }
+            offsets[cnt++] = pos;
+            if (getZip64Value(pos, 3, getUnsignedShort(pos + 34), 0xffffL) != 0L) {
+                throw new ZipException("Multi-disk archives not supported");
+            }
+            pos = next;
+        }
+        if (cnt < offsets.length) {
+            final int[] newOffsets = new int[cnt];
+            System.arraycopy(offsets, 0, newOffsets, 0, cnt);
+            offsets = newOffsets;
+        }
+        this.offsets = offsets;
+        names = ByteBuffer.wrap(directory);
+    }
+
+    /**
+     * Read a compact catalog from a file.
+     *
+     * @param raf the file
+     * @param endRecord the end record of the file
+     * @return the catalog
+     * @throws IOException if an I/O error occurs
+     */
+    static CompactZipCatalog read(final RandomAccessFile raf, final ZipEndRecord endRecord) throws IOException {
+        final long size = endRecord.getDirectorySize();
+        if (size > (long) Integer.MAX_VALUE) {
+            throw new ZipException("Central directory is too large for a compact catalog");
+        }
+        final byte[] directory = new byte[(int) size];
+        raf.seek(endRecord.getDirectoryOffset());
+        raf.readFully(directory);
+        return new CompactZipCatalog(directory);
+    }
+
+    /**
+     * Estimate the memory size of this catalog, including the name table.
+     *
+     * @return the estimated size in bytes
+     */
+    long estimateSize() {
+        final int cnt = offsets.length;
+        return 128L + (long) directory.length + (long) cnt * 4L + (long) Integer.highestOneBit(Math.max(2, cnt) * 2 - 1) * 8L;
+    }
+
+    byte[] getDirectory() {
+        return directory;
+    }
+
+    int getRecordOffset(final int index) {
+        return offsets[index];
+    }
+
+    int getEntryCount() {
+        return offsets.length;
+    }
+
+    ZipEntry getEntryAt(final int index) {
+        return new CompactEntry(index);
+    }
+
+    ByteBuffer getNames() {
+        return names;
+    }
+
+    int getNameOffset(final int index) {
+        return offsets[index] + 46;
+    }
+
+    int getNameLength(final int index) {
+        return getUnsignedShort(offsets[index] + 28);
+    }
+
+    boolean isUtf8(final int index) {
+        return isUtf8Record(offsets[index]);
+    }
+
+    String getName(final int index) {
+        final int pos = offsets[index];
+        return decode(pos, pos + 46, getUnsignedShort(pos + 28));
+    }
+
+    private String decode(final int recPos, final int pos, final int len) {
+        return ZipNames.decode(directory, pos, len, isUtf8Record(recPos));
+    }
+
+    private boolean isUtf8Record(final int recPos) {
+        return (getUnsignedShort(recPos + 8) & ZipNames.GP_UTF8) != 0;
+    }
+
+    private int getUnsignedShort(final int pos) {
+        return ZipCatalogBuilder.getUnsignedShort(directory, pos);
+    }
+
+    private int getInt(final int pos) {
+        return ZipCatalogBuilder.getInt(directory, pos);
+    }
+
+    /**
+     * Get a value which may have overflowed into the zip64 extended information extra field.
+     *
+     * @param pos the record position
+     * @param which the index of the value (0 = size, 1 = compressed size, 2 = offset, 3 = disk number)
+     * @param value the value from the fixed part of the record
+     * @param overflow the value which indicates overflow
+     * @return the actual value
+     */
+    private long getZip64Value(final int pos, final int which, final long value, final long overflow) throws ZipException {
+        if (value != overflow) {
+            return value;
+        }
+        final byte[] directory = this.directory;
+        final int extraPos = pos + 46 + getUnsignedShort(pos + 28);
+        final int extraEnd = extraPos + getUnsignedShort(pos + 30);
+        int p = extraPos;
+        while (p + 4 <= extraEnd) {
+            final int blockId = getUnsignedShort(p);
+            final int blockLen = getUnsignedShort(p + 2);
+            p += 4;
+            if (p + blockLen > extraEnd) {
+                break;
+            }
+            if (blockId == 0x0001) {
+                final int end = p + blockLen;
+                // only the overflowed values are present, in order
+                for (int i = 0; i < which; i ++) {
+                    if ((i == 0 ? getInt(pos + 24) : i == 1 ? getInt(pos + 20) : getInt(pos + 42)) == 0xffffffff) {
+                        p += 8;
+                    }
+                }
+                if (which == 3) {
+                    return p + 4 <= end ? getInt(p) & 0xffffffffL : value;
+                }
+                if (p + 8 > end) {
+                    break;
+                }
+                final long result = ZipCatalogBuilder.getLong(directory, p);
+                if (result < 0L) {
+                    throw new ZipException("Invalid zip64 extended information for entry");
+                }
+                return result;
+            }
+            p += blockLen;
+        }
+        if (which == 3) {
+            return value;
+        }
+        throw new ZipException("Missing zip64 extended information for entry");
+    }
+
+    private long getZip64ValueUnchecked(final int pos, final int which, final int fixedPos) {
+        try {
+            return getZip64Value(pos, which, getInt(pos + fixedPos) & 0xffffffffL, 0xffffffffL);
+        } catch (ZipException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    final class CompactEntry implements ZipEntry {
+        private final int index;
+
+        CompactEntry(final int index) {
+            this.index = index;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return CompactZipCatalog.this.getName(index);
+        }
+
+        public String getComment() {
+            final int pos = offsets[index];
+            return decode(pos, pos + 46 + getUnsignedShort(pos + 28) + getUnsignedShort(pos + 30), getUnsignedShort(pos + 32));
+        }
+
+        public long getOffset() {
+            return getZip64ValueUnchecked(offsets[index], 2, 42);
+        }
+
+        public long getSize() {
+            return getZip64ValueUnchecked(offsets[index], 0, 24);
+        }
+
+        public long getCompressedSize() {
+            return getZip64ValueUnchecked(offsets[index], 1, 20);
+        }
+
+        public int getCrc32() {
+            return getInt(offsets[index] + 16);
+        }
+
+        public ZipEntryType getEntryType() {
+            final int pos = offsets[index];
+            final int fnameLen = getUnsignedShort(pos + 28);
+            if (getSize() == 0L && (fnameLen == 0 || directory[pos + 46 + fnameLen - 1] == '/')) {
+                return ZipEntryType.DIRECTORY;
+            } else {
+                return ZipEntryType.FILE;
+            }
+        }
+
+        public long getModificationTime() {
+            final int pos = offsets[index];
+            return Zip.getTimestamp(getUnsignedShort(pos + 12), getUnsignedShort(pos + 14));
+        }
+
+        public ZipCompressionMethod getCompressionMethod() {
+            return ZipCompressionMethod.getMethod(getUnsignedShort(offsets[index] + 10));
+        }
+
+        public byte[] getRawExtraData() {
+            final int pos = offsets[index];
+            final int extraLen = getUnsignedShort(pos + 30);
+            final byte[] extra = new byte[extraLen];
+            System.arraycopy(directory, pos + 46 + getUnsignedShort(pos + 28), extra, 0, extraLen);
+            return extra;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof CompactEntry && equals((CompactEntry) obj);
+        }
+
+        private boolean equals(final CompactEntry other) {
+            return other != null && other.index == index && other.getCatalog() == getCatalog();
+        }
+
+        private CompactZipCatalog getCatalog() {
+            return CompactZipCatalog.this;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(getCatalog()) * 31 + index;
+        }
+
+        public String toString() {
+            return String.format("Zip Entry: name=\"%s\", compressed size=%d, uncompressed size=%d, offset=%d, type=%s, method=%s, crc32=0x%08x, comment=\"%s\"", getName(), Long.valueOf(getCompressedSize()), Long.valueOf(getSize()), Long.valueOf(getOffset()), getEntryType(), getCompressionMethod(), Integer.valueOf(getCrc32()), getComment());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * An input stream which calculates the CRC-32 of the data passing through it, and checks it (and the data size)
+ * against the values in the zip entry when the end of the stream is reached.
+ */
+final class CrcCheckingInputStream extends InputStream {
+
+    private final InputStream delegate;
+    private final ZipEntry zipEntry;
+    private final CRC32 crc = new CRC32();
+    private long count;
+    private boolean checked;
+
+    CrcCheckingInputStream(final InputStream delegate, final ZipEntry zipEntry) {
+        this.delegate = delegate;
+        this.zipEntry = zipEntry;
+    }
+
+    public int read() throws IOException {
+        final int b = delegate.read();
+        if (b == -1) {
+            check();
+        } else {
+            crc.update(b);
+            count ++;
+        }
+        return b;
+    }
+
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int cnt = delegate.read(b, off, len);
+        if (cnt == -1) {
+            check();
+        } else if (cnt > 0) {
+            crc.update(b, off, cnt);
+            count += (long) cnt;
+        }
+        return cnt;
+    }
+
+    public long skip(final long n) throws IOException {
+        // skipped data must still be checked
+        final byte[] buf = new byte[(int) Math.min(n, 8192L)];
+        long total = 0L;
+        while (total < n) {
+            final int cnt = read(buf, 0, (int) Math.min((long) buf.length, n - total));
+            if (cnt == -1) {
+                break;
+            }
+            total += (long) cnt;
+        }
+        return total;
+    }
+
+    public int available() throws IOException {
+        return delegate.available();
+    }
+
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private void check() throws ZipException {
+        if (checked) {
+            return;
+        }
+        checked = true;
+        final ZipEntry zipEntry = this.zipEntry;
+        if (count != zipEntry.getSize()) {
+            throw new ZipException(String.format("Size of zip entry \"%s\" does not match (expected %d, got %d)", zipEntry.getName(), Long.valueOf(zipEntry.getSize()), Long.valueOf(count)));
+        }
+        final int actual = (int) crc.getValue();
+        if (actual != zipEntry.getCrc32()) {
+            throw new ZipException(String.format("CRC-32 of zip entry \"%s\" does not match (expected 0x%08x, got 0x%08x)", zipEntry.getName(), Integer.valueOf(zipEntry.getCrc32()), Integer.valueOf(actual)));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import static java.lang.Math.min;
+
+/**
+ * A read-only seekable channel over the contents of a deflated entry.  If the archive knows an inflate index for the
+ * entry, seeking resumes decoding from the nearest checkpoint before the new position; otherwise seeking forwards
+ * skips data, seeking backwards starts again from the beginning, and an index is recorded along the way.
+ */
+final class EntryByteChannel implements SeekableByteChannel {
+
+    private final ZipArchive archive;
+    private final ZipEntry zipEntry;
+    private final long dataOffset;
+    private SeekableInflater inflater;
+    private long position;
+    private boolean closed;
+
+    EntryByteChannel(final ZipArchive archive, final ZipEntry zipEntry, final long dataOffset) {
+        this.archive = archive;
+        this.zipEntry = zipEntry;
+        this.dataOffset = dataOffset;
+    }
+
+    public synchronized int read(final ByteBuffer dst) throws IOException {
+        checkOpen();
+        final long size = zipEntry.getSize();
+        if (position >= size) {
+            return -1;
+        }
+        if (! dst.hasRemaining()) {
+            return 0;
+        }
+        final SeekableInflater inflater = seek();
+        final int len = (int) min((long) dst.remaining(), size - position);
+        final int cnt;
+        if (dst.hasArray()) {
+            cnt = inflater.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+            if (cnt > 0) {
+                dst.position(dst.position() + cnt);
+            }
+        } else {
+            final byte[] b = new byte[min(len, 8192)];
+            cnt = inflater.read(b, 0, b.length);
+            if (cnt > 0) {
+                dst.put(b, 0, cnt);
+            }
+        }
+        if (cnt == -1) {
+            throw new EOFException("Unexpected end of zip entry '" + zipEntry.getName() + "'");
+        }
+        position += (long) cnt;
+        if (position == size) {
+            inflater.finish();
+            final ZipInflateIndex index = inflater.getIndex();
+            if (index != null) {
+                archive.setInflateIndex(zipEntry, index);
+            }
+        }
+        return cnt;
+    }
+
+    private SeekableInflater seek() throws IOException {
+        SeekableInflater inflater = this.inflater;
+        final long position = this.position;
+        final ZipInflateIndex index = archive.getInflateIndex(zipEntry);
+        if (index != null) {
+            final int checkpoint = index.find(position);
+            if (checkpoint >= 0 && (inflater == null || inflater.getTotalOut() > position || inflater.getTotalOut() < index.getOutputOffset(checkpoint))) {
+                inflater = this.inflater = new SeekableInflater(archive.getChannel(), dataOffset, zipEntry);
+                inflater.restore(index, checkpoint);
+            }
+        }
+        if (inflater == null || inflater.getTotalOut() > position) {
+            inflater = this.inflater = new SeekableInflater(archive.getChannel(), dataOffset, zipEntry);
+            if (index == null) {
+                inflater.record(ZipInflateIndex.DEFAULT_SPACING);
+            }
+        }
+        final long skip = position - inflater.getTotalOut();
+        if (skip > 0L && inflater.skip(skip) < skip) {
+            throw new EOFException("Unexpected end of zip entry '" + zipEntry.getName() + "'");
+        }
+        return inflater;
+    }
+
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    public synchronized SeekableByteChannel position(final long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0L) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    public long size() throws IOException {
+        checkOpen();
+        return zipEntry.getSize();
+    }
+
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    public synchronized boolean isOpen() {
+        return ! closed;
+    }
+
+    public synchronized void close() throws IOException {
+        if (! closed) {
+            closed = true;
+            inflater = null;
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+}
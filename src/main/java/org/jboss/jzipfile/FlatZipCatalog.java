@@ -0,0 +1,409 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A catalog which keeps its entries as a flat sequence of records, and which creates entry objects only when they
+ * are accessed.  Names are found through an open-addressing table of entry indexes, keyed by the hash of each name
+ * as it is decoded; the table is built when it is first needed, unless a subclass supplies its own.
+ */
+abstract class FlatZipCatalog implements ZipCatalog {
+
+    private final List<ZipEntry> allEntries = new AbstractList<ZipEntry>() {
+        public ZipEntry get(final int index) {
+            if (index < 0 || index >= getEntryCount()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return getEntryAt(index);
+        }
+
+        public int size() {
+            return getEntryCount();
+        }
+    };
+    private final Map<String, ZipEntry> byNameMap = new NameMap();
+    private volatile Index index;
+
+    /**
+     * Get the number of entries in this catalog.
+     *
+     * @return the entry count
+     */
+    abstract int getEntryCount();
+
+    /**
+     * Get an entry by index.
+     *
+     * @param index the entry index
+     * @return the entry
+     */
+    abstract ZipEntry getEntryAt(int index);
+
+    /**
+     * Get the buffer which holds the raw entry names.
+     *
+     * @return the buffer
+     */
+    abstract ByteBuffer getNames();
+
+    /**
+     * Get the absolute offset of the raw name of an entry in the name buffer.
+     *
+     * @param index the entry index
+     * @return the offset
+     */
+    abstract int getNameOffset(int index);
+
+    /**
+     * Get the length of the raw name of an entry.
+     *
+     * @param index the entry index
+     * @return the length
+     */
+    abstract int getNameLength(int index);
+
+    /**
+     * Determine whether the name of an entry has the UTF-8 general purpose flag set.
+     *
+     * @param index the entry index
+     * @return {@code true} if the name is encoded in UTF-8
+     */
+    abstract boolean isUtf8(int index);
+
+    /**
+     * Get the number of distinct non-empty names in this catalog.
+     *
+     * @return the name count
+     */
+    int getNameCount() {
+        return getIndex().uniqueCount;
+    }
+
+    /**
+     * Get the size of the name table, which is a power of two.
+     *
+     * @return the table size
+     */
+    int getTableSize() {
+        return getIndex().table.length;
+    }
+
+    /**
+     * Get a slot of the name table.
+     *
+     * @param idx the slot index
+     * @return the index of the entry in the slot plus one, or 0 if the slot is empty
+     */
+    int getTableSlot(final int idx) {
+        return getIndex().table[idx];
+    }
+
+    /**
+     * Cheaply determine whether the name of an entry may have the given hash, before its name is compared.
+     *
+     * @param index the entry index
+     * @param hash the hash code
+     * @return {@code false} if the name certainly has a different hash
+     */
+    boolean hashMatches(final int index, final int hash) {
+        return true;
+    }
+
+    /**
+     * Hash the name of an entry as it is decoded.
+     *
+     * @param index the entry index
+     * @return the hash code
+     */
+    int hashName(final int index) {
+        return ZipNames.hash(getNames(), getNameOffset(index), getNameLength(index), isUtf8(index));
+    }
+
+    /**
+     * Find the first entry with the given name.
+     *
+     * @param name the name
+     * @return the entry index, or -1 if there is no such entry
+     */
+    int find(final CharSequence name) {
+        if (name.length() == 0) {
+            return -1;
+        }
+        final ByteBuffer names = getNames();
+        final int hash = ZipNames.hash(name);
+        final int mask = getTableSize() - 1;
+        int idx = ZipNames.spread(hash) & mask;
+        for (;;) {
+            final int slot = getTableSlot(idx);
+            if (slot == 0) {
+                return -1;
+            }
+            final int i = slot - 1;
+            if (hashMatches(i, hash) && ZipNames.equals(names, getNameOffset(i), getNameLength(i), isUtf8(i), name)) {
+                return i;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * Find the first entry with the given raw name.
+     *
+     * @param name the array holding the name
+     * @param offs the offset of the name
+     * @param len the length of the name
+     * @return the entry index, or -1 if there is no such entry
+     */
+    int find(final byte[] name, final int offs, final int len) {
+        if (len == 0) {
+            return -1;
+        }
+        final int hash = ZipNames.hash(name, offs, len, true);
+        final int i = find(hash, name, offs, len);
+        if (i != -1) {
+            return i;
+        }
+        // an entry without the UTF-8 flag is hashed as it is decoded
+        final int decodedHash = ZipNames.hash(name, offs, len, false);
+        return decodedHash == hash ? -1 : find(decodedHash, name, offs, len);
+    }
+
+    private int find(final int hash, final byte[] name, final int offs, final int len) {
+        final ByteBuffer names = getNames();
+        final int mask = getTableSize() - 1;
+        int idx = ZipNames.spread(hash) & mask;
+        for (;;) {
+            final int slot = getTableSlot(idx);
+            if (slot == 0) {
+                return -1;
+            }
+            final int i = slot - 1;
+            if (hashMatches(i, hash) && ZipNames.equals(names, getNameOffset(i), getNameLength(i), name, offs, len, isUtf8(i))) {
+                return i;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * Determine whether the given entry is the first one with its name.
+     *
+     * @param index the entry index
+     * @return {@code true} if the entry is named, and no earlier entry has the same name
+     */
+    boolean isFirst(final int index) {
+        if (getNameLength(index) == 0) {
+            return false;
+        }
+        final ByteBuffer names = getNames();
+        final int hash = hashName(index);
+        final int mask = getTableSize() - 1;
+        int idx = ZipNames.spread(hash) & mask;
+        for (;;) {
+            final int slot = getTableSlot(idx);
+            if (slot == 0) {
+                return false;
+            }
+            final int i = slot - 1;
+            if (hashMatches(i, hash) && sameName(names, i, index)) {
+                return i == index;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private boolean sameName(final ByteBuffer names, final int i, final int j) {
+        return ZipNames.equals(names, getNameOffset(i), getNameLength(i), isUtf8(i), names, getNameOffset(j), getNameLength(j), isUtf8(j));
+    }
+
+    private Index getIndex() {
+        Index index = this.index;
+        if (index == null) {
+            // racy but idempotent
+            this.index = index = buildIndex();
+        }
+        return index;
+    }
+
+    private Index buildIndex() {
+        final ByteBuffer names = getNames();
+        final int cnt = getEntryCount();
+        // slots hold entry index + 1
+        final int[] table = new int[Integer.highestOneBit(Math.max(2, cnt) * 2 - 1) << 1];
+        final int mask = table.length - 1;
+        int uniqueCount = 0;
+        for (int i = 0; i < cnt; i ++) {
+            if (getNameLength(i) == 0) {
+                continue;
+            }
+            // hash the name as it is decoded, so that it can be found by its decoded form
+            int idx = ZipNames.spread(hashName(i)) & mask;
+            for (;;) {
+                final int slot = table[idx];
+                if (slot == 0) {
+                    table[idx] = i + 1;
+                    uniqueCount ++;
+                    break;
+                }
+                if (sameName(names, slot - 1, i)) {
+                    // duplicate; first one wins
+                    break;
+                }
+                idx = (idx + 1) & mask;
+            }
+        }
+        return new Index(table, uniqueCount);
+    }
+
+    public Map<String, ZipEntry> indexedByName() {
+        return byNameMap;
+    }
+
+    public Collection<ZipEntry> allEntries() {
+        return allEntries;
+    }
+
+    public ZipEntry getEntry(final CharSequence name) {
+        final int i = find(name);
+        return i == -1 ? null : getEntryAt(i);
+    }
+
+    public ZipEntry getEntry(final byte[] name, final int offs, final int len) {
+        final int i = find(name, offs, len);
+        return i == -1 ? null : getEntryAt(i);
+    }
+
+    private final class NameMap extends AbstractMap<String, ZipEntry> {
+        private final Set<Map.Entry<String, ZipEntry>> entrySet = new AbstractSet<Map.Entry<String, ZipEntry>>() {
+            public Iterator<Map.Entry<String, ZipEntry>> iterator() {
+                return new Iterator<Map.Entry<String, ZipEntry>>() {
+                    private int next = advance(0);
+
+                    private int advance(int i) {
+                        final int cnt = getEntryCount();
+                        while (i < cnt && ! isFirst(i)) {
+                            i ++;
+                        }
+                        return i;
+                    }
+
+                    public boolean hasNext() {
+                        return next < getEntryCount();
+                    }
+
+                    public Map.Entry<String, ZipEntry> next() {
+                        if (! hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final int i = next;
+                        next = advance(i + 1);
+                        return new NameMapEntry(getEntryAt(i));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public int size() {
+                return getNameCount();
+            }
+        };
+
+        public Set<Map.Entry<String, ZipEntry>> entrySet() {
+            return entrySet;
+        }
+
+        public int size() {
+            return getNameCount();
+        }
+
+        public boolean containsKey(final Object key) {
+            return key instanceof String && find((String) key) != -1;
+        }
+
+        public ZipEntry get(final Object key) {
+            return key instanceof String ? getEntry((String) key) : null;
+        }
+    }
+
+    private static final class NameMapEntry implements Map.Entry<String, ZipEntry> {
+        private final String key;
+        private final ZipEntry value;
+
+        NameMapEntry(final ZipEntry value) {
+            key = value.getName();
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public ZipEntry getValue() {
+            return value;
+        }
+
+        public ZipEntry setValue(final ZipEntry value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(final Object obj) {
+            if (! (obj instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return key.equals(other.getKey()) && value.equals(other.getValue());
+        }
+
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private static final class Index {
+        private final int[] table;
+        private final int uniqueCount;
+
+        Index(final int[] table, final int uniqueCount) {
+            this.table = table;
+            this.uniqueCount = uniqueCount;
+        }
+    }
+}
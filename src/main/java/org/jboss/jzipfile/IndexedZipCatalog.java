@@ -0,0 +1,379 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+/**
+ * A catalog which is read from a persisted, memory-mapped catalog index file.  Opening an index costs the same
+ * regardless of the number of entries, and the mapped pages of an index may be shared by every process which
+ * opens it.
+ * <p>
+ * The index file is laid out as follows (all values are little-endian):
+ * <ul>
+ * <li>a 64-byte header, holding the magic number and version, the length, modification time and end-of-central-directory
+ * location of the archive (used to validate the index), the entry count, distinct name count, hash table size and
+ * string area size</li>
+ * <li>one 64-byte record per entry, holding the name hash, string area position, name/comment/extra lengths, flags
+ * and all the entry fields including the resolved offset of the entry data</li>
+ * <li>an open-addressed hash table of entry index + 1 (0 for an empty slot), for the first entry of each name</li>
+ * <li>the string area, holding the raw name, comment and extra data of each entry</li>
+ * </ul>
+ */
+final class IndexedZipCatalog extends FlatZipCatalog {
+
+    private static final int MAGIC = 0x49465a4a; // "JZFI"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+
+    private static final int FLAG_FIRST = 1;
+    private static final int FLAG_UTF8 = 2;
+    private static final int FLAG_DIRECTORY = 4;
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int nameCount;
+    private final int tableSize;
+    private final int tablePos;
+    private final int stringsPos;
+
+    private IndexedZipCatalog(final ByteBuffer buffer) throws ZipException {
+        this.buffer = buffer;
+        entryCount = buffer.getInt(48);
+        nameCount = buffer.getInt(52);
+        tableSize = buffer.getInt(56);
+        final int stringsSize = buffer.getInt(60);
+        tablePos = HEADER_SIZE + entryCount * RECORD_SIZE;
+        stringsPos = tablePos + tableSize * 4;
+        if (entryCount < 0 || tableSize <= 0 || Integer.bitCount(tableSize) != 1 || (long) stringsPos + (long) stringsSize != (long) buffer.capacity()) {
+            throw new ZipException("Corrupted zip catalog index");
+        }
+    }
+
+    /**
+     * Open a catalog index.
+     *
+     * @param zipFile the zip file that the index belongs to
+     * @param indexFile the index file
+     * @return the catalog, or {@code null} if the index does not exist or does not match the zip file
+     * @throws IOException if an I/O error occurs
+     */
+    static IndexedZipCatalog open(final File zipFile, final File indexFile) throws IOException {
+        if (! indexFile.isFile()) {
+            return null;
+        }
+        final ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > (long) Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size).order(ByteOrder.LITTLE_ENDIAN);
+            raf.close();
+        } finally {
+            Zip.safeClose(raf);
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        // now make sure it matches the archive
+        final long modTime = zipFile.lastModified();
+        raf = new RandomAccessFile(zipFile, "r");
+        try {
+            final long length = raf.length();
+            if (buffer.getLong(8) != length || buffer.getLong(16) != modTime) {
+                return null;
+            }
+            final ZipEndRecord endRecord = ZipEndRecord.find(raf.getChannel());
+            if (buffer.getLong(24) != endRecord.getEndOffset() || buffer.getLong(32) != endRecord.getDirectoryOffset() || buffer.getLong(40) != endRecord.getDirectorySize()) {
+                return null;
+            }
+            raf.close();
+        } finally {
+            Zip.safeClose(raf);
+        }
+        return new IndexedZipCatalog(buffer);
+    }
+
+    /**
+     * Write a catalog index for a zip file.  The index is written to a temporary file which then replaces the index
+     * file, so readers never see a partially written index.
+     *
+     * @param zipFile the zip file
+     * @param indexFile the index file to write
+     * @throws IOException if an I/O error occurs
+     */
+    static void write(final File zipFile, final File indexFile) throws IOException {
+        final ByteBuffer buffer;
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final long modTime = zipFile.lastModified();
+        final RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
+        try {
+            final long length = raf.length();
+            final ZipEndRecord endRecord = ZipEndRecord.find(raf.getChannel());
+            final CompactZipCatalog catalog = CompactZipCatalog.read(raf, endRecord);
+            final byte[] directory = catalog.getDirectory();
+            final int entryCount = catalog.getEntryCount();
+            final int tableSize = Integer.highestOneBit(Math.max(2, entryCount) * 2 - 1) << 1;
+            final int tablePos = HEADER_SIZE + entryCount * RECORD_SIZE;
+            final long stringsPos = (long) tablePos + (long) tableSize * 4L;
+            if (stringsPos + (long) directory.length > (long) Integer.MAX_VALUE) {
+                throw new ZipException("Too many entries for a zip catalog index");
+            }
+            buffer = ByteBuffer.allocate((int) stringsPos).order(ByteOrder.LITTLE_ENDIAN);
+            // room for the fixed part of a local file header and the longest possible name
+            final byte[] header = new byte[30 + 0xffff];
+            int nameCount = 0;
+            for (int i = 0; i < entryCount; i ++) {
+                final int rec = catalog.getRecordOffset(i);
+                final ZipEntry entry = catalog.getEntryAt(i);
+                final int fnameLen = ZipCatalogBuilder.getUnsignedShort(directory, rec + 28);
+                final int extraLen = ZipCatalogBuilder.getUnsignedShort(directory, rec + 30);
+                final int commentLen = ZipCatalogBuilder.getUnsignedShort(directory, rec + 32);
+                final boolean utf8 = catalog.isUtf8(i);
+                final int hash = catalog.hashName(i);
+                int flags = 0;
+                if (catalog.isFirst(i)) {
+                    flags |= FLAG_FIRST;
+                    final int mask = tableSize - 1;
+                    int idx = ZipNames.spread(hash) & mask;
+                    while (buffer.getInt(tablePos + idx * 4) != 0) {
+                        idx = (idx + 1) & mask;
+                    }
+                    buffer.putInt(tablePos + idx * 4, i + 1);
+                    nameCount ++;
+                }
+                if (utf8) {
+                    flags |= FLAG_UTF8;
+                }
+                if (entry.getEntryType() == ZipEntryType.DIRECTORY) {
+                    flags |= FLAG_DIRECTORY;
+                }
+                // resolve the data offset from the local header
+                final long offset = entry.getOffset();
+                raf.seek(offset);
+                raf.readFully(header, 0, 30);
+                raf.readFully(header, 30, Zip.getLocalFileNameLength(header, 0));
+                // the name and method must match the central record before the offset may be trusted without it
+                final long dataOffset = offset + (long) Zip.checkLocalFileHeader(header, 0, entry);
+                final int pos = HEADER_SIZE + i * RECORD_SIZE;
+                buffer.putInt(pos, hash);
+                buffer.putInt(pos + 4, strings.size());
+                buffer.putShort(pos + 8, (short) fnameLen);
+                buffer.putShort(pos + 10, (short) commentLen);
+                buffer.putShort(pos + 12, (short) extraLen);
+                buffer.putShort(pos + 14, (short) flags);
+                buffer.putLong(pos + 16, offset);
+                buffer.putLong(pos + 24, dataOffset);
+                buffer.putLong(pos + 32, entry.getCompressedSize());
+                buffer.putLong(pos + 40, entry.getSize());
+                buffer.putInt(pos + 48, entry.getCrc32());
+                buffer.putShort(pos + 52, (short) ZipCatalogBuilder.getUnsignedShort(directory, rec + 10)); // method
+                buffer.putShort(pos + 54, (short) ZipCatalogBuilder.getUnsignedShort(directory, rec + 12)); // mod time
+                buffer.putShort(pos + 56, (short) ZipCatalogBuilder.getUnsignedShort(directory, rec + 14)); // mod date
+                strings.write(directory, rec + 46, fnameLen);
+                strings.write(directory, rec + 46 + fnameLen + extraLen, commentLen);
+                strings.write(directory, rec + 46 + fnameLen, extraLen);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, length);
+            buffer.putLong(16, modTime);
+            buffer.putLong(24, endRecord.getEndOffset());
+            buffer.putLong(32, endRecord.getDirectoryOffset());
+            buffer.putLong(40, endRecord.getDirectorySize());
+            buffer.putInt(48, entryCount);
+            buffer.putInt(52, nameCount);
+            buffer.putInt(56, tableSize);
+            buffer.putInt(60, strings.size());
+            raf.close();
+        } finally {
+            Zip.safeClose(raf);
+        }
+        final File tempFile = new File(indexFile.getPath() + ".tmp" + Long.toHexString(System.nanoTime()));
+        boolean ok = false;
+        try {
+            final FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                fos.write(buffer.array());
+                strings.writeTo(fos);
+                fos.close();
+            } finally {
+                Zip.safeClose(fos);
+            }
+            if (! tempFile.renameTo(indexFile)) {
+                // some platforms will not rename over an existing file
+                indexFile.delete();
+                if (! tempFile.renameTo(indexFile)) {
+                    throw new IOException("Failed to rename \"" + tempFile + "\" to \"" + indexFile + "\"");
+                }
+            }
+            ok = true;
+        } finally {
+            if (! ok) tempFile.delete();
+        }
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    int getNameCount() {
+        return nameCount;
+    }
+
+    ZipEntry getEntryAt(final int index) {
+        return new IndexedEntry(index);
+    }
+
+    ByteBuffer getNames() {
+        return buffer;
+    }
+
+    int getNameOffset(final int index) {
+        return stringsPos + buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + 4);
+    }
+
+    int getNameLength(final int index) {
+        return buffer.getShort(HEADER_SIZE + index * RECORD_SIZE + 8) & 0xffff;
+    }
+
+    boolean isUtf8(final int index) {
+        return (getFlags(index) & FLAG_UTF8) != 0;
+    }
+
+    int getTableSize() {
+        return tableSize;
+    }
+
+    int getTableSlot(final int idx) {
+        return buffer.getInt(tablePos + idx * 4);
+    }
+
+    boolean hashMatches(final int index, final int hash) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE) == hash;
+    }
+
+    boolean isFirst(final int index) {
+        return (getFlags(index) & FLAG_FIRST) != 0;
+    }
+
+    private int getFlags(final int index) {
+        return buffer.getShort(HEADER_SIZE + index * RECORD_SIZE + 14) & 0xffff;
+    }
+
+    final class IndexedEntry implements ZipEntry {
+        private final int index;
+        private final int pos;
+
+        IndexedEntry(final int index) {
+            this.index = index;
+            pos = HEADER_SIZE + index * RECORD_SIZE;
+        }
+
+        public String getName() {
+            return ZipNames.decode(buffer, stringsPos + buffer.getInt(pos + 4), buffer.getShort(pos + 8) & 0xffff, (getFlags(index) & FLAG_UTF8) != 0);
+        }
+
+        public String getComment() {
+            return ZipNames.decode(buffer, stringsPos + buffer.getInt(pos + 4) + (buffer.getShort(pos + 8) & 0xffff), buffer.getShort(pos + 10) & 0xffff, (getFlags(index) & FLAG_UTF8) != 0);
+        }
+
+        public long getOffset() {
+            return buffer.getLong(pos + 16);
+        }
+
+        /**
+         * Get the offset of the entry data (just past the local file header) within the file.
+         *
+         * @return the byte offset from the start of the zip file
+         */
+        long getDataOffset() {
+            return buffer.getLong(pos + 24);
+        }
+
+        public long getSize() {
+            return buffer.getLong(pos + 40);
+        }
+
+        public long getCompressedSize() {
+            return buffer.getLong(pos + 32);
+        }
+
+        public int getCrc32() {
+            return buffer.getInt(pos + 48);
+        }
+
+        public ZipEntryType getEntryType() {
+            return (getFlags(index) & FLAG_DIRECTORY) != 0 ? ZipEntryType.DIRECTORY : ZipEntryType.FILE;
+        }
+
+        public long getModificationTime() {
+            return Zip.getTimestamp(buffer.getShort(pos + 54) & 0xffff, buffer.getShort(pos + 56) & 0xffff);
+        }
+
+        public ZipCompressionMethod getCompressionMethod() {
+            return ZipCompressionMethod.getMethod(buffer.getShort(pos + 52) & 0xffff);
+        }
+
+        public byte[] getRawExtraData() {
+            final int off = stringsPos + buffer.getInt(pos + 4) + (buffer.getShort(pos + 8) & 0xffff) + (buffer.getShort(pos + 10) & 0xffff);
+            final byte[] extra = new byte[buffer.getShort(pos + 12) & 0xffff];
+            for (int i = 0; i < extra.length; i ++) {
+                extra[i] = buffer.get(off + i);
+            }
+            return extra;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof IndexedEntry && equals((IndexedEntry) obj);
+        }
+
+        private boolean equals(final IndexedEntry other) {
+            return other != null && other.index == index && other.getCatalog() == getCatalog();
+        }
+
+        private IndexedZipCatalog getCatalog() {
+            return IndexedZipCatalog.this;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(getCatalog()) * 31 + index;
+        }
+
+        public String toString() {
+            return String.format("Zip Entry: name=\"%s\", compressed size=%d, uncompressed size=%d, offset=%d, type=%s, method=%s, crc32=0x%08x, comment=\"%s\"", getName(), Long.valueOf(getCompressedSize()), Long.valueOf(getSize()), Long.valueOf(getOffset()), getEntryType(), getCompressionMethod(), Integer.valueOf(getCrc32()), getComment());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded, lock-free pool of raw {@code Inflater} instances, each paired with an input buffer.  Creating an
+ * inflater allocates a native zlib context, which is often more expensive than inflating a small entry.
+ */
+final class InflaterPool {
+
+    static final InflaterPool INSTANCE = new InflaterPool(Runtime.getRuntime().availableProcessors() * 4);
+
+    static final int BUFFER_SIZE = 8192;
+
+    private final AtomicReferenceArray<Item> slots;
+    private final int mask;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    InflaterPool(final int size) {
+        // round up to a power of two, within reason
+        final int cnt = Integer.highestOneBit(Math.max(4, Math.min(256, size)) * 2 - 1);
+        slots = new AtomicReferenceArray<Item>(cnt);
+        mask = cnt - 1;
+    }
+
+    /**
+     * Take an inflater from the pool, or create a new one if none is available.
+     *
+     * @return the inflater and its buffer
+     */
+    Item acquire() {
+        final AtomicReferenceArray<Item> slots = this.slots;
+        final int mask = this.mask;
+        final int start = hash();
+        for (int i = 0; i <= mask; i ++) {
+            final int idx = (start + i) & mask;
+            if (slots.get(idx) != null) {
+                final Item item = slots.getAndSet(idx, null);
+                if (item != null) {
+                    hits.incrementAndGet();
+                    return item;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return new Item(new Inflater(true), new byte[BUFFER_SIZE]);
+    }
+
+    /**
+     * Return an inflater to the pool.  If the pool is full, the inflater is ended.
+     *
+     * @param item the inflater and its buffer
+     */
+    void release(final Item item) {
+        final Inflater inflater = item.getInflater();
+        inflater.reset();
+        final AtomicReferenceArray<Item> slots = this.slots;
+        final int mask = this.mask;
+        final int start = hash();
+        for (int i = 0; i <= mask; i ++) {
+            final int idx = (start + i) & mask;
+            if (slots.get(idx) == null && slots.compareAndSet(idx, null, item)) {
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static int hash() {
+        // spread threads over the slots to keep them from contending on the same ones
+        final long id = Thread.currentThread().getId();
+        final int h = (int) (id ^ id >>> 32) * 0x9e3779b9;
+        return h ^ h >>> 16;
+    }
+
+    static final class Item {
+        private final Inflater inflater;
+        private final byte[] buffer;
+
+        Item(final Inflater inflater, final byte[] buffer) {
+            this.inflater = inflater;
+            this.buffer = buffer;
+        }
+
+        Inflater getInflater() {
+            return inflater;
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+
+/**
+ * A zip archive which is read through memory-mapped buffers.  Once the archive is open, entry data is read directly
+ * from the mapped region, so reads do not require any system calls (other than page faults).  Files larger than
+ * the maximum buffer size are mapped in several overlapping chunks.
+ * <p>
+ * Instances of this class are safe for use by multiple threads.  Note that the mapped regions are not released
+ * until they are garbage collected, even after the archive is closed.
+ */
+public final class MappedZipArchive implements Closeable {
+
+    private static final long CHUNK_SIZE = 1L << 30;
+    private static final long CHUNK_OVERLAP = 1L << 20;
+    // the largest possible local file header
+    private static final int MAX_LOCAL_HEADER = 30 + 0xffff + 0xffff;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final ByteBuffer[] chunks;
+    private final ZipCatalog catalog;
+    private volatile boolean closed;
+
+    private MappedZipArchive(final File file, final RandomAccessFile raf, final ZipCatalog catalog) throws IOException {
+        this.file = file;
+        this.raf = raf;
+        this.catalog = catalog;
+        channel = raf.getChannel();
+        final long length = channel.size();
+        this.length = length;
+        final int cnt = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final ByteBuffer[] chunks = new ByteBuffer[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            final long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, min(length - start, CHUNK_SIZE + CHUNK_OVERLAP));
+        }
+        this.chunks = chunks;
+    }
+
+    /**
+     * Open a memory-mapped zip archive.
+     *
+     * @param file the zip file to open
+     * @return the opened archive
+     * @throws IOException if an I/O error occurs
+     */
+    public static MappedZipArchive open(File file) throws IOException {
+        final ZipCatalog catalog = Zip.readCatalog(file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        boolean ok = false;
+        try {
+            final MappedZipArchive archive = new MappedZipArchive(file, raf, catalog);
+            ok = true;
+            return archive;
+        } finally {
+            if (! ok) Zip.safeClose(raf);
+        }
+    }
+
+    /**
+     * Get the file that this archive was opened from.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the catalog of this archive.
+     *
+     * @return the catalog
+     */
+    public ZipCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Get the contents of a stored (uncompressed) entry as a read-only buffer.  The returned buffer is a view of the
+     * mapped file; no data is copied.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return a read-only buffer holding the entry contents
+     * @throws IOException if an I/O error occurs, or if the entry is not stored or is too large for a single buffer
+     */
+    public ByteBuffer getEntryBuffer(ZipEntry zipEntry) throws IOException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        final ZipCompressionMethod compressionMethod = zipEntry.getCompressionMethod();
+        if (compressionMethod != ZipCompressionMethod.STORE) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is not stored (compression method is " + compressionMethod + ")");
+        }
+        final long size = zipEntry.getCompressedSize();
+        if (size > (long) Integer.MAX_VALUE) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is too large to fit in a single buffer");
+        }
+        return slice(getDataOffset(zipEntry), (int) size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Open a zip entry, returning an input stream which reads the contents of the entry from the mapped file.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return an {@code InputStream} which may be used to read the zip file entry data
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream openEntry(ZipEntry zipEntry) throws IOException {
+        final long start = ZipEvents.start();
+        final InputStream is = Zip.openEntryData(region(getDataOffset(zipEntry), zipEntry.getCompressedSize()), zipEntry);
+        ZipEvents.entryOpened(zipEntry, start);
+        return is;
+    }
+
+    /**
+     * Open a zip entry, returning an input stream which may be used to read the contents of the entry, verifying the
+     * entry contents as specified.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param verification the verification mode to use
+     * @return an {@code InputStream} which may be used to read the zip file entry data
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream openEntry(ZipEntry zipEntry, ZipVerification verification) throws IOException {
+        return Zip.verify(openEntry(zipEntry), zipEntry, verification);
+    }
+
+    /**
+     * Close this archive.  Buffers previously returned by this archive remain valid.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        closed = true;
+        raf.close();
+    }
+
+    private long getDataOffset(final ZipEntry zipEntry) throws IOException {
+        final long resolved = Zip.getResolvedDataOffset(zipEntry);
+        if (resolved >= 0L) {
+            return resolved;
+        }
+        final long offset = zipEntry.getOffset();
+        final ZipDataInputStream is = new ZipDataInputStream(region(offset, min(length - offset, (long) MAX_LOCAL_HEADER)));
+        Zip.readLocalFileForEntry(is, zipEntry);
+        final long dataOffset = offset + is.getOffset();
+        Zip.setResolvedDataOffset(zipEntry, dataOffset);
+        return dataOffset;
+    }
+
+    private InputStream region(final long offset, final long len) throws IOException {
+        if (len <= (long) Integer.MAX_VALUE) {
+            return new ByteBufferInputStream(slice(offset, (int) len));
+        }
+        // too large for one buffer; read it in pieces
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        long pos = offset;
+        long rem = len;
+        while (rem > 0L) {
+            final int cnt = (int) min(rem, CHUNK_SIZE - pos % CHUNK_SIZE);
+            streams.add(new ByteBufferInputStream(slice(pos, cnt)));
+            pos += (long) cnt;
+            rem -= (long) cnt;
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private ByteBuffer slice(final long offset, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Archive is closed");
+        }
+        if (offset < 0L || len < 0 || offset + len > length) {
+            throw new ZipException("Zip entry data lies outside of the archive");
+        }
+        final int idx = (int) (offset / CHUNK_SIZE);
+        final ByteBuffer chunk;
+        final int pos;
+        if (idx < chunks.length && offset + len <= idx * CHUNK_SIZE + chunks[idx].capacity()) {
+            chunk = chunks[idx].duplicate();
+            pos = (int) (offset - idx * CHUNK_SIZE);
+        } else {
+            // the region straddles a chunk boundary; map it separately
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+            pos = 0;
+        }
+        chunk.limit(pos + len);
+        chunk.position(pos);
+        return chunk.slice();
+    }
+}
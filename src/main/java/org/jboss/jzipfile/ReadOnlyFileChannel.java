@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The base of the read-only file channels which present part of a file, or a buffer, as a file of its own.  The
+ * relative read methods are implemented in terms of the positional read.  Closing the channel does not release the
+ * underlying resource.
+ */
+abstract class ReadOnlyFileChannel extends FileChannel {
+
+    private long position;
+
+    public synchronized int read(final ByteBuffer dst) throws IOException {
+        final int cnt = read(dst, position);
+        if (cnt > 0) {
+            position += (long) cnt;
+        }
+        return cnt;
+    }
+
+    public synchronized long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+        long total = 0L;
+        for (int i = offset; i < offset + length; i ++) {
+            final ByteBuffer dst = dsts[i];
+            final int rem = dst.remaining();
+            final int cnt = read(dst);
+            if (cnt == -1) {
+                return total == 0L ? -1L : total;
+            }
+            total += (long) cnt;
+            if (cnt < rem) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+        throw new NonWritableChannelException();
+    }
+
+    public int write(final ByteBuffer src, final long position) {
+        throw new NonWritableChannelException();
+    }
+
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    public synchronized FileChannel position(final long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0L) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    public FileChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    public void force(final boolean metaData) throws IOException {
+        checkOpen();
+    }
+
+    public long transferFrom(final ReadableByteChannel src, final long position, final long count) {
+        throw new NonWritableChannelException();
+    }
+
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        throw new IOException("Channel cannot be mapped");
+    }
+
+    public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+        throw new IOException("Channel cannot be locked");
+    }
+
+    public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+        throw new IOException("Channel cannot be locked");
+    }
+
+    protected void implCloseChannel() {
+    }
+
+    final void checkOpen() throws ClosedChannelException {
+        if (! isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+
+/**
+ * A raw deflate decoder, used for random access into compressed entries.  Unlike {@link java.util.zip.Inflater},
+ * this decoder knows the bit position of each deflate block, so it can record checkpoints while it reads, and resume
+ * from any checkpoint of a {@link ZipInflateIndex} given the window of output which preceded it.
+ */
+final class SeekableInflater {
+
+    private static final int WINDOW_SIZE = 32768;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int FAST_BITS = 10;
+
+    private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        final byte[] lengths = new byte[288];
+        for (int i = 0; i < 288; i ++) {
+            lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        }
+        final byte[] distLengths = new byte[30];
+        for (int i = 0; i < 30; i ++) {
+            distLengths[i] = 5;
+        }
+        try {
+            FIXED_LITERALS = new Huffman(lengths, 288);
+            FIXED_DISTANCES = new Huffman(distLengths, 30);
+        } catch (ZipException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final int HEADER = 0;
+    private static final int STORED = 1;
+    private static final int CODES = 2;
+    private static final int DONE = 3;
+
+    private final FileChannel channel;
+    private final long dataOffset;
+    private final ZipEntry zipEntry;
+
+    private final ByteBuffer input = ByteBuffer.allocate(8192);
+    // the offset (from the start of the entry data) of the next byte to be loaded into the input buffer
+    private long inputOffset;
+    private long bitBuf;
+    private int bitCnt;
+    // the number of bytes loaded into the bit buffer
+    private long bytesLoaded;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long totalOut;
+
+    private int state;
+    private boolean last;
+    private int storedRemaining;
+    private Huffman literals;
+    private Huffman distances;
+    private int copyLength;
+    private int copyDistance;
+
+    private long spacing;
+    private long nextCheckpoint;
+    private List<long[]> checkpoints;
+    private List<byte[]> windows;
+    private ZipInflateIndex index;
+
+    SeekableInflater(final FileChannel channel, final long dataOffset, final ZipEntry zipEntry) {
+        this.channel = channel;
+        this.dataOffset = dataOffset;
+        this.zipEntry = zipEntry;
+        input.limit(0);
+    }
+
+    /**
+     * Record checkpoints while reading, building an index once the end of the stream is reached.  Must be called
+     * before anything is read.
+     *
+     * @param spacing the minimum number of bytes of output between checkpoints
+     */
+    void record(final long spacing) {
+        this.spacing = spacing;
+        nextCheckpoint = spacing;
+        checkpoints = new ArrayList<long[]>();
+        windows = new ArrayList<byte[]>();
+    }
+
+    /**
+     * Resume decoding from a checkpoint of an index.
+     *
+     * @param index the index
+     * @param checkpoint the checkpoint number
+     * @throws IOException if an I/O error occurs
+     */
+    void restore(final ZipInflateIndex index, final int checkpoint) throws IOException {
+        final long bitOffset = index.getBitOffset(checkpoint);
+        final byte[] savedWindow = index.getWindow(checkpoint);
+        totalOut = index.getOutputOffset(checkpoint);
+        for (int i = 0; i < savedWindow.length; i ++) {
+            window[(int) (totalOut - savedWindow.length + i) & WINDOW_MASK] = savedWindow[i];
+        }
+        inputOffset = bytesLoaded = bitOffset >>> 3;
+        final int bits = (int) bitOffset & 7;
+        if (bits != 0) {
+            need(bits);
+            drop(bits);
+        }
+    }
+
+    long getTotalOut() {
+        return totalOut;
+    }
+
+    /**
+     * Get the index which was recorded, if the whole stream has been read.
+     *
+     * @return the index, or {@code null} if none is available
+     */
+    ZipInflateIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Read inflated data.
+     *
+     * @param b the destination array
+     * @param off the offset into the array
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     * @throws IOException if an I/O error occurs or the stream is invalid
+     */
+    int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        final byte[] window = this.window;
+        int n = 0;
+        while (n < len) {
+            if (copyLength > 0) {
+                final int cnt = min(copyLength, len - n);
+                int src = (int) (totalOut - copyDistance) & WINDOW_MASK;
+                int dst = (int) totalOut & WINDOW_MASK;
+                for (int i = 0; i < cnt; i ++) {
+                    final byte v = window[src];
+                    window[dst] = v;
+                    b[off + n + i] = v;
+                    src = (src + 1) & WINDOW_MASK;
+                    dst = (dst + 1) & WINDOW_MASK;
+                }
+                copyLength -= cnt;
+                totalOut += (long) cnt;
+                n += cnt;
+                continue;
+            }
+            switch (state) {
+                case HEADER: {
+                    if (last) {
+                        finished();
+                        continue;
+                    }
+                    if (checkpoints != null && totalOut >= nextCheckpoint) {
+                        checkpoint();
+                    }
+                    need(3);
+                    last = (bitBuf & 1) != 0;
+                    final int type = (int) (bitBuf >>> 1) & 3;
+                    drop(3);
+                    switch (type) {
+                        case 0: {
+                            drop(bitCnt & 7);
+                            need(32);
+                            final int length = (int) bitBuf & 0xffff;
+                            if ((length ^ 0xffff) != ((int) (bitBuf >>> 16) & 0xffff)) {
+                                throw new ZipException("Invalid stored block length in zip entry '" + zipEntry.getName() + "'");
+                            }
+                            drop(32);
+                            storedRemaining = length;
+                            state = STORED;
+                            break;
+                        }
+                        case 1: {
+                            literals = FIXED_LITERALS;
+                            distances = FIXED_DISTANCES;
+                            state = CODES;
+                            break;
+                        }
+                        case 2: {
+                            readDynamicTables();
+                            state = CODES;
+                            break;
+                        }
+                        default: {
+                            throw new ZipException("Invalid block type in zip entry '" + zipEntry.getName() + "'");
+                        }
+                    }
+                    continue;
+                }
+                case STORED: {
+                    if (storedRemaining == 0) {
+                        state = HEADER;
+                        continue;
+                    }
+                    need(8);
+                    final byte v = (byte) bitBuf;
+                    drop(8);
+                    window[(int) totalOut & WINDOW_MASK] = v;
+                    b[off + n ++] = v;
+                    totalOut ++;
+                    storedRemaining --;
+                    continue;
+                }
+                case CODES: {
+                    final int sym = decode(literals);
+                    if (sym < 256) {
+                        final byte v = (byte) sym;
+                        window[(int) totalOut & WINDOW_MASK] = v;
+                        b[off + n ++] = v;
+                        totalOut ++;
+                        continue;
+                    }
+                    if (sym == 256) {
+                        state = HEADER;
+                        continue;
+                    }
+                    final int lengthCode = sym - 257;
+                    if (lengthCode >= LENGTH_BASE.length) {
+                        throw new ZipException("Invalid length code in zip entry '" + zipEntry.getName() + "'");
+                    }
+                    final int length = LENGTH_BASE[lengthCode] + bits(LENGTH_EXTRA[lengthCode]);
+                    final int distCode = decode(distances);
+                    if (distCode >= DIST_BASE.length) {
+                        throw new ZipException("Invalid distance code in zip entry '" + zipEntry.getName() + "'");
+                    }
+                    final int distance = DIST_BASE[distCode] + bits(DIST_EXTRA[distCode]);
+                    if ((long) distance > totalOut) {
+                        throw new ZipException("Invalid distance too far back in zip entry '" + zipEntry.getName() + "'");
+                    }
+                    copyLength = length;
+                    copyDistance = distance;
+                    continue;
+                }
+                default: {
+                    return n == 0 ? -1 : n;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Skip inflated data.
+     *
+     * @param count the number of bytes to skip
+     * @return the number of bytes skipped, which is less than requested only at the end of the stream
+     * @throws IOException if an I/O error occurs or the stream is invalid
+     */
+    long skip(final long count) throws IOException {
+        final byte[] scratch = new byte[(int) min(count, 8192L)];
+        long done = 0L;
+        while (done < count) {
+            final int cnt = read(scratch, 0, (int) min((long) scratch.length, count - done));
+            if (cnt == -1) {
+                break;
+            }
+            done += (long) cnt;
+        }
+        return done;
+    }
+
+    /**
+     * Read to the end of the stream, which must not hold any more data.  If checkpoints were being recorded, the
+     * index is then available.
+     *
+     * @throws IOException if an I/O error occurs or the stream is invalid
+     */
+    void finish() throws IOException {
+        if (read(new byte[1], 0, 1) != -1) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is longer than its recorded size");
+        }
+    }
+
+    private void finished() throws ZipException {
+        if (totalOut != zipEntry.getSize()) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is " + (totalOut < zipEntry.getSize() ? "shorter" : "longer") + " than its recorded size");
+        }
+        if (state != DONE && checkpoints != null) {
+            final int cnt = checkpoints.size();
+            final long[] outputOffsets = new long[cnt];
+            final long[] bitOffsets = new long[cnt];
+            for (int i = 0; i < cnt; i ++) {
+                outputOffsets[i] = checkpoints.get(i)[0];
+                bitOffsets[i] = checkpoints.get(i)[1];
+            }
+            index = new ZipInflateIndex(zipEntry.getSize(), zipEntry.getCompressedSize(), zipEntry.getCrc32(), spacing, outputOffsets, bitOffsets, windows.toArray(new byte[cnt][]));
+            checkpoints = null;
+            windows = null;
+        }
+        state = DONE;
+    }
+
+    private void checkpoint() {
+        final int len = (int) min(totalOut, (long) WINDOW_SIZE);
+        final byte[] saved = new byte[len];
+        for (int i = 0; i < len; i ++) {
+            saved[i] = window[(int) (totalOut - len + i) & WINDOW_MASK];
+        }
+        checkpoints.add(new long[] { totalOut, (bytesLoaded << 3) - bitCnt });
+        windows.add(saved);
+        nextCheckpoint = totalOut + spacing;
+    }
+
+    private void readDynamicTables() throws IOException {
+        final int literalCount = bits(5) + 257;
+        final int distanceCount = bits(5) + 1;
+        final int codeLengthCount = bits(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new ZipException("Invalid dynamic block code counts in zip entry '" + zipEntry.getName() + "'");
+        }
+        final byte[] codeLengthLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i ++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        final Huffman codeLengths = new Huffman(codeLengthLengths, 19);
+        final byte[] lengths = new byte[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length) {
+            final int sym = decode(codeLengths);
+            if (sym < 16) {
+                lengths[i ++] = (byte) sym;
+                continue;
+            }
+            final byte value;
+            final int repeat;
+            if (sym == 16) {
+                if (i == 0) {
+                    throw new ZipException("Invalid code length repeat in zip entry '" + zipEntry.getName() + "'");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (sym == 17) {
+                value = 0;
+                repeat = 3 + bits(3);
+            } else {
+                value = 0;
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new ZipException("Invalid code length repeat in zip entry '" + zipEntry.getName() + "'");
+            }
+            for (int j = 0; j < repeat; j ++) {
+                lengths[i ++] = value;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("Missing end-of-block code in zip entry '" + zipEntry.getName() + "'");
+        }
+        final byte[] distanceLengths = new byte[distanceCount];
+        System.arraycopy(lengths, literalCount, distanceLengths, 0, distanceCount);
+        literals = new Huffman(lengths, literalCount);
+        distances = new Huffman(distanceLengths, distanceCount);
+    }
+
+    private int decode(final Huffman huffman) throws IOException {
+        fill();
+        final int entry = huffman.fast[(int) bitBuf & ((1 << FAST_BITS) - 1)];
+        final int len = entry & 15;
+        if (entry != 0 && len <= bitCnt) {
+            drop(len);
+            return entry >>> 4;
+        }
+        // long (or invalid) code, decoded one bit at a time
+        int code = 0;
+        int first = 0;
+        int idx = 0;
+        for (int i = 1; i <= 15; i ++) {
+            code |= bits(1);
+            final int count = huffman.count[i];
+            if (code - count < first) {
+                return huffman.symbols[idx + code - first];
+            }
+            idx += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new ZipException("Invalid Huffman code in zip entry '" + zipEntry.getName() + "'");
+    }
+
+    private int bits(final int n) throws IOException {
+        if (n == 0) {
+            return 0;
+        }
+        need(n);
+        final int v = (int) bitBuf & ((1 << n) - 1);
+        drop(n);
+        return v;
+    }
+
+    private void drop(final int n) {
+        bitBuf >>>= n;
+        bitCnt -= n;
+    }
+
+    private void need(final int n) throws IOException {
+        if (bitCnt < n) {
+            fill();
+            if (bitCnt < n) {
+                throw new EOFException("Unexpected end of deflate stream in zip entry '" + zipEntry.getName() + "'");
+            }
+        }
+    }
+
+    private void fill() throws IOException {
+        final ByteBuffer input = this.input;
+        while (bitCnt <= 56) {
+            if (! input.hasRemaining() && ! refill()) {
+                return;
+            }
+            bitBuf |= (long) (input.get() & 0xff) << bitCnt;
+            bitCnt += 8;
+            bytesLoaded ++;
+        }
+    }
+
+    private boolean refill() throws IOException {
+        final long remaining = zipEntry.getCompressedSize() - inputOffset;
+        if (remaining <= 0L) {
+            return false;
+        }
+        final ByteBuffer input = this.input;
+        input.clear();
+        input.limit((int) min(remaining, (long) input.capacity()));
+        final int cnt = channel.read(input, dataOffset + inputOffset);
+        input.flip();
+        if (cnt == -1) {
+            throw new EOFException("Unexpected end of zip file in entry '" + zipEntry.getName() + "'");
+        }
+        inputOffset += (long) cnt;
+        return cnt > 0;
+    }
+
+    static final class Huffman {
+        final short[] count = new short[16];
+        final short[] symbols;
+        final int[] fast = new int[1 << FAST_BITS];
+
+        Huffman(final byte[] lengths, final int n) throws ZipException {
+            symbols = new short[n];
+            for (int i = 0; i < n; i ++) {
+                count[lengths[i]] ++;
+            }
+            count[0] = 0;
+            int left = 1;
+            for (int len = 1; len <= 15; len ++) {
+                left <<= 1;
+                left -= count[len];
+                if (left < 0) {
+                    throw new ZipException("Over-subscribed Huffman code");
+                }
+            }
+            final int[] offsets = new int[16];
+            for (int len = 1; len < 15; len ++) {
+                offsets[len + 1] = offsets[len] + count[len];
+            }
+            for (int i = 0; i < n; i ++) {
+                if (lengths[i] != 0) {
+                    symbols[offsets[lengths[i]] ++] = (short) i;
+                }
+            }
+            // canonical codes, bit-reversed into the fast lookup table
+            int code = 0;
+            int idx = 0;
+            for (int len = 1; len <= FAST_BITS; len ++) {
+                for (int i = 0; i < count[len]; i ++) {
+                    int reversed = 0;
+                    for (int j = 0; j < len; j ++) {
+                        reversed |= ((code >>> j) & 1) << (len - 1 - j);
+                    }
+                    final int entry = symbols[idx ++] << 4 | len;
+                    for (int k = reversed; k < fast.length; k += 1 << len) {
+                        fast[k] = entry;
+                    }
+                    code ++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.WritableByteChannel;
+import static java.lang.Math.min;
+
+/**
+ * A read-only view of a region of another file channel.  All reads are positional reads of the underlying channel,
+ * so any number of views may share one channel.  Closing a view does not close the underlying channel.
+ */
+final class WindowFileChannel extends ReadOnlyFileChannel {
+
+    private final FileChannel delegate;
+    private final long base;
+    private final long length;
+
+    WindowFileChannel(final FileChannel delegate, final long base, final long length) {
+        this.delegate = delegate;
+        this.base = base;
+        this.length = length;
+    }
+
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        checkOpen();
+        if (position < 0L) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= length) {
+            return -1;
+        }
+        final long rem = length - position;
+        if ((long) dst.remaining() <= rem) {
+            return delegate.read(dst, base + position);
+        }
+        final ByteBuffer limited = dst.duplicate();
+        limited.limit(limited.position() + (int) rem);
+        final int cnt = delegate.read(limited, base + position);
+        dst.position(limited.position());
+        return cnt;
+    }
+
+    public long size() throws IOException {
+        checkOpen();
+        return length;
+    }
+
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        checkOpen();
+        if (position >= length) {
+            return 0L;
+        }
+        return delegate.transferTo(base + position, min(count, length - position), target);
+    }
+
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        checkOpen();
+        if (mode != MapMode.READ_ONLY) {
+            throw new NonWritableChannelException();
+        }
+        if (position < 0L || size < 0L || position + size > length) {
+            throw new IOException("Region lies outside of the channel");
+        }
+        return delegate.map(mode, base + position, size);
+    }
+}
@@ -26,17 +26,34 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.io.DataInput;
-import java.io.FileOutputStream;
 import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.EOFException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.zip.ZipException;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
+import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import static java.lang.Math.min;
 import static java.lang.Math.max;
 import com.jcraft.jzlib.ZInputStream;
@@ -46,6 +63,15 @@ import com.jcraft.jzlib.ZInputStream;
  */
 public final class Zip {
 
+    // the size of the fixed part of a local file header
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    // enough for a local file header with all but the longest file names
+    private static final int LOCAL_HEADER_READ_SIZE = 512;
+
+    // the amount of the file read at once when resolving the data offsets of a catalog
+    private static final int RESOLVE_READ_SIZE = 16384;
+
     private Zip() {
     }
 
@@ -57,7 +83,20 @@ public final class Zip {
      * @throws IOException if an I/O error occurs
      */
     public static ZipCatalog readCatalog(File file) throws IOException {
-        return readCatalog(findCatalog(file));
+        final long start = ZipEvents.start();
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final ZipEndRecord endRecord;
+        boolean ok = false;
+        try {
+            endRecord = ZipEndRecord.find(raf.getChannel());
+            raf.seek(endRecord.getDirectoryOffset());
+            ok = true;
+        } finally {
+            if (! ok) safeClose(raf);
+        }
+        final ZipCatalog catalog = readCatalog(new RandomAccessInputStream(raf));
+        ZipEvents.catalogRead(file, catalog, endRecord.getDirectorySize(), start);
+        return catalog;
     }
 
     /**
@@ -72,50 +111,7 @@ public final class Zip {
         boolean ok = false;
         final RandomAccessFile raf = new RandomAccessFile(file, "r");
         try {
-            final long len = raf.length();
-            if (len < 22L) {
-                throw new ZipException("The provided file is too short to hold even one end-of-central-directory record");
-            }
-            // First, check at len-22 in the (common) case that there is no zip file comment.
-            raf.seek(len - 22);
-            if (! catScan(raf, 0)) {
-                // OK, let's back off incrementally, starting from 64 bytes out and going up by a factor of 4 each time
-                int spos = 64;
-                int lim = 64 - 22;
-                if (len < 64) {
-                    raf.seek(0);
-                } else {
-                    raf.seek(len - 64);
-                }
-                while (! catScan(raf, lim)) {
-                    int newSpos = spos << 2;
-                    lim = newSpos - spos;
-                    spos = newSpos;
-                    if (spos >= 65536) {
-                        throw new ZipException("No directory found");
-                    }
-                    if (spos > len) {
-                        // check from the very start of the file
-                        spos = 65536;
-                        raf.seek(0);
-                    } else {
-                        raf.seek(len - spos);
-                    }
-                }
-            }
-            // OK, the EOD was located.  Now read it to find the start of the directory
-            final int diskNo = Short.reverseBytes(raf.readShort()) & 0xffff; // disk #
-            final int cddNo = Short.reverseBytes(raf.readShort()) & 0xffff; // central dir disk #
-            final int diskEC = Short.reverseBytes(raf.readShort()) & 0xffff; // entry count in central dir # on this disk
-            final int totalEC = Short.reverseBytes(raf.readShort()) & 0xffff; // entry count in central dir #
-            if (diskNo != cddNo || cddNo != 0) {
-                throw new ZipException("Multi-disk zips not supported");
-            }
-            if (diskEC != totalEC) {
-                throw new ZipException("Entry count inconsistency in end-of-directory record");
-            }
-            raf.readInt(); // size of central dir
-            raf.seek(Integer.reverseBytes(raf.readInt())); // offset of central dir
+            raf.seek(ZipEndRecord.find(raf.getChannel()).getDirectoryOffset());
             final RandomAccessInputStream is = new RandomAccessInputStream(raf);
             ok = true;
             return is;
@@ -124,20 +120,6 @@ public final class Zip {
         }
     }
 
-    private static boolean catScan(DataInput input, int limit) throws IOException {
-        // RAF uses big-endian... :-P
-        int sig = Integer.reverseBytes(input.readInt());
-        do {
-            if (sig == 0x06054b50) {
-                return true;
-            }
-            if (limit-- > 0) {
-                sig = (sig >>> 8) | (input.readUnsignedByte() << 24);
-            }
-        } while (limit > 0);
-        return false;
-    }
-
     /**
      * Read the zip catalog referred to by the given input stream, which is pointed at the
      * start of the catalog (also known as the "central directory"), normally located near the <b>end</b> of the
@@ -157,6 +139,113 @@ public final class Zip {
         }
     }
 
+    /**
+     * Get the zip catalog of the given file from the process-wide catalog cache, reading it only if it is not
+     * already cached or if the file has changed since it was cached.
+     *
+     * @param file the file to read
+     * @return the catalog
+     * @throws IOException if an I/O error occurs
+     * @see ZipCatalogCache#getDefault()
+     */
+    public static ZipCatalog readCachedCatalog(File file) throws IOException {
+        return ZipCatalogCache.getDefault().getCatalog(file);
+    }
+
+    /**
+     * Read the zip catalog of the given file into a compact form.  A compact catalog holds the raw central directory
+     * in a single array, and creates entry objects only as they are accessed, using far less memory than a regular
+     * catalog for archives which are kept open or cached for a long time.  Each access costs a little more, however.
+     *
+     * @param file the file to read
+     * @return the compact catalog
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipCatalog readCompactCatalog(File file) throws IOException {
+        final long start = ZipEvents.start();
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final ZipEndRecord endRecord = ZipEndRecord.find(raf.getChannel());
+            final ZipCatalog catalog = CompactZipCatalog.read(raf, endRecord);
+            raf.close();
+            ZipEvents.catalogRead(file, catalog, endRecord.getDirectorySize(), start);
+            return catalog;
+        } finally {
+            safeClose(raf);
+        }
+    }
+
+    /**
+     * Read the zip catalog of the given file, and resolve the location of the data of every file entry up front.
+     * Entries of such a catalog may be opened without reading their local file headers again, which saves a random
+     * read for each entry of an archive that is opened once and read many times.  The regular catalog resolves
+     * the location of each entry's data the first time the entry is opened instead.
+     *
+     * @param file the file to read
+     * @return the built catalog
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipCatalog readResolvedCatalog(File file) throws IOException {
+        final ZipCatalog catalog = readCatalog(file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            resolveDataOffsets(raf.getChannel(), catalog.allEntries());
+            raf.close();
+            return catalog;
+        } finally {
+            safeClose(raf);
+        }
+    }
+
+    /**
+     * Write a catalog index file for the given zip file.  A catalog index holds a pre-parsed, pre-hashed copy of the
+     * catalog, along with the resolved location of each entry's data, in a form which may be opened in constant time
+     * by {@link #openCatalogIndex(File, File)}.  The index may be kept next to the zip file or in a cache directory.
+     *
+     * @param zipFile the zip file
+     * @param indexFile the index file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeCatalogIndex(File zipFile, File indexFile) throws IOException {
+        IndexedZipCatalog.write(zipFile, indexFile);
+    }
+
+    /**
+     * Open a catalog index file which was written by {@link #writeCatalogIndex(File, File)}.  The index is
+     * memory-mapped, and is only used if it still matches the size, modification time and end-of-central-directory
+     * record of the zip file.
+     *
+     * @param zipFile the zip file
+     * @param indexFile the index file
+     * @return the catalog, or {@code null} if the index file does not exist or is out of date
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipCatalog openCatalogIndex(File zipFile, File indexFile) throws IOException {
+        return IndexedZipCatalog.open(zipFile, indexFile);
+    }
+
+    /**
+     * Get the catalog of a zip file from a catalog index file, (re)writing the index file first if it does not exist
+     * or is out of date.
+     *
+     * @param zipFile the zip file
+     * @param indexFile the index file
+     * @return the catalog
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipCatalog readIndexedCatalog(File zipFile, File indexFile) throws IOException {
+        final ZipCatalog catalog = IndexedZipCatalog.open(zipFile, indexFile);
+        if (catalog != null) {
+            return catalog;
+        }
+        IndexedZipCatalog.write(zipFile, indexFile);
+        final ZipCatalog newCatalog = IndexedZipCatalog.open(zipFile, indexFile);
+        if (newCatalog == null) {
+            throw new IOException("Zip file \"" + zipFile + "\" changed while its catalog index was written");
+        }
+        return newCatalog;
+    }
+
     /**
      * Read the zip catalog of the given file.
      *
@@ -168,6 +257,17 @@ public final class Zip {
         return readCatalog(new File(fileName));
     }
 
+    /**
+     * Build a hierarchical directory index for a catalog, which may be used to list the contents of the directories
+     * of the catalog without scanning every entry.
+     *
+     * @param catalog the catalog
+     * @return the directory index
+     */
+    public static ZipDirectoryIndex buildDirectoryIndex(ZipCatalog catalog) {
+        return new ZipDirectoryIndexImpl(catalog);
+    }
+
     /**
      * Open a zip entry, returning an input stream which may be used to read the contents of the
      * entry.  Depending on how the entry is stored, the returned stream may or may not support
@@ -179,18 +279,34 @@ public final class Zip {
      * @throws IOException if an I/O error occurs
      */
     public static InputStream openEntry(File zipFile, ZipEntry zipEntry) throws IOException {
+        final long start = ZipEvents.start();
         final RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
         boolean ok = false;
         try {
-            raf.seek(zipEntry.getOffset());
-            final InputStream is = openEntry(new RandomAccessInputStream(raf), zipEntry);
+            raf.seek(getDataOffset(raf.getChannel(), zipEntry));
+            final InputStream is = openEntryData(new RandomAccessInputStream(raf), zipEntry);
             ok = true;
+            ZipEvents.entryOpened(zipEntry, start);
             return is;
         } finally {
             if (! ok) Zip.safeClose(raf);
         }
     }
 
+    /**
+     * Open a zip entry, returning an input stream which may be used to read the contents of the
+     * entry, verifying the entry contents as specified.
+     *
+     * @param zipFile the zip file to access
+     * @param zipEntry the zip entry from that file
+     * @param verification the verification mode to use
+     * @return an {@code InputStream} which may be used to read the zip file entry data
+     * @throws IOException if an I/O error occurs
+     */
+    public static InputStream openEntry(File zipFile, ZipEntry zipEntry, ZipVerification verification) throws IOException {
+        return verify(openEntry(zipFile, zipEntry), zipEntry, verification);
+    }
+
     /**
      * Open a zip entry.  The given input stream must be located at the start of the zip entry's local header.  When the
      * returned input stream is closed, the provided input stream will be closed as well.
@@ -213,6 +329,21 @@ public final class Zip {
         }
     }
 
+    /**
+     * Open a zip entry, verifying the entry contents as specified.  The given input stream must be located at the
+     * start of the zip entry's local header.  When the returned input stream is closed, the provided input stream will
+     * be closed as well.
+     *
+     * @param inputStream the input stream
+     * @param zipEntry the zip entry
+     * @param verification the verification mode to use
+     * @return an uncompressing input stream
+     * @throws IOException if an I/O error occurs
+     */
+    public static InputStream openEntry(InputStream inputStream, ZipEntry zipEntry, ZipVerification verification) throws IOException {
+        return verify(openEntry(inputStream, zipEntry), zipEntry, verification);
+    }
+
     /**
      * Open a zip entry's raw data.  The given input stream must be located at the start of the zip entry's actual
      * compressed data (that is, after the local file header).  When the returned input stream is closed, the provided
@@ -238,12 +369,14 @@ public final class Zip {
                 case STORE: {
                     final LimitedInputStream is = new LimitedInputStream(inputStream, zipEntry.getCompressedSize());
                     ok = true;
-                    return is;
+                    return ZipEvents.isEnabled() ? new MeteredInputStream(is, zipEntry, null) : is;
                 }
                 case DEFLATE: {
-                    final LimitedInputStream is = new LimitedInputStream(new JZFInflaterStream(new LimitedInputStream(inputStream, zipEntry.getCompressedSize())), zipEntry.getSize());
+                    final boolean metered = ZipEvents.isEnabled();
+                    final JZFInflaterStream inflaterStream = new JZFInflaterStream(new LimitedInputStream(inputStream, zipEntry.getCompressedSize()), metered);
+                    final LimitedInputStream is = new LimitedInputStream(inflaterStream, zipEntry.getSize());
                     ok = true;
-                    return is;
+                    return metered ? new MeteredInputStream(is, zipEntry, inflaterStream) : is;
                 }
             }
             throw new ZipException("Unsupported compression algorithm " + compressionMethod);
@@ -252,36 +385,468 @@ public final class Zip {
         }
     }
 
-    private static void readLocalFileForEntry(final ZipDataInputStream is, final ZipEntry entry) throws IOException {
-        // main header
-        final int sig = is.readInt();
-        if (sig != 0x04034b50) {
+    /**
+     * Open a zip entry's raw data, verifying the entry contents as specified.  The given input stream must be located
+     * at the start of the zip entry's actual compressed data (that is, after the local file header).  When the
+     * returned input stream is closed, the provided input stream will be closed as well.
+     *
+     * @param inputStream the input stream
+     * @param zipEntry the zip entry
+     * @param verification the verification mode to use
+     * @return an uncompressing input stream
+     * @throws IOException if an I/O error occurs
+     */
+    public static InputStream openEntryData(InputStream inputStream, ZipEntry zipEntry, ZipVerification verification) throws IOException {
+        return verify(openEntryData(inputStream, zipEntry), zipEntry, verification);
+    }
+
+    /**
+     * Read the entire contents of a zip entry into a new array of exactly the entry's size.  Stored entries are
+     * read with a single positional read, and deflated entries are inflated directly into the returned array.
+     *
+     * @param zipFile the zip file to access
+     * @param zipEntry the zip entry from that file
+     * @return the entry contents
+     * @throws IOException if an I/O error occurs
+     */
+    public static byte[] readEntry(File zipFile, ZipEntry zipEntry) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final byte[] data = readEntryData(channel, getDataOffset(channel, zipEntry), zipEntry);
+            raf.close();
+            return data;
+        } finally {
+            safeClose(raf);
+        }
+    }
+
+    /**
+     * Read the entire contents of a zip entry into the given buffer, which may be a heap or direct buffer.  The entry
+     * is written at the buffer's position, which is advanced past it; if an exception is thrown, the position is left
+     * unchanged but the contents of the remaining space are undefined.
+     *
+     * @param zipFile the zip file to access
+     * @param zipEntry the zip entry from that file
+     * @param buffer the buffer to fill
+     * @return the number of bytes read
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the entry does not fit in the remaining space of the buffer
+     */
+    public static int readEntry(File zipFile, ZipEntry zipEntry, ByteBuffer buffer) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final int cnt = readEntryData(channel, getDataOffset(channel, zipEntry), zipEntry, buffer);
+            raf.close();
+            return cnt;
+        } finally {
+            safeClose(raf);
+        }
+    }
+
+    /**
+     * Get the offset of a zip entry's data (just past its local file header), verifying the local file header.  The
+     * header is fetched with a single positional read, unless the file name is unusually long.  The extra field is
+     * never read.
+     *
+     * @param channel the zip file channel
+     * @param zipEntry the zip entry
+     * @return the offset of the entry data
+     * @throws IOException if an I/O error occurs
+     */
+    static long getDataOffset(final FileChannel channel, final ZipEntry zipEntry) throws IOException {
+        final long resolved = getResolvedDataOffset(zipEntry);
+        if (resolved >= 0L) {
+            return resolved;
+        }
+        final long offset = zipEntry.getOffset();
+        byte[] buf = new byte[LOCAL_HEADER_READ_SIZE];
+        final int cnt = readAt(channel, ByteBuffer.wrap(buf), offset);
+        if (cnt < LOCAL_HEADER_SIZE) {
+            throw new EOFException("Unexpected end of zip file in local file header of entry '" + zipEntry.getName() + "'");
+        }
+        final int nameEnd = LOCAL_HEADER_SIZE + getLocalFileNameLength(buf, 0);
+        if (nameEnd > cnt) {
+            buf = Arrays.copyOf(buf, nameEnd);
+            if (readAt(channel, ByteBuffer.wrap(buf, cnt, nameEnd - cnt), offset + (long) cnt) < nameEnd - cnt) {
+                throw new EOFException("Unexpected end of zip file in local file header of entry '" + zipEntry.getName() + "'");
+            }
+        }
+        final long dataOffset = offset + (long) checkLocalFileHeader(buf, 0, zipEntry);
+        setResolvedDataOffset(zipEntry, dataOffset);
+        return dataOffset;
+    }
+
+    /**
+     * Get the offset of a zip entry's data if it is already known.
+     *
+     * @param zipEntry the zip entry
+     * @return the offset of the entry data, or -1 if it is not known
+     */
+    static long getResolvedDataOffset(final ZipEntry zipEntry) {
+        if (zipEntry instanceof ZipEntryImpl) {
+            return ((ZipEntryImpl) zipEntry).getDataOffset();
+        } else if (zipEntry instanceof IndexedZipCatalog.IndexedEntry) {
+            // the data offset was resolved when the index was written
+            return ((IndexedZipCatalog.IndexedEntry) zipEntry).getDataOffset();
+        } else {
+            return -1L;
+        }
+    }
+
+    /**
+     * Remember the offset of a zip entry's data, if the entry is able to hold it.
+     *
+     * @param zipEntry the zip entry
+     * @param dataOffset the offset of the entry data
+     */
+    static void setResolvedDataOffset(final ZipEntry zipEntry, final long dataOffset) {
+        if (zipEntry instanceof ZipEntryImpl) {
+            ((ZipEntryImpl) zipEntry).setDataOffset(dataOffset);
+        }
+    }
+
+    /**
+     * Read and verify the local file headers of all the file entries of a catalog, remembering where the data of
+     * each entry begins.  The headers are visited in file order, and headers which lie close together are fetched
+     * with a single read.
+     *
+     * @param channel the zip file channel
+     * @param entries the entries to resolve
+     * @throws IOException if an I/O error occurs
+     */
+    static void resolveDataOffsets(final FileChannel channel, final Collection<ZipEntry> entries) throws IOException {
+        final List<ZipEntry> list = new ArrayList<ZipEntry>(entries.size());
+        for (ZipEntry zipEntry : entries) {
+            if (zipEntry instanceof ZipEntryImpl && zipEntry.getEntryType() == ZipEntryType.FILE && getResolvedDataOffset(zipEntry) < 0L) {
+                list.add(zipEntry);
+            }
+        }
+        Collections.sort(list, new Comparator<ZipEntry>() {
+            public int compare(final ZipEntry o1, final ZipEntry o2) {
+                final long s1 = o1.getOffset();
+                final long s2 = o2.getOffset();
+                return s1 < s2 ? -1 : s1 > s2 ? 1 : 0;
+            }
+        });
+        final byte[] buf = new byte[RESOLVE_READ_SIZE];
+        long bufStart = 0L;
+        int bufLen = 0;
+        for (ZipEntry zipEntry : list) {
+            final long offset = zipEntry.getOffset();
+            if (offset < bufStart || offset + LOCAL_HEADER_SIZE > bufStart + bufLen) {
+                bufStart = offset;
+                bufLen = readAt(channel, ByteBuffer.wrap(buf), offset);
+            }
+            final int pos = (int) (offset - bufStart);
+            if (pos + LOCAL_HEADER_SIZE > bufLen) {
+                throw new EOFException("Unexpected end of zip file in local file header of entry '" + zipEntry.getName() + "'");
+            }
+            if (pos + LOCAL_HEADER_SIZE + getLocalFileNameLength(buf, pos) > bufLen) {
+                // the name runs past the end of the buffer
+                getDataOffset(channel, zipEntry);
+                continue;
+            }
+            setResolvedDataOffset(zipEntry, offset + (long) checkLocalFileHeader(buf, pos, zipEntry));
+        }
+    }
+
+    /**
+     * Fill a buffer from a channel using positional reads, stopping early only at the end of the file.
+     *
+     * @return the number of bytes read
+     */
+    private static int readAt(final FileChannel channel, final ByteBuffer buffer, final long offset) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            final int cnt = channel.read(buffer, offset + (long) total);
+            if (cnt == -1) {
+                break;
+            }
+            total += cnt;
+        }
+        return total;
+    }
+
+    static byte[] readEntryData(final FileChannel channel, final long offset, final ZipEntry zipEntry) throws IOException {
+        final long size = zipEntry.getSize();
+        if (size > (long) Integer.MAX_VALUE) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is too large to fit in a single array");
+        }
+        final byte[] data = new byte[(int) max(0L, size)];
+        readEntryData(channel, offset, zipEntry, ByteBuffer.wrap(data));
+        return data;
+    }
+
+    static int readEntryData(final FileChannel channel, final long offset, final ZipEntry zipEntry, final ByteBuffer buffer) throws IOException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        final long size = zipEntry.getSize();
+        final long compressedSize = zipEntry.getCompressedSize();
+        if (size < 0L || compressedSize < 0L) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' has no recorded size");
+        }
+        if (size > (long) buffer.remaining()) {
+            throw new IllegalArgumentException("Zip entry '" + zipEntry.getName() + "' (" + size + " bytes) does not fit in the buffer (" + buffer.remaining() + " bytes remaining)");
+        }
+        final int len = (int) size;
+        final int start = buffer.position();
+        long inflateNanos = 0L;
+        boolean ok = false;
+        try {
+            final ZipCompressionMethod compressionMethod = zipEntry.getCompressionMethod();
+            switch (compressionMethod) {
+                case STORE: {
+                    if (compressedSize != size) {
+                        throw new ZipException("Stored zip entry '" + zipEntry.getName() + "' has a compressed size which differs from its size");
+                    }
+                    final ByteBuffer dest = buffer.duplicate();
+                    dest.limit(start + len);
+                    long pos = offset;
+                    while (dest.hasRemaining()) {
+                        final int cnt = channel.read(dest, pos);
+                        if (cnt == -1) {
+                            throw new EOFException("Unexpected end of zip file in entry '" + zipEntry.getName() + "'");
+                        }
+                        pos += (long) cnt;
+                    }
+                    break;
+                }
+                case DEFLATE: {
+                    inflateNanos = inflateEntryData(channel, offset, zipEntry, buffer, len);
+                    break;
+                }
+                default: {
+                    throw new ZipException("Unsupported compression algorithm " + compressionMethod);
+                }
+            }
+            buffer.position(start + len);
+            ok = true;
+            ZipEvents.entryRead(zipEntry, size, compressedSize, inflateNanos);
+            return len;
+        } finally {
+            if (! ok) buffer.position(start);
+        }
+    }
+
+    private static long inflateEntryData(final FileChannel channel, final long offset, final ZipEntry zipEntry, final ByteBuffer buffer, final int len) throws IOException {
+        final boolean timed = ZipEvents.isEnabled();
+        final InflaterPool.Item item = InflaterPool.INSTANCE.acquire();
+        try {
+            final Inflater inf = item.getInflater();
+            final byte[] in = item.getBuffer();
+            final ByteBuffer inBuf = ByteBuffer.wrap(in);
+            // heap buffers are inflated into directly; direct buffers need a bounce array
+            final boolean direct = ! buffer.hasArray();
+            final byte[] out = direct ? new byte[min(len, 65536)] : buffer.array();
+            final int outOff = direct ? 0 : buffer.arrayOffset() + buffer.position();
+            final ByteBuffer dest = direct ? buffer.duplicate() : null;
+            final byte[] probe = new byte[1];
+            long pos = offset;
+            long rem = zipEntry.getCompressedSize();
+            boolean eof = false;
+            int done = 0;
+            long inflateNanos = 0L;
+            for (;;) {
+                final long inflateStart = timed ? System.nanoTime() : 0L;
+                final int cnt;
+                if (done == len) {
+                    // make sure that the stream ends where it should
+                    if (inf.inflate(probe, 0, 1) > 0) {
+                        throw new ZipException("Zip entry '" + zipEntry.getName() + "' is longer than its recorded size");
+                    }
+                    cnt = 0;
+                } else if (direct) {
+                    cnt = inf.inflate(out, 0, min(out.length, len - done));
+                    dest.put(out, 0, cnt);
+                } else {
+                    cnt = inf.inflate(out, outOff + done, len - done);
+                }
+                if (timed) {
+                    inflateNanos += System.nanoTime() - inflateStart;
+                }
+                if (cnt > 0) {
+                    done += cnt;
+                    continue;
+                }
+                if (inf.finished()) {
+                    if (done < len) {
+                        throw new ZipException("Zip entry '" + zipEntry.getName() + "' is shorter than its recorded size");
+                    }
+                    return inflateNanos;
+                }
+                if (inf.needsDictionary()) {
+                    throw new ZipException("Deflate stream requires a preset dictionary");
+                }
+                if (inf.needsInput()) {
+                    if (rem == 0L) {
+                        if (eof) {
+                            throw new EOFException("Unexpected end of deflate stream");
+                        }
+                        // the raw inflater may need an extra dummy byte to complete the stream
+                        eof = true;
+                        in[0] = 0;
+                        inf.setInput(in, 0, 1);
+                    } else {
+                        inBuf.clear();
+                        inBuf.limit((int) min(rem, (long) in.length));
+                        final int n = channel.read(inBuf, pos);
+                        if (n == -1) {
+                            throw new EOFException("Unexpected end of zip file in entry '" + zipEntry.getName() + "'");
+                        }
+                        pos += (long) n;
+                        rem -= (long) n;
+                        inf.setInput(in, 0, n);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            final String msg = e.getMessage();
+            throw new ZipException(msg == null ? "Invalid deflate stream" : msg);
+        } finally {
+            InflaterPool.INSTANCE.release(item);
+        }
+    }
+
+    /**
+     * Read a zip file sequentially from a stream, without using its central directory.  The stream need not be
+     * seekable, and entries may be processed while the rest of the stream is still arriving.
+     *
+     * @param inputStream the input stream, positioned at the start of the zip file
+     * @return the stream reader
+     */
+    public static ZipStreamReader readStream(InputStream inputStream) {
+        return new ZipStreamReader(inputStream, ZipVerification.NONE);
+    }
+
+    /**
+     * Read a zip file sequentially from a stream, without using its central directory, verifying the entry contents
+     * as specified.
+     *
+     * @param inputStream the input stream, positioned at the start of the zip file
+     * @param verification the verification mode to use for entry data
+     * @return the stream reader
+     */
+    public static ZipStreamReader readStream(InputStream inputStream, ZipVerification verification) {
+        return new ZipStreamReader(inputStream, verification);
+    }
+
+    /**
+     * Apply a verification mode to an opened entry stream.  If an exception is thrown, the stream is closed.
+     *
+     * @param inputStream the entry stream
+     * @param zipEntry the zip entry
+     * @param verification the verification mode to use
+     * @return the verifying stream
+     * @throws IOException if an I/O error occurs
+     */
+    static InputStream verify(final InputStream inputStream, final ZipEntry zipEntry, final ZipVerification verification) throws IOException {
+        switch (verification) {
+            case NONE: {
+                return inputStream;
+            }
+            case STREAMING: {
+                return new CrcCheckingInputStream(inputStream, zipEntry);
+            }
+            case BEFORE_DELIVERY: {
+                try {
+                    final long size = zipEntry.getSize();
+                    if (size > (long) Integer.MAX_VALUE) {
+                        throw new ZipException("Zip entry '" + zipEntry.getName() + "' is too large to verify before delivery");
+                    }
+                    final InputStream is = new CrcCheckingInputStream(inputStream, zipEntry);
+                    if (size < 0L) {
+                        // the size is not known until the end of the data (streamed entry with a data descriptor)
+                        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        final byte[] buf = new byte[8192];
+                        int cnt;
+                        while ((cnt = is.read(buf)) != -1) {
+                            baos.write(buf, 0, cnt);
+                        }
+                        is.close();
+                        return new ByteArrayInputStream(baos.toByteArray());
+                    }
+                    final byte[] data = new byte[(int) size];
+                    int pos = 0;
+                    while (pos < data.length) {
+                        final int cnt = is.read(data, pos, data.length - pos);
+                        if (cnt == -1) {
+                            break;
+                        }
+                        pos += cnt;
+                    }
+                    // reaching the end triggers the check
+                    if (is.read() != -1) {
+                        throw new ZipException("Zip entry '" + zipEntry.getName() + "' is longer than its recorded size");
+                    }
+                    is.close();
+                    return new ByteArrayInputStream(data);
+                } finally {
+                    safeClose(inputStream);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown verification mode " + verification);
+    }
+
+    static void readLocalFileForEntry(final ZipDataInputStream is, final ZipEntry entry) throws IOException {
+        final byte[] fixed = new byte[LOCAL_HEADER_SIZE];
+        is.readFully(fixed);
+        final int fnameLen = getLocalFileNameLength(fixed, 0);
+        final byte[] buf = Arrays.copyOf(fixed, LOCAL_HEADER_SIZE + fnameLen);
+        is.readFully(buf, LOCAL_HEADER_SIZE, fnameLen);
+        is.skipFully(checkLocalFileHeader(buf, 0, entry) - buf.length);
+    }
+
+    /**
+     * Check the signature and version of a local file header, and get the length of its file name.
+     *
+     * @param buf the buffer holding (at least) the fixed part of the header
+     * @param off the offset of the header in the buffer
+     * @return the length of the file name
+     * @throws ZipException if the header is not valid
+     */
+    static int getLocalFileNameLength(final byte[] buf, final int off) throws ZipException {
+        if (ZipCatalogBuilder.getInt(buf, off) != 0x04034b50) {
             throw new ZipException("Corrupted zip entry (local file header signature is incorrect)");
         }
-        final int extVers = is.readUnsignedShort();
-        if (extVers > 20) {
+        if (ZipCatalogBuilder.getUnsignedShort(buf, off + 4) > 45) {
             throw new ZipException("Entry requires a later version to extract");
         }
-        is.readUnsignedShort(); // GP bits - may be needed for some methods?
-        final ZipCompressionMethod method = ZipCompressionMethod.getMethod(is.readUnsignedShort());
-        is.readInt(); // local mod time
-        is.readInt(); // local crc32 (usually 0)
-        is.readInt(); // compressed size (header) (usually 0)
-        is.readInt(); // uncomp size (header) (usually 0)
-        final int fnameLen = is.readUnsignedShort();
-        final int extraLen = is.readUnsignedShort();
-        final byte[] fileNameBytes = new byte[fnameLen];
-        is.readFully(fileNameBytes);
+        return ZipCatalogBuilder.getUnsignedShort(buf, off + 26);
+    }
+
+    /**
+     * Check that a local file header matches its catalog entry.
+     *
+     * @param buf the buffer holding (at least) the fixed part of the header and the file name
+     * @param off the offset of the header in the buffer
+     * @param entry the catalog entry
+     * @return the total length of the header, including the extra field
+     * @throws ZipException if the header does not match
+     */
+    static int checkLocalFileHeader(final byte[] buf, final int off, final ZipEntry entry) throws ZipException {
+        final int gpBits = ZipCatalogBuilder.getUnsignedShort(buf, off + 6);
+        final ZipCompressionMethod method = ZipCompressionMethod.getMethod(ZipCatalogBuilder.getUnsignedShort(buf, off + 8));
+        // mod time, crc32, compressed and uncompressed sizes are ignored (they are usually 0)
+        final int fnameLen = ZipCatalogBuilder.getUnsignedShort(buf, off + 26);
+        final int extraLen = ZipCatalogBuilder.getUnsignedShort(buf, off + 28);
         final ZipCompressionMethod expectedMethod = entry.getCompressionMethod();
         if (! expectedMethod.equals(method)) {
             throw new ZipException(String.format("Compression methods do not match (expected \"%s\", got \"%s\")", expectedMethod, method));
         }
-        final String actualFileName = new String(fileNameBytes, "US-ASCII");
         final String expectFileName = entry.getName();
-        if (! expectFileName.equals(actualFileName)) {
-            throw new ZipException(String.format("File names do not match (expected \"%s\", got \"%s\")", expectFileName, actualFileName));
+        // the UTF-8 flag may be set in only one of the headers, so compare the encoded form first
+        if (! ZipNames.equals(buf, off + LOCAL_HEADER_SIZE, fnameLen, expectFileName)) {
+            final String actualFileName = ZipNames.decode(buf, off + LOCAL_HEADER_SIZE, fnameLen, (gpBits & ZipNames.GP_UTF8) != 0);
+            if (! expectFileName.equals(actualFileName)) {
+                throw new ZipException(String.format("File names do not match (expected \"%s\", got \"%s\")", expectFileName, actualFileName));
+            }
         }
-        is.skipFully(extraLen);
+        return LOCAL_HEADER_SIZE + fnameLen + extraLen;
     }
 
     /**
@@ -295,9 +860,134 @@ public final class Zip {
         if (! destDir.isDirectory()) {
             throw new IOException("Destination is not a directory");
         }
-        final byte[] buf = new byte[65536];
-        final ZipCatalog catalog = readCatalog(zipFile);
+        final ZipArchive archive = ZipArchive.open(zipFile);
+        try {
+            for (ZipEntry zipEntry : createDirectories(archive.getCatalog(), destDir)) {
+                archive.extractEntry(zipEntry, new File(destDir, zipEntry.getName()).getCanonicalFile());
+            }
+            archive.close();
+        } finally {
+            safeClose(archive);
+        }
+    }
+
+    /**
+     * Extract a zip file (in entirety) to a destination directory, using a pool of the given number of threads to
+     * extract file entries in parallel.
+     *
+     * @param zipFile the zip file
+     * @param destDir the destination directory
+     * @param threads the number of threads to use
+     * @return the extraction statistics
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipExtractStatistics extract(File zipFile, File destDir, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return extract(zipFile, destDir, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Extract a zip file (in entirety) to a destination directory, extracting file entries in parallel on the given
+     * executor.  All directories are created before any file is extracted, and the entries with the largest compressed
+     * size are submitted first.  This method returns once every entry has been extracted.
+     *
+     * @param zipFile the zip file
+     * @param destDir the destination directory
+     * @param executor the executor to use to extract file entries
+     * @return the extraction statistics
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipExtractStatistics extract(File zipFile, final File destDir, Executor executor) throws IOException {
+        if (! destDir.isDirectory()) {
+            throw new IOException("Destination is not a directory");
+        }
+        final long start = System.nanoTime();
+        final ZipArchive archive = ZipArchive.open(zipFile);
+        try {
+            final List<ZipEntry> fileEntries = createDirectories(archive.getCatalog(), destDir);
+            // biggest first, so that one large entry does not hold up the end of the run
+            Collections.sort(fileEntries, new Comparator<ZipEntry>() {
+                public int compare(final ZipEntry o1, final ZipEntry o2) {
+                    final long s1 = o1.getCompressedSize();
+                    final long s2 = o2.getCompressedSize();
+                    return s1 > s2 ? -1 : s1 < s2 ? 1 : 0;
+                }
+            });
+            final int cnt = fileEntries.size();
+            final CountDownLatch latch = new CountDownLatch(cnt);
+            final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+            final AtomicLong size = new AtomicLong();
+            final AtomicLong compressedSize = new AtomicLong();
+            for (final ZipEntry zipEntry : fileEntries) {
+                final Runnable task = new Runnable() {
+                    public void run() {
+                        try {
+                            if (problem.get() == null) {
+                                size.addAndGet(archive.extractEntry(zipEntry, new File(destDir, zipEntry.getName()).getCanonicalFile()));
+                                compressedSize.addAndGet(zipEntry.getCompressedSize());
+                            }
+                        } catch (Throwable t) {
+                            problem.compareAndSet(null, t);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                };
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    problem.compareAndSet(null, e);
+                    latch.countDown();
+                }
+            }
+            boolean intr = false;
+            for (;;) try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                // tell the remaining tasks to give up, but we must still wait for the running ones to finish
+                intr = true;
+                problem.compareAndSet(null, e);
+            }
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+            final Throwable t = problem.get();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t instanceof InterruptedException) {
+                throw new InterruptedIOException("Extraction interrupted");
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                throw new IllegalStateException(t);
+            }
+            return new ZipExtractStatistics(cnt, size.get(), compressedSize.get(), System.nanoTime() - start);
+        } finally {
+            safeClose(archive);
+        }
+    }
+
+    /**
+     * Create the directories of every entry of a catalog under a destination directory, including the parent
+     * directories of its file entries.
+     *
+     * @param catalog the catalog
+     * @param destDir the destination directory
+     * @return the file entries of the catalog, in catalog order
+     */
+    private static List<ZipEntry> createDirectories(final ZipCatalog catalog, final File destDir) {
         final Set<String> createdPaths = new HashSet<String>(256);
+        final List<ZipEntry> fileEntries = new ArrayList<ZipEntry>();
         for (ZipEntry zipEntry : catalog.allEntries()) {
             final String name = zipEntry.getName();
             final ZipEntryType entryType = zipEntry.getEntryType();
@@ -308,7 +998,6 @@ public final class Zip {
                     }
                 }
             } else if (entryType == ZipEntryType.FILE) {
-                final File file = new File(destDir, name).getCanonicalFile();
                 final Iterator<String> it = parentPaths(name).iterator();
                 while (it.hasNext()) {
                     String path = it.next();
@@ -318,30 +1007,12 @@ public final class Zip {
                         }
                     }
                 }
-                file.delete();
-                final FileOutputStream fos = new FileOutputStream(file);
-                try {
-                    final InputStream inputStream = Zip.openEntry(zipFile, zipEntry);
-                    try {
-                        for (;;) {
-                            final int cnt = inputStream.read(buf);
-                            if (cnt == -1) {
-                                inputStream.close();
-                                fos.close();
-                                break;
-                            }
-                            fos.write(buf, 0, cnt);
-                        }
-                    } finally {
-                        safeClose(inputStream);
-                    }
-                } finally {
-                    safeClose(fos);
-                }
+                fileEntries.add(zipEntry);
             } else {
                 // skip unknown entry
             }
         }
+        return fileEntries;
     }
 
     private static Iterable<String> parentPaths(final String wholePath) {
@@ -404,23 +1075,221 @@ public final class Zip {
         return new GregorianCalendar(year, month - 1, day, hour, minute, second).getTimeInMillis();
     }
 
-    private static final class JZFInflaterStream extends InflaterInputStream {
+    /**
+     * Get the MS-DOS date and time for a timestamp, as the date in the upper 16 bits and the time in the lower 16
+     * bits.  Times outside of the representable range are clamped to it.
+     *
+     * @param time the timestamp in milliseconds
+     * @return the MS-DOS date and time
+     */
+    static int getDosTime(final long time) {
+        final GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return 1 << 21 | 1 << 16;
+        } else if (year > 2107) {
+            return 127 << 25 | 12 << 21 | 31 << 16 | 23 << 11 | 59 << 5 | 29;
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Register a listener to be notified of zip file operations.
+     *
+     * @param listener the listener
+     */
+    public static void addListener(ZipListener listener) {
+        ZipEvents.addListener(listener);
+    }
+
+    /**
+     * Remove a previously registered listener.  Does nothing if the listener is not registered.
+     *
+     * @param listener the listener
+     */
+    public static void removeListener(ZipListener listener) {
+        ZipEvents.removeListener(listener);
+    }
+
+    /**
+     * Get the number of times a pooled inflater was reused for a {@code DEFLATE} entry stream.
+     *
+     * @return the inflater pool hit count
+     */
+    public static long getInflaterPoolHits() {
+        return InflaterPool.INSTANCE.getHits();
+    }
+
+    /**
+     * Get the number of times a new inflater had to be created for a {@code DEFLATE} entry stream because the pool was
+     * empty.
+     *
+     * @return the inflater pool miss count
+     */
+    public static long getInflaterPoolMisses() {
+        return InflaterPool.INSTANCE.getMisses();
+    }
+
+    private static final class JZFInflaterStream extends InputStream {
+        private final InputStream in;
+        private final InflaterPool.Item item;
         private final Inflater inf;
+        private final byte[] buf;
+        private final boolean timed;
+        private boolean eof;
+        private boolean closed;
+        private long bytesIn;
+        private long inflateNanos;
 
-        JZFInflaterStream(InputStream in) {
-            this(in, new Inflater(true));
+        JZFInflaterStream(InputStream in, boolean timed) {
+            this.in = in;
+            this.timed = timed;
+            item = InflaterPool.INSTANCE.acquire();
+            inf = item.getInflater();
+            buf = item.getBuffer();
         }
 
-        public JZFInflaterStream(InputStream in, Inflater inf) {
-            super(in, inf, 4096);
-            this.inf = inf;
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
         }
 
-        public void close() throws IOException {
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final Inflater inf = this.inf;
             try {
-                super.close();
-            } finally {
-                inf.end();
+                for (;;) {
+                    final int cnt;
+                    if (timed) {
+                        final long start = System.nanoTime();
+                        cnt = inf.inflate(b, off, len);
+                        inflateNanos += System.nanoTime() - start;
+                    } else {
+                        cnt = inf.inflate(b, off, len);
+                    }
+                    if (cnt > 0) {
+                        return cnt;
+                    }
+                    if (inf.finished()) {
+                        return -1;
+                    }
+                    if (inf.needsDictionary()) {
+                        throw new ZipException("Deflate stream requires a preset dictionary");
+                    }
+                    if (inf.needsInput()) {
+                        fill();
+                    }
+                }
+            } catch (DataFormatException e) {
+                final String msg = e.getMessage();
+                throw new ZipException(msg == null ? "Invalid deflate stream" : msg);
+            }
+        }
+
+        private void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflate stream");
+            }
+            final int cnt = in.read(buf, 0, buf.length);
+            if (cnt == -1) {
+                // the raw inflater may need an extra dummy byte to complete the stream
+                eof = true;
+                buf[0] = 0;
+                inf.setInput(buf, 0, 1);
+            } else {
+                bytesIn += (long) cnt;
+                inf.setInput(buf, 0, cnt);
+            }
+        }
+
+        long getBytesIn() {
+            return bytesIn;
+        }
+
+        long getInflateNanos() {
+            return inflateNanos;
+        }
+
+        public int available() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            return inf.finished() ? 0 : 1;
+        }
+
+        public void close() throws IOException {
+            if (! closed) {
+                closed = true;
+                try {
+                    in.close();
+                } finally {
+                    InflaterPool.INSTANCE.release(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * A stream which counts the bytes delivered from an entry, and reports them to the listeners when it is closed.
+     */
+    private static final class MeteredInputStream extends InputStream {
+        private final InputStream in;
+        private final ZipEntry zipEntry;
+        private final JZFInflaterStream inflaterStream;
+        private long bytes;
+        private boolean closed;
+
+        MeteredInputStream(final InputStream in, final ZipEntry zipEntry, final JZFInflaterStream inflaterStream) {
+            this.in = in;
+            this.zipEntry = zipEntry;
+            this.inflaterStream = inflaterStream;
+        }
+
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1) {
+                bytes ++;
+            }
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int cnt = in.read(b, off, len);
+            if (cnt > 0) {
+                bytes += (long) cnt;
+            }
+            return cnt;
+        }
+
+        public long skip(final long n) throws IOException {
+            final long cnt = in.skip(n);
+            bytes += cnt;
+            return cnt;
+        }
+
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        public void close() throws IOException {
+            if (! closed) {
+                closed = true;
+                try {
+                    in.close();
+                } finally {
+                    final JZFInflaterStream inflaterStream = this.inflaterStream;
+                    if (inflaterStream == null) {
+                        ZipEvents.entryRead(zipEntry, bytes, bytes, 0L);
+                    } else {
+                        ZipEvents.entryRead(zipEntry, bytes, inflaterStream.getBytesIn(), inflaterStream.getInflateNanos());
+                    }
+                }
             }
         }
     }
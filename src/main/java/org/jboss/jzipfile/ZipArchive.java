@@ -0,0 +1,468 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipException;
+
+/**
+ * An open zip archive.  An archive holds a single open file and the parsed catalog of that file, and may be used
+ * to read any number of entries, from any number of threads, at the same time.  Entry data is read using positional
+ * reads, so no locking takes place and no shared file pointer is involved.
+ * <p>
+ * Note that interrupting a thread which is reading from an archive will cause the underlying channel (and thus
+ * the archive) to be closed.
+ * <p>
+ * An entry of an archive which is itself a zip file may be opened as a nested archive with
+ * {@link #openNestedArchive(ZipEntry)}.
+ */
+public final class ZipArchive implements Closeable {
+
+    private static final ThreadLocal<byte[]> TRANSFER_BUFFER = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[65536];
+        }
+    };
+
+    private final File file;
+    private final FileChannel channel;
+    private final ZipCatalog catalog;
+    // holds the inflated contents of a nested archive; deleted on close
+    private final File tempFile;
+    // keyed by local header offset
+    private final ConcurrentMap<Long, ZipInflateIndex> inflateIndexes = new ConcurrentHashMap<Long, ZipInflateIndex>();
+    private volatile ZipEntryCache entryCache;
+
+    private ZipArchive(final File file, final FileChannel channel, final ZipCatalog catalog, final File tempFile) {
+        this.file = file;
+        this.channel = channel;
+        this.catalog = catalog;
+        this.tempFile = tempFile;
+    }
+
+    /**
+     * Open a zip archive.
+     *
+     * @param file the zip file to open
+     * @return the opened archive
+     * @throws IOException if an I/O error occurs
+     */
+    public static ZipArchive open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        boolean ok = false;
+        try {
+            final ZipArchive archive = open(file, raf.getChannel(), null);
+            ok = true;
+            return archive;
+        } finally {
+            if (! ok) Zip.safeClose(raf);
+        }
+    }
+
+    private static ZipArchive open(final File file, final FileChannel channel, final File tempFile) throws IOException {
+        final long start = ZipEvents.start();
+        final ZipEndRecord endRecord = ZipEndRecord.find(channel);
+        final long offset = endRecord.getDirectoryOffset();
+        final ZipCatalog catalog = Zip.readCatalog(new BufferedInputStream(new ChannelInputStream(channel, offset, channel.size() - offset)));
+        ZipEvents.catalogRead(file, catalog, endRecord.getDirectorySize(), start);
+        return new ZipArchive(file, channel, catalog, tempFile);
+    }
+
+    /**
+     * Get the file that this archive was opened from.  For a nested archive, this is the file of the outermost
+     * archive.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the catalog of this archive.
+     *
+     * @return the catalog
+     */
+    public ZipCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Open a zip entry, returning an input stream which may be used to read the contents of the entry.  Closing the
+     * returned stream does not close the archive.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return an {@code InputStream} which may be used to read the zip file entry data
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream openEntry(ZipEntry zipEntry) throws IOException {
+        final long start = ZipEvents.start();
+        final ByteBuffer cached = readCachedEntry(zipEntry);
+        final InputStream is = cached != null ? new ByteBufferInputStream(cached) : Zip.openEntryData(new ChannelInputStream(channel, getDataOffset(zipEntry), zipEntry.getCompressedSize()), zipEntry);
+        ZipEvents.entryOpened(zipEntry, start);
+        return is;
+    }
+
+    /**
+     * Open a zip entry, returning an input stream which may be used to read the contents of the entry, verifying the
+     * entry contents as specified.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param verification the verification mode to use
+     * @return an {@code InputStream} which may be used to read the zip file entry data
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream openEntry(ZipEntry zipEntry, ZipVerification verification) throws IOException {
+        return Zip.verify(openEntry(zipEntry), zipEntry, verification);
+    }
+
+    /**
+     * Open a read-only seekable channel over the contents of a zip entry.  The channel of a stored entry is a view of
+     * the archive file.  The channel of a deflated entry uses the entry's {@linkplain ZipInflateIndex inflate index},
+     * if one is known, to seek to any position with a bounded amount of decompression; otherwise an index is recorded
+     * the first time the channel is read through to the end.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return the channel
+     * @throws IOException if an I/O error occurs
+     */
+    public SeekableByteChannel openEntryChannel(ZipEntry zipEntry) throws IOException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        if (zipEntry.getCompressionMethod() == ZipCompressionMethod.STORE) {
+            return new WindowFileChannel(channel, getDataOffset(zipEntry), zipEntry.getCompressedSize());
+        }
+        if (zipEntry.getCompressionMethod() != ZipCompressionMethod.DEFLATE) {
+            throw new ZipException("Unsupported compression algorithm " + zipEntry.getCompressionMethod());
+        }
+        return new EntryByteChannel(this, zipEntry, getDataOffset(zipEntry));
+    }
+
+    /**
+     * Get the inflate index of a deflated entry, if one has been built or set.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return the index, or {@code null} if none is known
+     */
+    public ZipInflateIndex getInflateIndex(ZipEntry zipEntry) {
+        return inflateIndexes.get(Long.valueOf(zipEntry.getOffset()));
+    }
+
+    /**
+     * Set the inflate index of a deflated entry, for example one which was saved by an earlier process.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param index the index
+     * @throws IllegalArgumentException if the index does not match the entry
+     */
+    public void setInflateIndex(ZipEntry zipEntry, ZipInflateIndex index) {
+        if (! index.matches(zipEntry)) {
+            throw new IllegalArgumentException("Inflate index does not match zip entry '" + zipEntry.getName() + "'");
+        }
+        inflateIndexes.put(Long.valueOf(zipEntry.getOffset()), index);
+    }
+
+    /**
+     * Build the inflate index of a deflated entry by reading through its contents, and keep it for use by
+     * {@linkplain #openEntryChannel(ZipEntry) entry channels}.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param spacing the minimum spacing between checkpoints, in bytes of inflated data
+     * @return the index
+     * @throws IOException if an I/O error occurs
+     */
+    public ZipInflateIndex buildInflateIndex(ZipEntry zipEntry, int spacing) throws IOException {
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("spacing must be positive");
+        }
+        if (zipEntry.getEntryType() != ZipEntryType.FILE || zipEntry.getCompressionMethod() != ZipCompressionMethod.DEFLATE) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is not a deflated file");
+        }
+        final SeekableInflater inflater = new SeekableInflater(channel, getDataOffset(zipEntry), zipEntry);
+        inflater.record(spacing);
+        inflater.skip(Long.MAX_VALUE);
+        final ZipInflateIndex index = inflater.getIndex();
+        setInflateIndex(zipEntry, index);
+        return index;
+    }
+
+    /**
+     * Read the entire contents of a zip entry into a new array of exactly the entry's size.  Stored entries are
+     * read with a single positional read, and deflated entries are inflated directly into the returned array.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return the entry contents
+     * @throws IOException if an I/O error occurs
+     */
+    public byte[] readEntry(ZipEntry zipEntry) throws IOException {
+        final ZipEntryCache cache = entryCache;
+        if (cache == null || ! cache.admits(zipEntry)) {
+            return Zip.readEntryData(channel, getDataOffset(zipEntry), zipEntry);
+        }
+        final ByteBuffer cached = cache.get(this, zipEntry);
+        if (cached != null) {
+            final byte[] data = new byte[cached.remaining()];
+            cached.get(data);
+            return data;
+        }
+        final byte[] data = Zip.readEntryData(channel, getDataOffset(zipEntry), zipEntry);
+        // a heap cache keeps the array it is given, so the caller gets the freshly inflated one
+        cache.put(this, zipEntry, cache.isDirect() ? data : data.clone());
+        return data;
+    }
+
+    /**
+     * Read the entire contents of a zip entry into the given buffer, which may be a heap or direct buffer.  The entry
+     * is written at the buffer's position, which is advanced past it; if an exception is thrown, the position is left
+     * unchanged but the contents of the remaining space are undefined.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param buffer the buffer to fill
+     * @return the number of bytes read
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the entry does not fit in the remaining space of the buffer
+     */
+    public int readEntry(ZipEntry zipEntry, ByteBuffer buffer) throws IOException {
+        final ByteBuffer cached = readCachedEntry(zipEntry);
+        if (cached != null) {
+            final int len = cached.remaining();
+            if (len > buffer.remaining()) {
+                throw new IllegalArgumentException("Zip entry '" + zipEntry.getName() + "' (" + len + " bytes) does not fit in the buffer (" + buffer.remaining() + " bytes remaining)");
+            }
+            buffer.put(cached);
+            return len;
+        }
+        return Zip.readEntryData(channel, getDataOffset(zipEntry), zipEntry, buffer);
+    }
+
+    /**
+     * Set the cache of inflated entry contents to be used by this archive.  When a cache is set, small deflated
+     * entries are inflated once and then served from the cache by {@link #openEntry(ZipEntry)} and the
+     * {@code readEntry} methods.  The archive's entries are removed from the cache when the archive is closed.
+     *
+     * @param cache the cache, or {@code null} to stop using a cache
+     */
+    public void setEntryCache(ZipEntryCache cache) {
+        final ZipEntryCache old = entryCache;
+        entryCache = cache;
+        if (old != null && old != cache) {
+            old.invalidate(this);
+        }
+    }
+
+    /**
+     * Get the cache of inflated entry contents used by this archive.
+     *
+     * @return the cache, or {@code null} if none is set
+     */
+    public ZipEntryCache getEntryCache() {
+        return entryCache;
+    }
+
+    private ByteBuffer readCachedEntry(final ZipEntry zipEntry) throws IOException {
+        final ZipEntryCache cache = entryCache;
+        if (cache == null || ! cache.admits(zipEntry)) {
+            return null;
+        }
+        final ByteBuffer cached = cache.get(this, zipEntry);
+        return cached != null ? cached : cache.put(this, zipEntry, Zip.readEntryData(channel, getDataOffset(zipEntry), zipEntry));
+    }
+
+    /**
+     * Extract the contents of a zip entry to a file, replacing any existing file.  The data of a stored entry is
+     * transferred directly from the archive to the target file using {@link FileChannel#transferTo(long, long,
+     * java.nio.channels.WritableByteChannel) transferTo}, without passing through the Java heap (and, on some
+     * platforms, without leaving the kernel).  Other entries are inflated into a per-thread array and written from it.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param file the file to write
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs
+     */
+    public long extractEntry(ZipEntry zipEntry, File file) throws IOException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to extract a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        file.delete();
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            final FileChannel target = fos.getChannel();
+            final long total;
+            if (zipEntry.getCompressionMethod() == ZipCompressionMethod.STORE) {
+                final long size = zipEntry.getCompressedSize();
+                long pos = getDataOffset(zipEntry);
+                long rem = size;
+                ByteBuffer buffer = null;
+                while (rem > 0L) {
+                    long cnt = buffer == null ? channel.transferTo(pos, rem, target) : 0L;
+                    if (cnt <= 0L) {
+                        // no progress; copy the rest through a buffer instead of spinning
+                        if (buffer == null) {
+                            buffer = ByteBuffer.wrap(TRANSFER_BUFFER.get());
+                        }
+                        buffer.clear();
+                        if (rem < (long) buffer.capacity()) {
+                            buffer.limit((int) rem);
+                        }
+                        final int n = channel.read(buffer, pos);
+                        if (n <= 0) {
+                            throw new EOFException("Unexpected end of zip file in entry '" + zipEntry.getName() + "'");
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            target.write(buffer);
+                        }
+                        cnt = n;
+                    }
+                    pos += cnt;
+                    rem -= cnt;
+                }
+                ZipEvents.entryRead(zipEntry, size, size, 0L);
+                total = size;
+            } else {
+                final byte[] array = TRANSFER_BUFFER.get();
+                final InputStream is = openEntry(zipEntry);
+                try {
+                    long cnt = 0L;
+                    int n;
+                    while ((n = is.read(array)) != -1) {
+                        final ByteBuffer buffer = ByteBuffer.wrap(array, 0, n);
+                        while (buffer.hasRemaining()) {
+                            target.write(buffer);
+                        }
+                        cnt += (long) n;
+                    }
+                    is.close();
+                    total = cnt;
+                } finally {
+                    Zip.safeClose(is);
+                }
+            }
+            fos.close();
+            return total;
+        } finally {
+            Zip.safeClose(fos);
+        }
+    }
+
+    /**
+     * Open a stored entry of this archive as an archive in its own right, without extracting it.  The nested archive
+     * is a view of the region of this archive's file which holds the entry, so its catalog and entries are read
+     * with positional reads of that file.  Closing the nested archive does not close this archive, but closing this
+     * archive makes the nested archive unusable.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @return the nested archive
+     * @throws IOException if an I/O error occurs, or if the entry is compressed
+     */
+    public ZipArchive openNestedArchive(ZipEntry zipEntry) throws IOException {
+        return openNestedArchive(zipEntry, false, 0L);
+    }
+
+    /**
+     * Open an entry of this archive as an archive in its own right.  Stored entries are read in place, as with
+     * {@link #openNestedArchive(ZipEntry)}.  Compressed entries are inflated, into memory if they are no larger than
+     * the given size, or otherwise into a temporary file which is deleted when the nested archive is closed.
+     *
+     * @param zipEntry the zip entry from this archive
+     * @param maxMemorySize the largest (uncompressed) size of a compressed entry to inflate into memory
+     * @return the nested archive
+     * @throws IOException if an I/O error occurs
+     */
+    public ZipArchive openNestedArchive(ZipEntry zipEntry, long maxMemorySize) throws IOException {
+        return openNestedArchive(zipEntry, true, maxMemorySize);
+    }
+
+    private ZipArchive openNestedArchive(final ZipEntry zipEntry, final boolean inflate, final long maxMemorySize) throws IOException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        if (zipEntry.getCompressionMethod() == ZipCompressionMethod.STORE) {
+            return open(file, new WindowFileChannel(channel, getDataOffset(zipEntry), zipEntry.getCompressedSize()), null);
+        }
+        if (! inflate) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is compressed, so it cannot be opened as an archive in place");
+        }
+        if (zipEntry.getSize() <= maxMemorySize && zipEntry.getSize() <= (long) Integer.MAX_VALUE) {
+            return open(file, new ByteBufferFileChannel(ByteBuffer.wrap(readEntry(zipEntry))), null);
+        }
+        final File tempFile = File.createTempFile("jzipfile", ".zip");
+        RandomAccessFile raf = null;
+        boolean ok = false;
+        try {
+            extractEntry(zipEntry, tempFile);
+            raf = new RandomAccessFile(tempFile, "r");
+            final ZipArchive archive = open(file, raf.getChannel(), tempFile);
+            ok = true;
+            return archive;
+        } finally {
+            if (! ok) {
+                Zip.safeClose(raf);
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Close this archive.  Streams which are still open will fail on their next read.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        try {
+            final ZipEntryCache cache = entryCache;
+            if (cache != null) {
+                cache.invalidate(this);
+            }
+            channel.close();
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    private long getDataOffset(final ZipEntry zipEntry) throws IOException {
+        return Zip.getDataOffset(channel, zipEntry);
+    }
+}
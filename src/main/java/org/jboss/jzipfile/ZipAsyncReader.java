@@ -0,0 +1,445 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+
+/**
+ * An asynchronous reader of the entries of a {@link ZipArchive}.  Compressed data is read with positional reads on
+ * an I/O executor, and inflated on a separate executor, so that callers (for example event loop threads) never block
+ * on archive I/O, and no thread is held waiting while another one works on the same entry.  Any number of entries may
+ * be read at once; each read only occupies an executor thread while it has work to do.
+ * <p>
+ * Completion handlers are called from the threads of either executor, so they must not block.  If the archive is
+ * closed while a read is in progress, the read fails.
+ */
+public final class ZipAsyncReader {
+
+    /**
+     * The default chunk size for {@link #readEntry(ZipEntry, Object, ZipChunkHandler) chunked reads}.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    private final ZipArchive archive;
+    private final Executor ioExecutor;
+    private final Executor inflateExecutor;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param archive the archive to read
+     * @param ioExecutor the executor on which to read from the archive file
+     * @param inflateExecutor the executor on which to inflate compressed data
+     */
+    public ZipAsyncReader(final ZipArchive archive, final Executor ioExecutor, final Executor inflateExecutor) {
+        if (archive == null) {
+            throw new IllegalArgumentException("archive is null");
+        }
+        if (ioExecutor == null) {
+            throw new IllegalArgumentException("ioExecutor is null");
+        }
+        if (inflateExecutor == null) {
+            throw new IllegalArgumentException("inflateExecutor is null");
+        }
+        this.archive = archive;
+        this.ioExecutor = ioExecutor;
+        this.inflateExecutor = inflateExecutor;
+    }
+
+    /**
+     * Get the archive being read.
+     *
+     * @return the archive
+     */
+    public ZipArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Read the entire contents of a zip entry asynchronously.
+     *
+     * @param zipEntry the zip entry from the archive
+     * @return the future result, a heap buffer holding exactly the entry's contents
+     */
+    public Future<ByteBuffer> readEntry(ZipEntry zipEntry) {
+        final Result result = new Result();
+        readEntry(zipEntry, null, result);
+        return result;
+    }
+
+    /**
+     * Read the entire contents of a zip entry asynchronously.  The handler is given a heap buffer holding exactly
+     * the entry's contents.
+     *
+     * @param zipEntry the zip entry from the archive
+     * @param attachment the attachment to pass to the handler
+     * @param handler the completion handler
+     * @param <A> the type of the attachment
+     */
+    public <A> void readEntry(final ZipEntry zipEntry, final A attachment, final CompletionHandler<ByteBuffer, ? super A> handler) {
+        ioExecutor.execute(new Runnable() {
+            public void run() {
+                final ByteBuffer data;
+                try {
+                    checkEntry(zipEntry);
+                    final long compressedSize = zipEntry.getCompressedSize();
+                    if (compressedSize > (long) Integer.MAX_VALUE) {
+                        throw new ZipException("Zip entry '" + zipEntry.getName() + "' is too large to fit in a single array");
+                    }
+                    final FileChannel channel = archive.getChannel();
+                    data = ByteBuffer.allocate((int) compressedSize);
+                    readFully(channel, data, Zip.getDataOffset(channel, zipEntry), zipEntry);
+                    data.flip();
+                } catch (Throwable t) {
+                    handler.failed(t, attachment);
+                    return;
+                }
+                if (zipEntry.getCompressionMethod() == ZipCompressionMethod.STORE) {
+                    ZipEvents.entryRead(zipEntry, zipEntry.getSize(), zipEntry.getCompressedSize(), 0L);
+                    handler.completed(data, attachment);
+                    return;
+                }
+                dispatch(inflateExecutor, new Runnable() {
+                    public void run() {
+                        final byte[] contents;
+                        try {
+                            contents = Zip.readEntryData(new ByteBufferFileChannel(data), 0L, zipEntry);
+                        } catch (Throwable t) {
+                            handler.failed(t, attachment);
+                            return;
+                        }
+                        handler.completed(ByteBuffer.wrap(contents), attachment);
+                    }
+                }, handler, attachment);
+            }
+        });
+    }
+
+    /**
+     * Read the contents of a zip entry asynchronously in chunks of up to {@link #DEFAULT_CHUNK_SIZE} bytes.  Only one
+     * chunk of compressed data is held in memory at a time, so this is suitable for entries of any size.
+     *
+     * @param zipEntry the zip entry from the archive
+     * @param attachment the attachment to pass to the handler
+     * @param handler the chunk handler
+     * @param <A> the type of the attachment
+     */
+    public <A> void readEntry(ZipEntry zipEntry, A attachment, ZipChunkHandler<? super A> handler) {
+        readEntry(zipEntry, DEFAULT_CHUNK_SIZE, attachment, handler);
+    }
+
+    /**
+     * Read the contents of a zip entry asynchronously in chunks.  Compressed data is read in blocks of the chunk size,
+     * and the inflated data is delivered in chunks of at most the chunk size.  The next block is not read until the
+     * handler has accepted all the data of the previous one.
+     *
+     * @param zipEntry the zip entry from the archive
+     * @param chunkSize the chunk size
+     * @param attachment the attachment to pass to the handler
+     * @param handler the chunk handler
+     * @param <A> the type of the attachment
+     */
+    public <A> void readEntry(ZipEntry zipEntry, int chunkSize, A attachment, ZipChunkHandler<? super A> handler) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        new ChunkReader<A>(zipEntry, chunkSize, attachment, handler).start();
+    }
+
+    private static void checkEntry(final ZipEntry zipEntry) throws ZipException {
+        final ZipEntryType entryType = zipEntry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + zipEntry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        if (zipEntry.getSize() < 0L || zipEntry.getCompressedSize() < 0L) {
+            throw new ZipException("Zip entry '" + zipEntry.getName() + "' has no recorded size");
+        }
+        final ZipCompressionMethod compressionMethod = zipEntry.getCompressionMethod();
+        switch (compressionMethod) {
+            case STORE: {
+                if (zipEntry.getCompressedSize() != zipEntry.getSize()) {
+                    throw new ZipException("Stored zip entry '" + zipEntry.getName() + "' has a compressed size which differs from its size");
+                }
+                break;
+            }
+            case DEFLATE: {
+                break;
+            }
+            default: {
+                throw new ZipException("Unsupported compression algorithm " + compressionMethod);
+            }
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long offset, final ZipEntry zipEntry) throws IOException {
+        long pos = offset;
+        while (buffer.hasRemaining()) {
+            final int cnt = channel.read(buffer, pos);
+            if (cnt == -1) {
+                throw new EOFException("Unexpected end of zip file in entry '" + zipEntry.getName() + "'");
+            }
+            pos += (long) cnt;
+        }
+    }
+
+    private static <A> void dispatch(final Executor executor, final Runnable task, final CompletionHandler<?, ? super A> handler, final A attachment) {
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            handler.failed(e, attachment);
+        }
+    }
+
+    private final class ChunkReader<A> {
+        private final ZipEntry zipEntry;
+        private final int chunkSize;
+        private final A attachment;
+        private final ZipChunkHandler<? super A> handler;
+        private final boolean timed = ZipEvents.isEnabled();
+
+        // state is handed between the executors, which orders all access to it
+        private boolean started;
+        private boolean deflated;
+        private long pos;
+        private long rem;
+        private ByteBuffer input;
+        private InflaterPool.Item item;
+        private boolean eof;
+        private long done;
+        private long inflateNanos;
+
+        private final Runnable readTask = new Runnable() {
+            public void run() {
+                read();
+            }
+        };
+
+        private final Runnable inflateTask = new Runnable() {
+            public void run() {
+                inflate();
+            }
+        };
+
+        ChunkReader(final ZipEntry zipEntry, final int chunkSize, final A attachment, final ZipChunkHandler<? super A> handler) {
+            this.zipEntry = zipEntry;
+            this.chunkSize = chunkSize;
+            this.attachment = attachment;
+            this.handler = handler;
+        }
+
+        void start() {
+            ioExecutor.execute(readTask);
+        }
+
+        void read() {
+            final ByteBuffer chunk;
+            try {
+                if (! started) {
+                    started = true;
+                    checkEntry(zipEntry);
+                    final FileChannel channel = archive.getChannel();
+                    pos = Zip.getDataOffset(channel, zipEntry);
+                    rem = zipEntry.getCompressedSize();
+                    deflated = zipEntry.getCompressionMethod() == ZipCompressionMethod.DEFLATE;
+                    if (deflated) {
+                        input = ByteBuffer.allocate((int) min((long) chunkSize, rem));
+                        item = InflaterPool.INSTANCE.acquire();
+                    }
+                }
+                if (deflated) {
+                    chunk = input;
+                    chunk.clear();
+                } else {
+                    chunk = ByteBuffer.allocate((int) min((long) chunkSize, rem));
+                }
+                chunk.limit((int) min((long) chunk.capacity(), rem));
+                readFully(archive.getChannel(), chunk, pos, zipEntry);
+                chunk.flip();
+                pos += (long) chunk.remaining();
+                rem -= (long) chunk.remaining();
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            }
+            if (deflated) {
+                next(inflateExecutor, inflateTask);
+                return;
+            }
+            if (chunk.hasRemaining() && ! deliver(chunk)) {
+                return;
+            }
+            if (rem == 0L) {
+                ZipEvents.entryRead(zipEntry, zipEntry.getSize(), zipEntry.getCompressedSize(), 0L);
+                handler.completed(attachment);
+            } else {
+                next(ioExecutor, readTask);
+            }
+        }
+
+        void inflate() {
+            final long size = zipEntry.getSize();
+            byte[] out = null;
+            int outPos = 0;
+            try {
+                final Inflater inf = item.getInflater();
+                if (input.hasRemaining()) {
+                    inf.setInput(input.array(), input.position(), input.remaining());
+                    input.position(input.limit());
+                }
+                for (;;) {
+                    if (out == null) {
+                        out = new byte[(int) min((long) chunkSize, size - done)];
+                        outPos = 0;
+                    }
+                    final long inflateStart = timed ? System.nanoTime() : 0L;
+                    final int cnt;
+                    if (done == size) {
+                        // make sure that the stream ends where it should
+                        if (inf.inflate(new byte[1], 0, 1) > 0) {
+                            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is longer than its recorded size");
+                        }
+                        cnt = 0;
+                    } else {
+                        cnt = inf.inflate(out, outPos, out.length - outPos);
+                    }
+                    if (timed) {
+                        inflateNanos += System.nanoTime() - inflateStart;
+                    }
+                    if (cnt > 0) {
+                        done += (long) cnt;
+                        outPos += cnt;
+                        if (outPos == out.length) {
+                            final byte[] full = out;
+                            out = null;
+                            if (! deliver(ByteBuffer.wrap(full))) {
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                    if (inf.finished()) {
+                        if (done < size) {
+                            throw new ZipException("Zip entry '" + zipEntry.getName() + "' is shorter than its recorded size");
+                        }
+                        break;
+                    }
+                    if (inf.needsDictionary()) {
+                        throw new ZipException("Deflate stream requires a preset dictionary");
+                    }
+                    if (inf.needsInput()) {
+                        if (rem > 0L) {
+                            // hand over what we have, and go back for more input
+                            if (outPos > 0 && ! deliver(ByteBuffer.wrap(out, 0, outPos))) {
+                                return;
+                            }
+                            next(ioExecutor, readTask);
+                            return;
+                        }
+                        if (eof) {
+                            throw new EOFException("Unexpected end of deflate stream");
+                        }
+                        // the raw inflater may need an extra dummy byte to complete the stream
+                        eof = true;
+                        inf.setInput(new byte[1], 0, 1);
+                    }
+                }
+            } catch (DataFormatException e) {
+                final String msg = e.getMessage();
+                fail(new ZipException(msg == null ? "Invalid deflate stream" : msg));
+                return;
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            }
+            release();
+            ZipEvents.entryRead(zipEntry, size, zipEntry.getCompressedSize(), inflateNanos);
+            handler.completed(attachment);
+        }
+
+        private boolean deliver(final ByteBuffer chunk) {
+            try {
+                handler.chunk(chunk, attachment);
+                return true;
+            } catch (Throwable t) {
+                fail(t);
+                return false;
+            }
+        }
+
+        private void next(final Executor executor, final Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(final Throwable t) {
+            release();
+            handler.failed(t, attachment);
+        }
+
+        private void release() {
+            final InflaterPool.Item item = this.item;
+            if (item != null) {
+                this.item = null;
+                InflaterPool.INSTANCE.release(item);
+            }
+        }
+    }
+
+    private static final class Result extends FutureTask<ByteBuffer> implements CompletionHandler<ByteBuffer, Object> {
+
+        private static final Runnable NOTHING = new Runnable() {
+            public void run() {
+            }
+        };
+
+        Result() {
+            super(NOTHING, null);
+        }
+
+        public void run() {
+            // completed by the reader only
+        }
+
+        public void completed(final ByteBuffer result, final Object attachment) {
+            set(result);
+        }
+
+        public void failed(final Throwable exc, final Object attachment) {
+            setException(exc);
+        }
+    }
+}
@@ -33,6 +33,7 @@ public interface ZipCatalog {
     /**
      * Get all the named entries, indexed by name.  The returned hash map will return the names
      * in the order that they were found in the file.  If a name occurs more than once, the first occurrence is used.
+     * The index may not be built until it is first requested.
      *
      * @return the named entries
      */
@@ -44,4 +45,24 @@ public interface ZipCatalog {
      * @return the entries
      */
     Collection<ZipEntry> allEntries();
+
+    /**
+     * Get the first entry with the given name.  The name is compared against each entry name as it is returned by
+     * {@link ZipEntry#getName()}, without being copied or encoded.
+     *
+     * @param name the entry name
+     * @return the entry, or {@code null} if there is no such entry
+     */
+    ZipEntry getEntry(CharSequence name);
+
+    /**
+     * Get the first entry with the given raw (encoded) name.  A name which is not flagged as UTF-8 is decoded as
+     * US-ASCII, so it matches any raw name which differs from it only in bytes outside of that range.
+     *
+     * @param name the array holding the entry name
+     * @param offs the offset of the name in the array
+     * @param len the length of the name
+     * @return the entry, or {@code null} if there is no such entry
+     */
+    ZipEntry getEntry(byte[] name, int offs, int len);
 }
@@ -22,31 +22,36 @@
 
 package org.jboss.jzipfile;
 
-import java.util.Map;
+import java.util.BitSet;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Collections;
-import java.util.Collection;
 import java.util.zip.ZipException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.BufferedInputStream;
+import java.nio.ByteBuffer;
 
 final class ZipCatalogBuilder {
-    private final Map<String, ZipEntry> entryMap = new LinkedHashMap<String, ZipEntry>();
     private final List<ZipEntry> allEntries = new ArrayList<ZipEntry>();
+    private final List<byte[]> rawNames = new ArrayList<byte[]>();
+    private final BitSet utf8Names = new BitSet();
 
     ZipCatalogBuilder() {
     }
 
+    void addEntry(ZipEntry entry, byte[] rawName, boolean utf8) {
+        if (utf8) {
+            utf8Names.set(allEntries.size());
+        }
+        allEntries.add(entry);
+        rawNames.add(rawName);
+    }
+
     void readDirectory(InputStream is) throws IOException {
         readDirectory(is instanceof ZipDataInputStream ? (ZipDataInputStream) is : is instanceof BufferedInputStream ? new ZipDataInputStream(is) : new ZipDataInputStream(new BufferedInputStream(is)));
     }
 
     private void readDirectory(ZipDataInputStream is) throws IOException {
-        final List<ZipEntry> allEntries = this.allEntries;
-        final Map<String, ZipEntry> entryMap = this.entryMap;
         try {
             // Format:
             // central directory
@@ -58,35 +63,62 @@ final class ZipCatalogBuilder {
                 // central directory file header (0..n)
                 is.readUnsignedShort(); // madeBy
                 final int needed = is.readUnsignedShort();
-                if (needed > 20) {
+                if (needed > 45) {
                     throw new ZipException("Need a later version to extract");
                 }
-                is.readUnsignedShort(); // gpbits
+                final int gpBits = is.readUnsignedShort();
                 final ZipCompressionMethod method = ZipCompressionMethod.getMethod(is.readUnsignedShort());
                 final int modTimeRaw = is.readUnsignedShort();
                 final int modDateRaw = is.readUnsignedShort();
                 final long modTime = Zip.getTimestamp(modTimeRaw, modDateRaw);
 
                 int crc32 = is.readInt();
-                int compSize = is.readInt();
-                int uncompSize = is.readInt();
+                long compSize = is.readInt() & 0xffffffffL;
+                long uncompSize = is.readInt() & 0xffffffffL;
                 int fnameLen = is.readUnsignedShort();
                 int extraLen = is.readUnsignedShort();
                 int commentLen = is.readUnsignedShort();
-                int diskNumStart = is.readUnsignedShort();
-                if (diskNumStart != 0) {
-                    throw new ZipException("Multi-disk archives not supported");
-                }
+                long diskNumStart = is.readUnsignedShort();
                 is.readUnsignedShort(); // internal attr
                 is.readInt(); // external attr
-                int localHeaderOffs = is.readInt();
+                long localHeaderOffs = is.readInt() & 0xffffffffL;
                 final byte[] fileNameBytes = new byte[fnameLen];
                 is.readFully(fileNameBytes);
                 final byte[] extraBytes = new byte[extraLen];
                 is.readFully(extraBytes);
+                if (uncompSize == 0xffffffffL || compSize == 0xffffffffL || localHeaderOffs == 0xffffffffL || diskNumStart == 0xffffL) {
+                    // zip64 extended information extra field; only the overflowed values are present, in this order
+                    int pos = findExtra(extraBytes, 0x0001);
+                    if (pos == -1) {
+                        throw new ZipException("Missing zip64 extended information for entry");
+                    }
+                    final int end = pos + getUnsignedShort(extraBytes, pos - 2);
+                    if (uncompSize == 0xffffffffL && pos + 8 <= end) {
+                        uncompSize = getLong(extraBytes, pos);
+                        pos += 8;
+                    }
+                    if (compSize == 0xffffffffL && pos + 8 <= end) {
+                        compSize = getLong(extraBytes, pos);
+                        pos += 8;
+                    }
+                    if (localHeaderOffs == 0xffffffffL && pos + 8 <= end) {
+                        localHeaderOffs = getLong(extraBytes, pos);
+                        pos += 8;
+                    }
+                    if (diskNumStart == 0xffffL && pos + 4 <= end) {
+                        diskNumStart = getInt(extraBytes, pos) & 0xffffffffL;
+                    }
+                    if (uncompSize < 0L || compSize < 0L || localHeaderOffs < 0L) {
+                        throw new ZipException("Invalid zip64 extended information for entry");
+                    }
+                }
+                if (diskNumStart != 0) {
+                    throw new ZipException("Multi-disk archives not supported");
+                }
                 final byte[] commentBytes = new byte[commentLen];
                 is.readFully(commentBytes);
-                final String name = new String(fileNameBytes, "US-ASCII");
+                final boolean utf8 = (gpBits & ZipNames.GP_UTF8) != 0;
+                final String name = ZipNames.decode(fileNameBytes, 0, fnameLen, utf8);
                 // interpret type
                 final ZipEntryType type;
                 if (name.indexOf('/') == 0) {
@@ -97,12 +129,9 @@ final class ZipCatalogBuilder {
                 } else {
                     type = ZipEntryType.FILE;
                 }
-                final String comment = new String(commentBytes, "US-ASCII");
-                final ZipEntryImpl entry = new ZipEntryImpl(name, comment, localHeaderOffs, uncompSize & 0xffffffffL, compSize & 0xffffffffL, crc32, type, modTime, method, extraBytes);
-                allEntries.add(entry);
-                if (! entryMap.containsKey(name) && name.length() > 0) {
-                    entryMap.put(name, entry);
-                }
+                final String comment = ZipNames.decode(commentBytes, 0, commentLen, utf8);
+                final ZipEntryImpl entry = new ZipEntryImpl(name, comment, localHeaderOffs, uncompSize, compSize, crc32, type, modTime, method, extraBytes);
+                addEntry(entry, fileNameBytes, utf8);
                 // next sig
                 sig = is.readInt();
             }
@@ -115,24 +144,28 @@ final class ZipCatalogBuilder {
                 sig = is.readInt();
             }
             if (sig == 0x06064b50) {
-                if (true) throw new ZipException("64-bit zip records unsupported");
                 // zip64 EOD record (0..1)
-                is.readLong();
-                is.readUnsignedShort();
-                is.readUnsignedShort();
-                is.readInt();
-                is.readInt();
-                is.readLong();
-                is.readLong();
-                is.readLong();
-                is.readLong();
+                final long size = is.readLong();
+                if (size < 44L) {
+                    throw new ZipException("Invalid zip64 end-of-central-directory record size");
+                }
+                is.readUnsignedShort(); // version made by
+                is.readUnsignedShort(); // version needed
+                is.readInt(); // disk #
+                is.readInt(); // central dir disk #
+                is.readLong(); // entry count on this disk
+                is.readLong(); // total entry count
+                is.readLong(); // size of central dir
+                is.readLong(); // offset of central dir
+                is.skipFully(size - 44L); // extensible data
                 // next sig
                 sig = is.readInt();
             }
             if (sig == 0x07064b50) {
-                if (true) throw new ZipException("64-bit zip records unsupported");
                 // zip64 EOD locator (0..1)
-
+                is.readInt(); // disk # of zip64 EOD
+                is.readLong(); // offset of zip64 EOD
+                is.readInt(); // total disk count
                 // next sig
                 sig = is.readInt();
             }
@@ -147,17 +180,98 @@ final class ZipCatalogBuilder {
         }
     }
 
-    public ZipCatalog getZipCatalog() {
-        final Map<String, ZipEntry> byNameMap = Collections.unmodifiableMap(entryMap);
-        final Collection<ZipEntry> allEntries = Collections.unmodifiableCollection(ZipCatalogBuilder.this.allEntries);
-        return new ZipCatalog() {
-            public Map<String, ZipEntry> indexedByName() {
-                return byNameMap;
+    /**
+     * Find an extra field block with the given header ID.
+     *
+     * @param extra the raw extra data
+     * @param id the header ID
+     * @return the offset of the block data, or -1 if there is no such block
+     */
+    static int findExtra(final byte[] extra, final int id) {
+        int pos = 0;
+        while (pos + 4 <= extra.length) {
+            final int blockId = getUnsignedShort(extra, pos);
+            final int blockLen = getUnsignedShort(extra, pos + 2);
+            pos += 4;
+            if (pos + blockLen > extra.length) {
+                break;
             }
-
-            public Collection<ZipEntry> allEntries() {
-                return allEntries;
+            if (blockId == id) {
+                return pos;
             }
-        };
+            pos += blockLen;
+        }
+        return -1;
+    }
+
+    static int getUnsignedShort(final byte[] b, final int off) {
+        return b[off] & 0xff | (b[off + 1] & 0xff) << 8;
+    }
+
+    static int getInt(final byte[] b, final int off) {
+        return b[off] & 0xff | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    static long getLong(final byte[] b, final int off) {
+        return getInt(b, off) & 0xffffffffL | (long) getInt(b, off + 4) << 32;
+    }
+
+    public ZipCatalog getZipCatalog() {
+        final int cnt = allEntries.size();
+        // keep the raw names together in one array
+        final int[] nameOffsets = new int[cnt + 1];
+        for (int i = 0; i < cnt; i ++) {
+            nameOffsets[i + 1] = nameOffsets[i] + rawNames.get(i).length;
+        }
+        final byte[] names = new byte[nameOffsets[cnt]];
+        final boolean[] utf8 = new boolean[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            final byte[] name = rawNames.get(i);
+            System.arraycopy(name, 0, names, nameOffsets[i], name.length);
+            utf8[i] = utf8Names.get(i);
+        }
+        return new EntryListCatalog(allEntries.toArray(new ZipEntry[cnt]), names, nameOffsets, utf8);
+    }
+
+    /**
+     * A catalog of already-decoded entries, which keeps their raw names so that they are found in the same way as
+     * those of the compact catalog.
+     */
+    private static final class EntryListCatalog extends FlatZipCatalog {
+        private final ZipEntry[] entries;
+        private final ByteBuffer names;
+        private final int[] nameOffsets;
+        private final boolean[] utf8;
+
+        EntryListCatalog(final ZipEntry[] entries, final byte[] names, final int[] nameOffsets, final boolean[] utf8) {
+            this.entries = entries;
+            this.names = ByteBuffer.wrap(names);
+            this.nameOffsets = nameOffsets;
+            this.utf8 = utf8;
+        }
+
+        int getEntryCount() {
+            return entries.length;
+        }
+
+        ZipEntry getEntryAt(final int index) {
+            return entries[index];
+        }
+
+        ByteBuffer getNames() {
+            return names;
+        }
+
+        int getNameOffset(final int index) {
+            return nameOffsets[index];
+        }
+
+        int getNameLength(final int index) {
+            return nameOffsets[index + 1] - nameOffsets[index];
+        }
+
+        boolean isUtf8(final int index) {
+            return utf8[index];
+        }
     }
 }
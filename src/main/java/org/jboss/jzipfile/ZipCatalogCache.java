@@ -0,0 +1,338 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A cache of zip catalogs, keyed by the canonical path of each file.  A cached catalog is only reused if the size,
+ * modification time and file key (see {@link BasicFileAttributes#fileKey()}) of the file have not changed since it
+ * was read, so a file which is replaced by another one is read again even if its size and modification time are the
+ * same.  If several threads request the catalog of the same file at the same time, it is only read once.
+ * <p>
+ * The cache is bounded by the estimated memory size of the catalogs it holds; when it grows beyond that, the least
+ * recently used catalogs are evicted.  A catalog which is still being read counts against the bound by the size of
+ * its central directory.
+ */
+public final class ZipCatalogCache {
+
+    private static final ZipCatalogCache DEFAULT = new ZipCatalogCache(Long.getLong("jzipfile.catalog-cache.size", 64L << 20).longValue(), true);
+
+    private final long maxSize;
+    private final boolean compact;
+    private final LinkedHashMap<String, Slot> map = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+    // all of the following are protected by map
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxSize the maximum estimated size of the cached catalogs, in bytes
+     * @param compact {@code true} to cache compact catalogs (see {@link Zip#readCompactCatalog(File)}), {@code false}
+     *      to cache regular catalogs
+     */
+    public ZipCatalogCache(long maxSize, boolean compact) {
+        if (maxSize < 0L) {
+            throw new IllegalArgumentException("maxSize is negative");
+        }
+        this.maxSize = maxSize;
+        this.compact = compact;
+    }
+
+    /**
+     * Get the process-wide default catalog cache.  This cache holds compact catalogs, and its size is taken from the
+     * {@code jzipfile.catalog-cache.size} system property (64MB by default).
+     *
+     * @return the default cache
+     */
+    public static ZipCatalogCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the catalog of the given file, reading it if it is not cached or if the file has changed.
+     *
+     * @param file the file
+     * @return the catalog
+     * @throws IOException if an I/O error occurs
+     */
+    public ZipCatalog getCatalog(final File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        final long length = attributes.size();
+        final FileTime modTime = attributes.lastModifiedTime();
+        final Object fileKey = attributes.fileKey();
+        final Slot slot;
+        boolean owner = false;
+        synchronized (map) {
+            final Slot existing = map.get(path);
+            if (existing != null && existing.matches(length, modTime, fileKey)) {
+                hitCount ++;
+                slot = existing;
+            } else {
+                if (existing != null) {
+                    // stale
+                    map.remove(path);
+                    size -= existing.size;
+                }
+                missCount ++;
+                slot = new Slot(length, modTime, fileKey);
+                slot.task = new FutureTask<ZipCatalog>(new Callable<ZipCatalog>() {
+                    public ZipCatalog call() throws IOException {
+                        return read(path, file, slot);
+                    }
+                });
+                map.put(path, slot);
+                owner = true;
+            }
+        }
+        final FutureTask<ZipCatalog> task = slot.task;
+        if (owner) {
+            task.run();
+        }
+        boolean intr = false;
+        try {
+            for (;;) try {
+                final ZipCatalog catalog = task.get();
+                if (owner) {
+                    final long catalogSize = estimateSize(catalog);
+                    synchronized (map) {
+                        if (map.get(path) == slot) {
+                            // replace the reservation
+                            size += catalogSize - slot.size;
+                            slot.size = catalogSize;
+                            evict();
+                        }
+                    }
+                }
+                return catalog;
+            } catch (InterruptedException e) {
+                intr = true;
+            } catch (ExecutionException e) {
+                synchronized (map) {
+                    if (map.get(path) == slot) {
+                        map.remove(path);
+                        size -= slot.size;
+                    }
+                }
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    if (owner) {
+                        throw (IOException) cause;
+                    }
+                    // don't share one exception instance among threads
+                    final IOException ioe = new IOException(cause.getMessage());
+                    ioe.initCause(cause);
+                    throw ioe;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Remove the catalog of the given file from the cache, if it is present.
+     *
+     * @param file the file
+     * @throws IOException if the canonical path of the file cannot be determined
+     */
+    public void invalidate(final File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        synchronized (map) {
+            final Slot slot = map.remove(path);
+            if (slot != null) {
+                size -= slot.size;
+            }
+        }
+    }
+
+    /**
+     * Remove all catalogs from the cache.
+     */
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+            size = 0L;
+        }
+    }
+
+    /**
+     * Get the maximum estimated size of this cache.
+     *
+     * @return the maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the current estimated size of the catalogs in this cache.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        synchronized (map) {
+            return size;
+        }
+    }
+
+    /**
+     * Get the number of requests which were satisfied by a cached (or concurrently loading) catalog.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        synchronized (map) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Get the number of requests which caused a catalog to be read.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        synchronized (map) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Get the number of catalogs which were evicted to keep the cache within its size bound.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        synchronized (map) {
+            return evictionCount;
+        }
+    }
+
+    public String toString() {
+        synchronized (map) {
+            return String.format("Zip catalog cache: entries=%d, size=%d, max size=%d, hits=%d, misses=%d, evictions=%d", Integer.valueOf(map.size()), Long.valueOf(size), Long.valueOf(maxSize), Long.valueOf(hitCount), Long.valueOf(missCount), Long.valueOf(evictionCount));
+        }
+    }
+
+    private ZipCatalog read(final String path, final File file, final Slot slot) throws IOException {
+        final long start = ZipEvents.start();
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final ZipEndRecord endRecord = ZipEndRecord.find(raf.getChannel());
+            final long directorySize = endRecord.getDirectorySize();
+            synchronized (map) {
+                // count the catalog against the bound while it is read
+                if (map.get(path) == slot) {
+                    slot.size = directorySize;
+                    size += directorySize;
+                    evict();
+                }
+            }
+            final ZipCatalog catalog;
+            if (compact) {
+                catalog = CompactZipCatalog.read(raf, endRecord);
+                raf.close();
+            } else {
+                raf.seek(endRecord.getDirectoryOffset());
+                catalog = Zip.readCatalog(new RandomAccessInputStream(raf));
+            }
+            ZipEvents.catalogRead(file, catalog, directorySize, start);
+            return catalog;
+        } finally {
+            Zip.safeClose(raf);
+        }
+    }
+
+    private void evict() {
+        // called with map held; a catalog which is evicted while it is being read is still returned to its callers
+        final Iterator<Slot> it = map.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            final Slot slot = it.next();
+            it.remove();
+            size -= slot.size;
+            evictionCount ++;
+        }
+    }
+
+    /**
+     * Estimate the memory size of a catalog.
+     *
+     * @param catalog the catalog
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(final ZipCatalog catalog) {
+        if (catalog instanceof CompactZipCatalog) {
+            return ((CompactZipCatalog) catalog).estimateSize();
+        }
+        // entry object, strings, extra array, list slot and map node
+        long size = 64L;
+        for (ZipEntry entry : catalog.allEntries()) {
+            size += 200L + ((long) entry.getName().length() << 1) + ((long) entry.getComment().length() << 1) + (long) entry.getRawExtraData().length;
+        }
+        return size;
+    }
+
+    private static final class Slot {
+        private final long length;
+        private final FileTime modTime;
+        private final Object fileKey;
+        // set before the slot is published
+        private FutureTask<ZipCatalog> task;
+        // protected by map
+        private long size;
+
+        Slot(final long length, final FileTime modTime, final Object fileKey) {
+            this.length = length;
+            this.modTime = modTime;
+            this.fileKey = fileKey;
+        }
+
+        boolean matches(final long length, final FileTime modTime, final Object fileKey) {
+            return this.length == length && this.modTime.equals(modTime) && (this.fileKey == null ? fileKey == null : this.fileKey.equals(fileKey));
+        }
+    }
+}
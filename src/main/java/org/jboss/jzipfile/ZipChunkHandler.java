@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A handler for the contents of a zip entry which is read asynchronously in chunks.  For each entry, the
+ * {@link #chunk(ByteBuffer, Object) chunk} method is called zero or more times, one call at a time and in order,
+ * followed by exactly one call to either {@link #completed(Object) completed} or {@link #failed(Throwable, Object)
+ * failed}.  Handler methods are called from the threads of a {@link ZipAsyncReader}'s executors, so they must not
+ * block.
+ *
+ * @param <A> the type of the attachment
+ */
+public interface ZipChunkHandler<A> {
+
+    /**
+     * The next chunk of the entry's contents was read.  The buffer belongs to the handler; it is never reused by the
+     * reader.
+     *
+     * @param chunk the chunk of data
+     * @param attachment the attachment given when the read was started
+     */
+    void chunk(ByteBuffer chunk, A attachment);
+
+    /**
+     * The entry was read completely.
+     *
+     * @param attachment the attachment given when the read was started
+     */
+    void completed(A attachment);
+
+    /**
+     * The read failed.  No more chunks will be delivered.
+     *
+     * @param exc the failure cause
+     * @param attachment the attachment given when the read was started
+     */
+    void failed(Throwable exc, A attachment);
+}
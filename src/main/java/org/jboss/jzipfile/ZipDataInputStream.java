@@ -106,7 +106,7 @@ final class ZipDataInputStream extends InputStream implements DataInput {
     public long readLong() throws IOException {
         int a = readInt();
         int b = readInt();
-        return (long) a | (long) b << 0x20L;
+        return (long) a & 0xffffffffL | (long) b << 0x20L;
     }
 
     public int readInt() throws IOException {
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.util.List;
+
+/**
+ * A hierarchical index of the names in a zip catalog.  Directories which have no entry of their own in the catalog
+ * (because they are only implied by the names of the entries within them) are included in the index.
+ * <p>
+ * Paths given to the methods of this interface may be given with or without a trailing slash; the empty path is
+ * the root directory.  Paths returned by these methods are full entry names, and directory names always end with
+ * a slash.
+ */
+public interface ZipDirectoryIndex {
+
+    /**
+     * Get the catalog which this index was built from.
+     *
+     * @return the catalog
+     */
+    ZipCatalog getCatalog();
+
+    /**
+     * Determine whether the given path is a directory, either explicitly or implicitly.
+     *
+     * @param path the path
+     * @return {@code true} if the path is a directory
+     */
+    boolean isDirectory(String path);
+
+    /**
+     * Get the direct children of a directory, in name order.
+     *
+     * @param path the directory path
+     * @return the child paths, or {@code null} if the path is not a directory
+     */
+    List<String> getChildren(String path);
+
+    /**
+     * Get all the paths below a directory, in depth-first name order.
+     *
+     * @param path the directory path
+     * @return the paths, or {@code null} if the path is not a directory
+     */
+    List<String> getSubtree(String path);
+}
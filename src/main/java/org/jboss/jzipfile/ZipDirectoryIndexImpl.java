@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class ZipDirectoryIndexImpl implements ZipDirectoryIndex {
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final ZipCatalog catalog;
+    // keyed by path without the trailing slash; "" is the root
+    private final Map<String, String[]> directories;
+
+    ZipDirectoryIndexImpl(final ZipCatalog catalog) {
+        this.catalog = catalog;
+        final Map<String, List<String>> building = new HashMap<String, List<String>>();
+        building.put("", new ArrayList<String>());
+        for (Map.Entry<String, ZipEntry> entry : catalog.indexedByName().entrySet()) {
+            final String name = entry.getKey();
+            final int len = name.length();
+            if (name.charAt(len - 1) == '/' || entry.getValue().getEntryType() == ZipEntryType.DIRECTORY) {
+                addDirectory(building, name.charAt(len - 1) == '/' ? name.substring(0, len - 1) : name);
+            } else {
+                final int idx = name.lastIndexOf('/');
+                addDirectory(building, idx == -1 ? "" : name.substring(0, idx)).add(name);
+            }
+        }
+        final Map<String, String[]> directories = new HashMap<String, String[]>(building.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<String>> entry : building.entrySet()) {
+            final List<String> children = entry.getValue();
+            final String[] array = children.isEmpty() ? NO_STRINGS : children.toArray(new String[children.size()]);
+            Arrays.sort(array);
+            directories.put(entry.getKey(), array);
+        }
+        this.directories = directories;
+    }
+
+    private static List<String> addDirectory(final Map<String, List<String>> building, final String path) {
+        List<String> children = building.get(path);
+        if (children == null) {
+            building.put(path, children = new ArrayList<String>());
+            final int idx = path.lastIndexOf('/');
+            addDirectory(building, idx == -1 ? "" : path.substring(0, idx)).add(path + "/");
+        }
+        return children;
+    }
+
+    public ZipCatalog getCatalog() {
+        return catalog;
+    }
+
+    public boolean isDirectory(final String path) {
+        return directories.containsKey(normalize(path));
+    }
+
+    public List<String> getChildren(final String path) {
+        final String[] children = directories.get(normalize(path));
+        return children == null ? null : Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    public List<String> getSubtree(final String path) {
+        final String[] children = directories.get(normalize(path));
+        if (children == null) {
+            return null;
+        }
+        final List<String> subtree = new ArrayList<String>();
+        addSubtree(subtree, children);
+        return Collections.unmodifiableList(subtree);
+    }
+
+    private void addSubtree(final List<String> subtree, final String[] children) {
+        for (String child : children) {
+            subtree.add(child);
+            if (child.charAt(child.length() - 1) == '/') {
+                addSubtree(subtree, directories.get(child.substring(0, child.length() - 1)));
+            }
+        }
+    }
+
+    private static String normalize(final String path) {
+        final int len = path.length();
+        return len > 0 && path.charAt(len - 1) == '/' ? path.substring(0, len - 1) : path;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+
+/**
+ * The location information from the end-of-central-directory record of a zip file (and its zip64 counterpart, if
+ * there is one).
+ */
+final class ZipEndRecord {
+
+    // the farthest that the start of the end record may be from the end of the file
+    private static final int MAX_END_DISTANCE = 22 + 0xffff;
+
+    // the zip64 end-of-central-directory locator, which immediately precedes the end record
+    private static final int LOCATOR_SIZE = 20;
+
+    // enough to find the end record (and locator) of a file with a short comment
+    private static final int INITIAL_SCAN_SIZE = 256;
+
+    private final long endOffset;
+    private final long directoryOffset;
+    private final long directorySize;
+    private final long entryCount;
+
+    ZipEndRecord(final long endOffset, final long directoryOffset, final long directorySize, final long entryCount) {
+        this.endOffset = endOffset;
+        this.directoryOffset = directoryOffset;
+        this.directorySize = directorySize;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Get the offset of the end-of-central-directory record.
+     *
+     * @return the offset
+     */
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Get the offset of the start of the central directory.
+     *
+     * @return the offset
+     */
+    long getDirectoryOffset() {
+        return directoryOffset;
+    }
+
+    /**
+     * Get the size of the central directory (not including the end records).
+     *
+     * @return the size in bytes
+     */
+    long getDirectorySize() {
+        return directorySize;
+    }
+
+    /**
+     * Get the total number of entries in the central directory.
+     *
+     * @return the entry count
+     */
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Locate and read the end-of-central-directory record of the given channel, using positional reads of the end
+     * of the file.  The tail of the file is read in bulk and searched backwards for the record, so at most two reads
+     * are needed: a short one which finds the record of almost every file, and one covering the largest possible
+     * comment.  The channel's position is not used.
+     *
+     * @param channel the channel to examine
+     * @return the end record
+     * @throws IOException if an I/O error occurs
+     */
+    static ZipEndRecord find(final FileChannel channel) throws IOException {
+        final long len = channel.size();
+        if (len < 22L) {
+            throw new ZipException("The provided file is too short to hold even one end-of-central-directory record");
+        }
+        // most files have no comment (or a short one), so try a small read first
+        ByteBuffer buf = read(channel, len - min(len, (long) INITIAL_SCAN_SIZE), (int) min(len, (long) INITIAL_SCAN_SIZE));
+        int pos = scan(channel, buf, len);
+        if (pos == -1 && len > (long) INITIAL_SCAN_SIZE) {
+            final int size = (int) min(len, (long) (MAX_END_DISTANCE + LOCATOR_SIZE));
+            buf = read(channel, len - (long) size, size);
+            pos = scan(channel, buf, len);
+        }
+        if (pos == -1) {
+            throw new ZipException("No directory found");
+        }
+        final long bufOffset = len - (long) buf.limit();
+        final long endOffset = bufOffset + (long) pos;
+        final int diskNo = buf.getShort(pos + 4) & 0xffff; // disk #
+        final int cddNo = buf.getShort(pos + 6) & 0xffff; // central dir disk #
+        final int diskEC = buf.getShort(pos + 8) & 0xffff; // entry count in central dir # on this disk
+        final int totalEC = buf.getShort(pos + 10) & 0xffff; // entry count in central dir #
+        final long cdSize = buf.getInt(pos + 12) & 0xffffffffL; // size of central dir
+        final long cdOffset = buf.getInt(pos + 16) & 0xffffffffL; // offset of central dir
+        if (endOffset >= (long) LOCATOR_SIZE) {
+            // look for a zip64 end-of-central-directory locator immediately preceding the EOD
+            // it is usually in the buffer already
+            final ByteBuffer locator = pos >= LOCATOR_SIZE ? slice(buf, pos - LOCATOR_SIZE, LOCATOR_SIZE) : read(channel, endOffset - (long) LOCATOR_SIZE, LOCATOR_SIZE);
+            if (locator.getInt(0) == 0x07064b50) {
+                return readZip64(channel, locator, endOffset);
+            }
+        }
+        if (diskNo != cddNo || cddNo != 0) {
+            throw new ZipException("Multi-disk zips not supported");
+        }
+        if (diskEC != totalEC) {
+            throw new ZipException("Entry count inconsistency in end-of-directory record");
+        }
+        return new ZipEndRecord(endOffset, cdOffset, cdSize, totalEC);
+    }
+
+    private static ZipEndRecord readZip64(final FileChannel channel, final ByteBuffer locator, final long endOffset) throws IOException {
+        final int z64Disk = locator.getInt(4); // disk # of the zip64 EOD
+        final long z64Offset = locator.getLong(8); // offset of the zip64 EOD
+        final int diskCnt = locator.getInt(16); // total disk count
+        if (z64Disk != 0 || diskCnt > 1) {
+            throw new ZipException("Multi-disk zips not supported");
+        }
+        if (z64Offset < 0L || z64Offset > endOffset - 76L) {
+            throw new ZipException("Invalid zip64 end-of-central-directory offset");
+        }
+        final ByteBuffer buf = read(channel, z64Offset, 56);
+        if (buf.getInt(0) != 0x06064b50) {
+            throw new ZipException("Corrupted zip64 end-of-central-directory record");
+        }
+        // skip the record size and the versions
+        final int diskNo = buf.getInt(16); // disk #
+        final int cddNo = buf.getInt(20); // central dir disk #
+        final long diskEC = buf.getLong(24); // entry count in central dir # on this disk
+        final long totalEC = buf.getLong(32); // entry count in central dir #
+        final long cdSize = buf.getLong(40); // size of central dir
+        final long cdOffset = buf.getLong(48); // offset of central dir
+        if (diskNo != cddNo || cddNo != 0) {
+            throw new ZipException("Multi-disk zips not supported");
+        }
+        if (diskEC != totalEC) {
+            throw new ZipException("Entry count inconsistency in end-of-directory record");
+        }
+        if (cdOffset < 0L || cdSize < 0L || cdOffset + cdSize > z64Offset) {
+            throw new ZipException("Invalid central directory location in zip64 end-of-directory record");
+        }
+        return new ZipEndRecord(endOffset, cdOffset, cdSize, totalEC);
+    }
+
+    /**
+     * Find the last valid end record in a buffer holding the end of a file.  A candidate is only accepted if its
+     * comment runs exactly to the end of the file, and its central directory lies before it, so that a stray
+     * signature in a comment (or in the data of a stored entry) is skipped.  Files with junk after the comment are
+     * accepted too, if the candidate's central directory starts with a directory entry signature.
+     *
+     * @param channel the channel
+     * @param buf the buffer
+     * @param len the length of the file
+     * @return the position of the end record in the buffer, or -1 if there is none
+     * @throws IOException if an I/O error occurs
+     */
+    private static int scan(final FileChannel channel, final ByteBuffer buf, final long len) throws IOException {
+        final int lim = buf.limit();
+        final long bufOffset = len - (long) lim;
+        int padded = -1;
+        for (int i = lim - 22; i >= 0; i --) {
+            if (buf.getInt(i) != 0x06054b50) {
+                continue;
+            }
+            final int commentEnd = i + 22 + (buf.getShort(i + 20) & 0xffff);
+            if (commentEnd > lim) {
+                continue;
+            }
+            final long endOffset = bufOffset + (long) i;
+            final long cdSize = buf.getInt(i + 12) & 0xffffffffL;
+            final long cdOffset = buf.getInt(i + 16) & 0xffffffffL;
+            // zip64 archives keep their real values in the zip64 record
+            if (cdSize != 0xffffffffL && cdOffset != 0xffffffffL && cdOffset + cdSize > endOffset) {
+                continue;
+            }
+            if (commentEnd == lim) {
+                return i;
+            }
+            if (padded == -1 && (cdSize == 0L || cdOffset == 0xffffffffL || isDirectoryStart(channel, cdOffset))) {
+                // keep looking for an exact match, which is the more trustworthy
+                padded = i;
+            }
+        }
+        return padded;
+    }
+
+    private static boolean isDirectoryStart(final FileChannel channel, final long offset) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + (long) buf.position()) == -1) {
+                return false;
+            }
+        }
+        return buf.getInt(0) == 0x02014b50;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buf, final int offset, final int len) {
+        final ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.limit(offset + len);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long offset, final int len) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + (long) buf.position()) == -1) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+}
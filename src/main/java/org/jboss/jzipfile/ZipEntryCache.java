@@ -0,0 +1,337 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of the inflated contents of small zip entries, so that entries which are read again and again (manifests,
+ * service files, templates, classes loaded by several class loaders) are only inflated once.  A cache is attached to
+ * any number of archives with {@link ZipArchive#setEntryCache(ZipEntryCache)}, and is keyed by the archive and the
+ * offset of each entry within it.
+ * <p>
+ * The cache is bounded by the total size of the contents it holds; it is split into independently locked segments,
+ * each of which evicts its least recently used entries when it grows beyond its share of that size.  Only deflated
+ * entries no larger than the maximum entry size are admitted; stored entries are read directly and never cached.
+ * Contents may be held on the heap or in direct (off-heap) buffers.
+ */
+public final class ZipEntryCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final long maxSize;
+    private final int maxEntrySize;
+    private final boolean direct;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxSize the maximum total size of the cached contents, in bytes
+     * @param maxEntrySize the maximum size of an entry which may be cached, in bytes
+     * @param direct {@code true} to hold contents in direct buffers, {@code false} to hold them on the heap
+     */
+    public ZipEntryCache(long maxSize, int maxEntrySize, boolean direct) {
+        if (maxSize < 0L) {
+            throw new IllegalArgumentException("maxSize is negative");
+        }
+        if (maxEntrySize < 0) {
+            throw new IllegalArgumentException("maxEntrySize is negative");
+        }
+        this.maxSize = maxSize;
+        // an entry must fit in a single segment
+        this.maxEntrySize = (int) Math.min((long) maxEntrySize, maxSize / SEGMENTS);
+        this.direct = direct;
+        for (int i = 0; i < SEGMENTS; i ++) {
+            segments[i] = new Segment(maxSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * Get the maximum total size of the cached contents.
+     *
+     * @return the maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the maximum size of an entry which may be cached.  This may be less than the size given at construction,
+     * since an entry must fit within one segment of the cache.
+     *
+     * @return the maximum entry size in bytes
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Determine whether contents are held in direct buffers.
+     *
+     * @return {@code true} if contents are held off-heap
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Get the current total size of the cached contents.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        long size = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of reads of cacheable entries which were satisfied from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        long count = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.hitCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of reads of cacheable entries which had to inflate the entry.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        long count = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.missCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the fraction of reads of cacheable entries which were satisfied from the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = 0L;
+        long total = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hitCount;
+                total += segment.hitCount + segment.missCount;
+            }
+        }
+        return total == 0L ? 0.0 : (double) hits / (double) total;
+    }
+
+    /**
+     * Get the number of inflated bytes which were served from the cache instead of being inflated again.
+     *
+     * @return the number of bytes saved
+     */
+    public long getBytesSaved() {
+        long bytes = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytesSaved;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the number of entries which were evicted to keep the cache within its size bound.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        long count = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.evictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove all the entries of an archive from the cache.  This is done automatically when the archive is closed.
+     *
+     * @param archive the archive
+     */
+    public void invalidate(ZipArchive archive) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                final Iterator<Key> it = segment.map.keySet().iterator();
+                while (it.hasNext()) {
+                    final Key key = it.next();
+                    if (key.archive == archive) {
+                        segment.size -= (long) segment.map.get(key).capacity();
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.size = 0L;
+            }
+        }
+    }
+
+    public String toString() {
+        return String.format("Zip entry cache: size=%d, max size=%d, hits=%d, misses=%d, bytes saved=%d, evictions=%d", Long.valueOf(getSize()), Long.valueOf(maxSize), Long.valueOf(getHitCount()), Long.valueOf(getMissCount()), Long.valueOf(getBytesSaved()), Long.valueOf(getEvictionCount()));
+    }
+
+    /**
+     * Determine whether an entry may be cached.
+     *
+     * @param zipEntry the zip entry
+     * @return {@code true} if the entry is admitted to the cache
+     */
+    boolean admits(final ZipEntry zipEntry) {
+        final long size = zipEntry.getSize();
+        return zipEntry.getEntryType() == ZipEntryType.FILE && zipEntry.getCompressionMethod() == ZipCompressionMethod.DEFLATE && size >= 0L && size <= (long) maxEntrySize;
+    }
+
+    /**
+     * Get the cached contents of an entry, counting a hit or a miss.
+     *
+     * @param archive the archive
+     * @param zipEntry the zip entry, which must be {@linkplain #admits(ZipEntry) admitted}
+     * @return a read-only buffer holding the contents, or {@code null} if they are not cached
+     */
+    ByteBuffer get(final ZipArchive archive, final ZipEntry zipEntry) {
+        final Key key = new Key(archive, zipEntry.getOffset());
+        final Segment segment = segmentFor(key);
+        final ByteBuffer buffer;
+        synchronized (segment) {
+            buffer = segment.map.get(key);
+            if (buffer == null) {
+                segment.missCount ++;
+                return null;
+            }
+            segment.hitCount ++;
+            segment.bytesSaved += (long) buffer.capacity();
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Add the contents of an entry to the cache.
+     *
+     * @param archive the archive
+     * @param zipEntry the zip entry, which must be {@linkplain #admits(ZipEntry) admitted}
+     * @param data the inflated contents, which are kept by a heap cache and must not be modified afterwards
+     * @return a read-only buffer holding the contents
+     */
+    ByteBuffer put(final ZipArchive archive, final ZipEntry zipEntry, final byte[] data) {
+        final ByteBuffer buffer;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+        } else {
+            buffer = ByteBuffer.wrap(data);
+        }
+        final Key key = new Key(archive, zipEntry.getOffset());
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final ByteBuffer old = segment.map.put(key, buffer);
+            if (old != null) {
+                segment.size -= (long) old.capacity();
+            }
+            segment.size += (long) data.length;
+            final Iterator<ByteBuffer> it = segment.map.values().iterator();
+            while (segment.size > segment.maxSize && it.hasNext()) {
+                segment.size -= (long) it.next().capacity();
+                it.remove();
+                segment.evictionCount ++;
+            }
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private Segment segmentFor(final Key key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return segments[(h ^ h >>> 16) & (SEGMENTS - 1)];
+    }
+
+    private static final class Segment {
+        private final long maxSize;
+        private final LinkedHashMap<Key, ByteBuffer> map = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+        // all of the following are protected by this segment
+        private long size;
+        private long hitCount;
+        private long missCount;
+        private long bytesSaved;
+        private long evictionCount;
+
+        Segment(final long maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    private static final class Key {
+        private final ZipArchive archive;
+        private final long offset;
+
+        Key(final ZipArchive archive, final long offset) {
+            this.archive = archive;
+            this.offset = offset;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        private boolean equals(final Key other) {
+            return other != null && archive == other.archive && offset == other.offset;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(archive) * 31 + (int) (offset ^ offset >>> 32);
+        }
+    }
+}
@@ -33,6 +33,8 @@ final class ZipEntryImpl implements ZipEntry {
     private final long modificationTime;
     private final ZipCompressionMethod compressionMethod;
     private final byte[] rawExtraData;
+    // the offset of the entry data, once the local file header has been read
+    private volatile long dataOffset = -1L;
 
     ZipEntryImpl(final String name, final String comment, final long offset, final long size, final long compressedSize, final int crc32, final ZipEntryType entryType, final long modificationTime, final ZipCompressionMethod compressionMethod, final byte[] rawExtraData) {
         this.name = name;
@@ -87,6 +89,14 @@ final class ZipEntryImpl implements ZipEntry {
         return rawExtraData;
     }
 
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    void setDataOffset(final long dataOffset) {
+        this.dataOffset = dataOffset;
+    }
+
     public String toString() {
         return String.format("Zip Entry: name=\"%s\", compressed size=%d, uncompressed size=%d, offset=%d, type=%s, method=%s, crc32=0x%08x, comment=\"%s\"", name, Long.valueOf(compressedSize), Long.valueOf(size), Long.valueOf(offset), entryType, compressionMethod, Integer.valueOf(crc32), comment);
     }
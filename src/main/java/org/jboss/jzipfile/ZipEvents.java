@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * The registered listeners, and the methods which notify them.  The listener array is replaced on every change, so
+ * the cost of instrumentation when no listener is registered is one volatile read.
+ */
+final class ZipEvents {
+
+    private static final ZipListener[] NONE = new ZipListener[0];
+
+    private static final Object lock = new Object();
+
+    private static volatile ZipListener[] listeners = NONE;
+
+    private ZipEvents() {
+    }
+
+    static void addListener(final ZipListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        synchronized (lock) {
+            final ZipListener[] old = listeners;
+            final ZipListener[] copy = Arrays.copyOf(old, old.length + 1);
+            copy[old.length] = listener;
+            listeners = copy;
+        }
+    }
+
+    static void removeListener(final ZipListener listener) {
+        synchronized (lock) {
+            final ZipListener[] old = listeners;
+            for (int i = 0; i < old.length; i ++) {
+                if (old[i] == listener) {
+                    final ZipListener[] copy = new ZipListener[old.length - 1];
+                    System.arraycopy(old, 0, copy, 0, i);
+                    System.arraycopy(old, i + 1, copy, i, copy.length - i);
+                    listeners = copy;
+                    return;
+                }
+            }
+        }
+    }
+
+    static boolean isEnabled() {
+        return listeners.length > 0;
+    }
+
+    /**
+     * Get the start time of an operation, or 0 if no listener is registered.
+     *
+     * @return the start time
+     */
+    static long start() {
+        return listeners.length > 0 ? System.nanoTime() : 0L;
+    }
+
+    static void catalogRead(final File file, final ZipCatalog catalog, final long directorySize, final long start) {
+        final ZipListener[] listeners = ZipEvents.listeners;
+        // a start time of zero means that the operation was not measured
+        if (listeners.length == 0 || start == 0L) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        final int entryCount = catalog.allEntries().size();
+        for (ZipListener listener : listeners) {
+            listener.catalogRead(file, entryCount, directorySize, nanos);
+        }
+    }
+
+    static void entryOpened(final ZipEntry zipEntry, final long start) {
+        final ZipListener[] listeners = ZipEvents.listeners;
+        if (listeners.length == 0 || start == 0L) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        for (ZipListener listener : listeners) {
+            listener.entryOpened(zipEntry, nanos);
+        }
+    }
+
+    static void entryRead(final ZipEntry zipEntry, final long bytes, final long compressedBytes, final long inflateNanos) {
+        for (ZipListener listener : listeners) {
+            listener.entryRead(zipEntry, bytes, compressedBytes, inflateNanos);
+        }
+    }
+}
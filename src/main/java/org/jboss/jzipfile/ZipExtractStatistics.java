@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+/**
+ * Statistics gathered from a zip extraction.
+ */
+public final class ZipExtractStatistics {
+
+    private final int entryCount;
+    private final long size;
+    private final long compressedSize;
+    private final long elapsedTime;
+
+    ZipExtractStatistics(final int entryCount, final long size, final long compressedSize, final long elapsedTime) {
+        this.entryCount = entryCount;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Get the number of file entries which were extracted.
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the total (uncompressed) number of bytes written.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the total compressed size of the extracted entries.
+     *
+     * @return the size in bytes
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Get the time taken by the extraction.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Get the aggregate extraction throughput, in uncompressed bytes written per second.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+        return elapsedTime == 0L ? 0.0 : (double) size * 1000000000.0 / (double) elapsedTime;
+    }
+
+    public String toString() {
+        return String.format("Zip extraction: entries=%d, size=%d, compressed size=%d, time=%dms, throughput=%.1fMB/s", Integer.valueOf(entryCount), Long.valueOf(size), Long.valueOf(compressedSize), Long.valueOf(elapsedTime / 1000000L), Double.valueOf(getThroughput() / 1048576.0));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The attributes of a path within a zip file system.  Directories which are only implied by the names of the
+ * entries within them have no entry, and take their times from the archive file.
+ */
+final class ZipFileAttributes implements BasicFileAttributes {
+
+    private final ZipEntry zipEntry;
+    private final boolean directory;
+    private final FileTime time;
+
+    ZipFileAttributes(final ZipEntry zipEntry, final boolean directory, final FileTime defaultTime) {
+        this.zipEntry = zipEntry;
+        this.directory = directory;
+        time = zipEntry == null ? defaultTime : FileTime.fromMillis(zipEntry.getModificationTime());
+    }
+
+    /**
+     * Get the zip entry of the path.
+     *
+     * @return the zip entry, or {@code null} if the path is an implied directory
+     */
+    ZipEntry getZipEntry() {
+        return zipEntry;
+    }
+
+    public FileTime lastModifiedTime() {
+        return time;
+    }
+
+    public FileTime lastAccessTime() {
+        return time;
+    }
+
+    public FileTime creationTime() {
+        return time;
+    }
+
+    public boolean isRegularFile() {
+        return ! directory;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    public boolean isOther() {
+        return false;
+    }
+
+    public long size() {
+        return zipEntry == null || directory ? 0L : zipEntry.getSize();
+    }
+
+    public Object fileKey() {
+        return null;
+    }
+
+    /**
+     * Get the named attributes of the given view, for {@code readAttributes}.  The {@code basic} view holds the
+     * attributes of {@code BasicFileAttributes}, and the {@code jzipfile} view adds {@code crc}, {@code compressedSize},
+     * {@code method} and {@code comment} to them.
+     *
+     * @param view the view name
+     * @param names the attribute names, or {@code *} for all of them
+     * @return the attribute values
+     * @throws IllegalArgumentException if the view or an attribute is unknown
+     */
+    Map<String, Object> toMap(final String view, final String[] names) {
+        final boolean zip;
+        if (view.equals("basic")) {
+            zip = false;
+        } else if (view.equals(ZipFileSystemProvider.SCHEME)) {
+            zip = true;
+        } else {
+            throw new UnsupportedOperationException("Unsupported attribute view \"" + view + "\"");
+        }
+        final Map<String, Object> all = new HashMap<String, Object>();
+        all.put("lastModifiedTime", time);
+        all.put("lastAccessTime", time);
+        all.put("creationTime", time);
+        all.put("size", Long.valueOf(size()));
+        all.put("isRegularFile", Boolean.valueOf(isRegularFile()));
+        all.put("isDirectory", Boolean.valueOf(directory));
+        all.put("isSymbolicLink", Boolean.FALSE);
+        all.put("isOther", Boolean.FALSE);
+        all.put("fileKey", null);
+        if (zip) {
+            all.put("crc", zipEntry == null ? null : Long.valueOf(zipEntry.getCrc32() & 0xffffffffL));
+            all.put("compressedSize", zipEntry == null ? null : Long.valueOf(zipEntry.getCompressedSize()));
+            all.put("method", zipEntry == null ? null : zipEntry.getCompressionMethod());
+            all.put("comment", zipEntry == null ? null : zipEntry.getComment());
+        }
+        final Map<String, Object> result = new HashMap<String, Object>();
+        for (String name : names) {
+            if (name.equals("*")) {
+                result.putAll(all);
+            } else if (all.containsKey(name)) {
+                result.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("Unknown attribute \"" + name + "\" of view \"" + view + "\"");
+            }
+        }
+        return result;
+    }
+}
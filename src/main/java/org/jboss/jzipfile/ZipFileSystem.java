@@ -0,0 +1,270 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A read-only file system over the contents of a zip archive.  Entries are read through a {@link ZipArchive}, and
+ * directories are listed through a {@link ZipDirectoryIndex}, neither of which needs any locking, so the file
+ * system may be read by any number of threads at once.
+ */
+final class ZipFileSystem extends FileSystem {
+
+    private static final Set<String> VIEWS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("basic", ZipFileSystemProvider.SCHEME)));
+
+    private final ZipFileSystemProvider provider;
+    private final Path archivePath;
+    private final ZipArchive archive;
+    private final ZipDirectoryIndex index;
+    private final FileTime archiveTime;
+    private final ZipPath root;
+    private volatile boolean open = true;
+
+    ZipFileSystem(final ZipFileSystemProvider provider, final Path archivePath, final ZipArchive archive) {
+        this.provider = provider;
+        this.archivePath = archivePath;
+        this.archive = archive;
+        index = Zip.buildDirectoryIndex(archive.getCatalog());
+        archiveTime = FileTime.fromMillis(archive.getFile().lastModified());
+        root = new ZipPath(this, "/");
+    }
+
+    Path getArchivePath() {
+        return archivePath;
+    }
+
+    ZipArchive getArchive() {
+        return archive;
+    }
+
+    ZipDirectoryIndex getIndex() {
+        return index;
+    }
+
+    ZipPath getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the attributes of a path.
+     *
+     * @param path the path
+     * @return the attributes
+     * @throws NoSuchFileException if the path does not exist
+     */
+    ZipFileAttributes getAttributes(final ZipPath path) throws IOException {
+        checkOpen();
+        final String name = path.getEntryName();
+        final ZipCatalog catalog = archive.getCatalog();
+        if (index.isDirectory(name)) {
+            return new ZipFileAttributes(name.isEmpty() ? null : catalog.getEntry(name + "/"), true, archiveTime);
+        }
+        final ZipEntry zipEntry = catalog.getEntry(name);
+        if (zipEntry == null || zipEntry.getEntryType() != ZipEntryType.FILE) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return new ZipFileAttributes(zipEntry, false, archiveTime);
+    }
+
+    void checkOpen() {
+        if (! open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    public ZipFileSystemProvider provider() {
+        return provider;
+    }
+
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            provider.removeFileSystem(archivePath, this);
+            archive.close();
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    public String getSeparator() {
+        return "/";
+    }
+
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(root);
+    }
+
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    public Set<String> supportedFileAttributeViews() {
+        return VIEWS;
+    }
+
+    public Path getPath(final String first, final String... more) {
+        if (more.length == 0) {
+            return new ZipPath(this, first);
+        }
+        final StringBuilder b = new StringBuilder(first);
+        for (String name : more) {
+            if (! name.isEmpty()) {
+                if (b.length() > 0) {
+                    b.append('/');
+                }
+                b.append(name);
+            }
+        }
+        return new ZipPath(this, b.toString());
+    }
+
+    public PathMatcher getPathMatcher(final String syntaxAndPattern) {
+        final int idx = syntaxAndPattern.indexOf(':');
+        if (idx == -1) {
+            throw new IllegalArgumentException("No syntax given in \"" + syntaxAndPattern + "\"");
+        }
+        final String syntax = syntaxAndPattern.substring(0, idx);
+        final String pattern = syntaxAndPattern.substring(idx + 1);
+        final Pattern regex;
+        if (syntax.equals("regex")) {
+            regex = Pattern.compile(pattern);
+        } else if (syntax.equals("glob")) {
+            regex = Pattern.compile(globToRegex(pattern));
+        } else {
+            throw new UnsupportedOperationException("Unsupported path matcher syntax \"" + syntax + "\"");
+        }
+        return new PathMatcher() {
+            public boolean matches(final Path path) {
+                return regex.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    static String globToRegex(final String glob) {
+        final StringBuilder b = new StringBuilder();
+        final int len = glob.length();
+        boolean inGroup = false;
+        for (int i = 0; i < len; i ++) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*': {
+                    if (i + 1 < len && glob.charAt(i + 1) == '*') {
+                        b.append(".*");
+                        i ++;
+                    } else {
+                        b.append("[^/]*");
+                    }
+                    break;
+                }
+                case '?': {
+                    b.append("[^/]");
+                    break;
+                }
+                case '[': {
+                    final int end = glob.indexOf(']', i + 1);
+                    if (end == -1) {
+                        throw new IllegalArgumentException("Unterminated bracket expression in \"" + glob + "\"");
+                    }
+                    String body = glob.substring(i + 1, end);
+                    if (body.startsWith("!")) {
+                        body = "^" + body.substring(1);
+                    }
+                    b.append('[').append(body.replace("\\", "\\\\")).append(']');
+                    i = end;
+                    break;
+                }
+                case '{': {
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Nested groups are not supported in \"" + glob + "\"");
+                    }
+                    inGroup = true;
+                    b.append("(?:");
+                    break;
+                }
+                case '}': {
+                    if (inGroup) {
+                        inGroup = false;
+                        b.append(')');
+                    } else {
+                        b.append("\\}");
+                    }
+                    break;
+                }
+                case ',': {
+                    b.append(inGroup ? "|" : ",");
+                    break;
+                }
+                case '\\': {
+                    if (++ i == len) {
+                        throw new IllegalArgumentException("Trailing escape in \"" + glob + "\"");
+                    }
+                    b.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    break;
+                }
+                default: {
+                    if ("^$.|+()".indexOf(c) != -1) {
+                        b.append('\\');
+                    }
+                    b.append(c);
+                }
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Unterminated group in \"" + glob + "\"");
+        }
+        return b.toString();
+    }
+
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("Zip file systems have no users");
+    }
+
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Zip file systems cannot be watched");
+    }
+
+    public String toString() {
+        return archivePath.toString();
+    }
+}
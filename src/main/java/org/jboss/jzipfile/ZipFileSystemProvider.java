@@ -0,0 +1,375 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A provider of read-only file systems over zip archives, using the {@code jzipfile} URI scheme.  A URI of this
+ * scheme is the URI of the archive, followed by {@code !} and the absolute path of an entry, for example
+ * {@code jzipfile:file:///lib/app.jar!/META-INF/MANIFEST.MF}.
+ * <p>
+ * Besides the {@code basic} attribute view, paths support a {@code jzipfile} attribute view which adds the
+ * {@code crc}, {@code compressedSize}, {@code method} and {@code comment} attributes of the entry.
+ */
+public final class ZipFileSystemProvider extends FileSystemProvider {
+
+    static final String SCHEME = "jzipfile";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<Path, ZipFileSystem> fileSystems = new ConcurrentHashMap<Path, ZipFileSystem>();
+
+    /**
+     * Construct a new instance.  Normally the instance installed by the {@link java.util.ServiceLoader service loader}
+     * is used, as returned by {@link #getInstance()}.
+     */
+    public ZipFileSystemProvider() {
+    }
+
+    /**
+     * Get the installed provider instance, or a new instance if this provider is not installed.
+     *
+     * @return the provider
+     */
+    public static ZipFileSystemProvider getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    public FileSystem newFileSystem(final URI uri, final Map<String, ?> env) throws IOException {
+        final Path archivePath = getArchivePath(uri);
+        final ZipFileSystem fileSystem = new ZipFileSystem(this, archivePath, ZipArchive.open(archivePath.toFile()));
+        if (fileSystems.putIfAbsent(archivePath, fileSystem) != null) {
+            fileSystem.getArchive().close();
+            throw new FileSystemAlreadyExistsException(archivePath.toString());
+        }
+        return fileSystem;
+    }
+
+    /**
+     * Open a file system over the given archive.  The file system is not registered with this provider, so it
+     * cannot be found by URI, and any number of file systems may be opened over the same archive.
+     *
+     * @param path the path of the archive
+     * @param env the environment (not used)
+     * @return the file system
+     * @throws IOException if an I/O error occurs
+     */
+    public FileSystem newFileSystem(final Path path, final Map<String, ?> env) throws IOException {
+        return new ZipFileSystem(this, path.toAbsolutePath().normalize(), ZipArchive.open(path.toFile()));
+    }
+
+    public FileSystem getFileSystem(final URI uri) {
+        final ZipFileSystem fileSystem = fileSystems.get(getArchivePath(uri));
+        if (fileSystem == null) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        return fileSystem;
+    }
+
+    public Path getPath(final URI uri) {
+        final String spec = uri.getRawSchemeSpecificPart();
+        final int idx = spec.indexOf("!/");
+        return getFileSystem(uri).getPath(idx == -1 ? "/" : decode(spec.substring(idx + 1)));
+    }
+
+    void removeFileSystem(final Path archivePath, final ZipFileSystem fileSystem) {
+        fileSystems.remove(archivePath, fileSystem);
+    }
+
+    private Path getArchivePath(final URI uri) {
+        if (! SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not \"" + SCHEME + "\"");
+        }
+        // the archive URI stays encoded; only the entry path is decoded
+        final String spec = uri.getRawSchemeSpecificPart();
+        final int idx = spec.indexOf("!/");
+        return Paths.get(URI.create(idx == -1 ? spec : spec.substring(0, idx))).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Decode the percent-encoded UTF-8 octets of a raw URI component.
+     *
+     * @param raw the raw component
+     * @return the decoded component
+     */
+    private static String decode(final String raw) {
+        if (raw.indexOf('%') == -1) {
+            return raw;
+        }
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(raw.length());
+        final int len = raw.length();
+        for (int i = 0; i < len; i ++) {
+            final char c = raw.charAt(i);
+            if (c == '%' && i + 2 < len) {
+                os.write(Integer.parseInt(raw.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else if (c < 0x80) {
+                os.write(c);
+            } else {
+                // a run of unquoted non-ASCII characters, which may include surrogate pairs
+                int j = i + 1;
+                while (j < len && raw.charAt(j) >= 0x80) {
+                    j ++;
+                }
+                final byte[] bytes = raw.substring(i, j).getBytes(UTF_8);
+                os.write(bytes, 0, bytes.length);
+                i = j - 1;
+            }
+        }
+        return new String(os.toByteArray(), UTF_8);
+    }
+
+    public SeekableByteChannel newByteChannel(final Path path, final Set<? extends OpenOption> options, final FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        return zipPath.getFileSystem().getArchive().openEntryChannel(getFileEntry(zipPath));
+    }
+
+    public InputStream newInputStream(final Path path, final OpenOption... options) throws IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        return zipPath.getFileSystem().getArchive().openEntry(getFileEntry(zipPath));
+    }
+
+    public OutputStream newOutputStream(final Path path, final OpenOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    private static ZipEntry getFileEntry(final ZipPath path) throws IOException {
+        final ZipFileAttributes attributes = path.getFileSystem().getAttributes(path);
+        if (attributes.isDirectory()) {
+            throw new AccessDeniedException(path.toString(), null, "Path is a directory");
+        }
+        return attributes.getZipEntry();
+    }
+
+    public DirectoryStream<Path> newDirectoryStream(final Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+        final ZipPath zipPath = ZipPath.checkPath(dir);
+        final ZipFileSystem fileSystem = zipPath.getFileSystem();
+        if (! fileSystem.getAttributes(zipPath).isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        final List<String> children = fileSystem.getIndex().getChildren(zipPath.getEntryName());
+        final int prefix = zipPath.getEntryName().isEmpty() ? 0 : zipPath.getEntryName().length() + 1;
+        return new DirectoryStream<Path>() {
+            private boolean iterated;
+            private volatile boolean closed;
+
+            public Iterator<Path> iterator() {
+                if (closed) {
+                    throw new IllegalStateException("Directory stream is closed");
+                }
+                if (iterated) {
+                    throw new IllegalStateException("Directory stream has already been iterated");
+                }
+                iterated = true;
+                final Iterator<String> it = children.iterator();
+                return new Iterator<Path>() {
+                    private Path next;
+
+                    public boolean hasNext() {
+                        while (next == null && ! closed && it.hasNext()) {
+                            final String child = it.next();
+                            final Path path = zipPath.resolve(child.substring(prefix, child.endsWith("/") ? child.length() - 1 : child.length()));
+                            try {
+                                if (filter == null || filter.accept(path)) {
+                                    next = path;
+                                }
+                            } catch (IOException e) {
+                                throw new DirectoryIteratorException(e);
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    public Path next() {
+                        if (! hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Path next = this.next;
+                        this.next = null;
+                        return next;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public void close() {
+                closed = true;
+            }
+        };
+    }
+
+    public void createDirectory(final Path dir, final FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    public void delete(final Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    public void copy(final Path source, final Path target, final CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    public void move(final Path source, final Path target, final CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    public boolean isSameFile(final Path path, final Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (! (path2 instanceof ZipPath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        return path.toRealPath().equals(path2.toRealPath());
+    }
+
+    public boolean isHidden(final Path path) {
+        return false;
+    }
+
+    public FileStore getFileStore(final Path path) {
+        throw new UnsupportedOperationException("Zip file systems have no file stores");
+    }
+
+    public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        zipPath.getFileSystem().getAttributes(zipPath);
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE) {
+                throw new AccessDeniedException(path.toString(), null, "File system is read-only");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(final Path path, final Class<V> type, final LinkOption... options) {
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            public String name() {
+                return "basic";
+            }
+
+            public BasicFileAttributes readAttributes() throws IOException {
+                return zipPath.getFileSystem().getAttributes(zipPath);
+            }
+
+            public void setTimes(final FileTime lastModifiedTime, final FileTime lastAccessTime, final FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> type, final LinkOption... options) throws IOException {
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Unsupported attributes type " + type);
+        }
+        return (A) zipPath.getFileSystem().getAttributes(zipPath);
+    }
+
+    public Map<String, Object> readAttributes(final Path path, final String attributes, final LinkOption... options) throws IOException {
+        final ZipPath zipPath = ZipPath.checkPath(path);
+        final int idx = attributes.indexOf(':');
+        final String view = idx == -1 ? "basic" : attributes.substring(0, idx);
+        return zipPath.getFileSystem().getAttributes(zipPath).toMap(view, attributes.substring(idx + 1).split(","));
+    }
+
+    public void setAttribute(final Path path, final String attribute, final Object value, final LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    private static final class Holder {
+        static final ZipFileSystemProvider INSTANCE;
+
+        static {
+            ZipFileSystemProvider found = null;
+            for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+                if (provider instanceof ZipFileSystemProvider) {
+                    found = (ZipFileSystemProvider) provider;
+                    break;
+                }
+            }
+            INSTANCE = found == null ? new ZipFileSystemProvider() : found;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A checkpoint index over the contents of a deflated zip entry, which allows the entry to be read from any position
+ * with a bounded amount of decompression.  Each checkpoint records the bit position of a deflate block, along with
+ * the 32 KB window of output which precedes it.  Indexes are built by {@link ZipArchive#buildInflateIndex(ZipEntry,
+ * int)}, or as a side effect of reading an {@linkplain ZipArchive#openEntryChannel(ZipEntry) entry channel} through
+ * to its end, and may be saved and loaded with {@link #writeTo(OutputStream)} and {@link #readFrom(InputStream)}.
+ * <p>
+ * Indexes are immutable, and so may be shared by any number of threads.
+ */
+public final class ZipInflateIndex {
+
+    /**
+     * The default spacing between checkpoints, in bytes of inflated data.
+     */
+    public static final int DEFAULT_SPACING = 1 << 20;
+
+    private static final int MAGIC = 0x49495a4a; // "JZII"
+    private static final int VERSION = 1;
+
+    private final long size;
+    private final long compressedSize;
+    private final int crc32;
+    private final long spacing;
+    private final long[] outputOffsets;
+    private final long[] bitOffsets;
+    private final byte[][] windows;
+
+    ZipInflateIndex(final long size, final long compressedSize, final int crc32, final long spacing, final long[] outputOffsets, final long[] bitOffsets, final byte[][] windows) {
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.crc32 = crc32;
+        this.spacing = spacing;
+        this.outputOffsets = outputOffsets;
+        this.bitOffsets = bitOffsets;
+        this.windows = windows;
+    }
+
+    /**
+     * Get the number of checkpoints in this index, not counting the start of the entry.
+     *
+     * @return the number of checkpoints
+     */
+    public int getCheckpointCount() {
+        return outputOffsets.length;
+    }
+
+    /**
+     * Get the minimum spacing between checkpoints, in bytes of inflated data.
+     *
+     * @return the spacing
+     */
+    public long getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Determine whether this index was built for the given entry, judging by its sizes and CRC.
+     *
+     * @param zipEntry the zip entry
+     * @return {@code true} if the index matches the entry
+     */
+    public boolean matches(ZipEntry zipEntry) {
+        return zipEntry.getSize() == size && zipEntry.getCompressedSize() == compressedSize && zipEntry.getCrc32() == crc32;
+    }
+
+    /**
+     * Find the last checkpoint at or before a position.
+     *
+     * @param position the position in the inflated data
+     * @return the checkpoint number, or -1 if the position is before the first checkpoint
+     */
+    int find(final long position) {
+        final int idx = Arrays.binarySearch(outputOffsets, position);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    long getOutputOffset(final int checkpoint) {
+        return outputOffsets[checkpoint];
+    }
+
+    long getBitOffset(final int checkpoint) {
+        return bitOffsets[checkpoint];
+    }
+
+    byte[] getWindow(final int checkpoint) {
+        return windows[checkpoint];
+    }
+
+    /**
+     * Write this index to a stream.  The windows are compressed, so the written form is usually much smaller than
+     * the index in memory.  The stream is not closed.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        final DataOutputStream os = new DataOutputStream(outputStream);
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeLong(size);
+        os.writeLong(compressedSize);
+        os.writeInt(crc32);
+        os.writeLong(spacing);
+        final int cnt = outputOffsets.length;
+        os.writeInt(cnt);
+        for (int i = 0; i < cnt; i ++) {
+            os.writeLong(outputOffsets[i]);
+            os.writeLong(bitOffsets[i]);
+            os.writeShort(windows[i].length - 1);
+        }
+        os.flush();
+        final Deflater deflater = new Deflater();
+        try {
+            final DeflaterOutputStream dos = new DeflaterOutputStream(outputStream, deflater);
+            for (byte[] window : windows) {
+                dos.write(window);
+            }
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read an index which was written by {@link #writeTo(OutputStream)}.  The stream may be read past the end of the
+     * index, and is not closed.
+     *
+     * @param inputStream the stream to read from
+     * @return the index
+     * @throws IOException if an I/O error occurs or the stream does not hold a valid index
+     */
+    public static ZipInflateIndex readFrom(InputStream inputStream) throws IOException {
+        final DataInputStream is = new DataInputStream(inputStream);
+        if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+            throw new ZipException("Invalid inflate index");
+        }
+        final long size = is.readLong();
+        final long compressedSize = is.readLong();
+        final int crc32 = is.readInt();
+        final long spacing = is.readLong();
+        final int cnt = is.readInt();
+        if (cnt < 0) {
+            throw new ZipException("Invalid inflate index");
+        }
+        final long[] outputOffsets = new long[cnt];
+        final long[] bitOffsets = new long[cnt];
+        final byte[][] windows = new byte[cnt][];
+        for (int i = 0; i < cnt; i ++) {
+            outputOffsets[i] = is.readLong();
+            bitOffsets[i] = is.readLong();
+            windows[i] = new byte[is.readUnsignedShort() + 1];
+            if ((long) windows[i].length > outputOffsets[i] || i > 0 && outputOffsets[i] <= outputOffsets[i - 1]) {
+                throw new ZipException("Invalid inflate index");
+            }
+            // each access point must lie within the compressed data, after the one before it
+            if (bitOffsets[i] < 0L || bitOffsets[i] >> 3 >= compressedSize || i > 0 && bitOffsets[i] <= bitOffsets[i - 1]) {
+                throw new ZipException("Invalid inflate index");
+            }
+        }
+        final Inflater inflater = new Inflater();
+        try {
+            final DataInputStream wis = new DataInputStream(new InflaterInputStream(inputStream, inflater));
+            for (byte[] window : windows) {
+                wis.readFully(window);
+            }
+        } finally {
+            inflater.end();
+        }
+        return new ZipInflateIndex(size, compressedSize, crc32, spacing, outputOffsets, bitOffsets, windows);
+    }
+}
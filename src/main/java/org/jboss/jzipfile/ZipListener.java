@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.File;
+
+/**
+ * A listener which is notified of zip file operations, for example to feed metrics or tracing systems.  Listeners
+ * are registered with {@link Zip#addListener(ZipListener)}.  When no listener is registered, operations are not
+ * measured at all.
+ * <p>
+ * Listener methods are called synchronously, from the thread performing the operation, so they should be quick;
+ * they must be safe for use by multiple threads, and must not throw exceptions.  All methods do nothing by default.
+ */
+public abstract class ZipListener {
+
+    /**
+     * Construct a new instance.
+     */
+    protected ZipListener() {
+    }
+
+    /**
+     * A catalog was read.
+     *
+     * @param file the zip file
+     * @param entryCount the number of entries in the catalog
+     * @param directorySize the size of the central directory, in bytes
+     * @param nanos the time taken to locate and read the catalog, in nanoseconds
+     */
+    public void catalogRead(File file, int entryCount, long directorySize, long nanos) {
+    }
+
+    /**
+     * An entry was opened for reading.
+     *
+     * @param zipEntry the zip entry
+     * @param nanos the time taken to open the entry (including reading its local file header), in nanoseconds
+     */
+    public void entryOpened(ZipEntry zipEntry, long nanos) {
+    }
+
+    /**
+     * The data of an entry was read, either by a stream which has been closed or by a bulk read.
+     *
+     * @param zipEntry the zip entry
+     * @param bytes the number of (uncompressed) bytes delivered
+     * @param compressedBytes the number of compressed bytes read from the file
+     * @param inflateNanos the time spent inflating, in nanoseconds, or 0 if the entry is not compressed
+     */
+    public void entryRead(ZipEntry zipEntry, long bytes, long compressedBytes, long inflateNanos) {
+    }
+}
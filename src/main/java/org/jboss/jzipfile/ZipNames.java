@@ -0,0 +1,455 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Utility methods for zip entry names.  Names are hashed and compared in their encoded (UTF-8) form, so that
+ * lookups can be made directly against raw central directory bytes, or against a {@code CharSequence} without
+ * encoding it into a new array first.  Names without the UTF-8 flag are decoded as US-ASCII, so every byte
+ * outside of that range stands for {@code U+FFFD}, and is hashed and compared as such.  A flagged name which is not
+ * well-formed UTF-8 also decodes with replacement characters, so it is hashed and compared in its decoded form.
+ */
+final class ZipNames {
+
+    /**
+     * The general purpose flag bit which indicates that the name and comment are encoded in UTF-8.
+     */
+    static final int GP_UTF8 = 1 << 11;
+
+    private ZipNames() {
+    }
+
+    /**
+     * Decode a name or comment.
+     *
+     * @param b the raw bytes
+     * @param off the offset of the name
+     * @param len the length of the name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @return the decoded string
+     */
+    static String decode(final byte[] b, final int off, final int len, final boolean utf8) {
+        try {
+            return new String(b, off, len, utf8 ? "UTF-8" : "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decode a name or comment held in a buffer.
+     *
+     * @param buf the buffer
+     * @param off the absolute offset of the name
+     * @param len the length of the name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @return the decoded string
+     */
+    static String decode(final ByteBuffer buf, final int off, final int len, final boolean utf8) {
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; i ++) {
+            b[i] = buf.get(off + i);
+        }
+        return decode(b, 0, len, utf8);
+    }
+
+    /**
+     * Hash a raw name.
+     *
+     * @param b the raw bytes
+     * @param off the offset of the name
+     * @param len the length of the name
+     * @return the hash code
+     */
+    static int hash(final byte[] b, final int off, final int len) {
+        int h = 0;
+        for (int i = 0; i < len; i ++) {
+            h = 31 * h + (b[off + i] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * Hash a raw name as it is decoded.  The result is the same as that of {@link #hash(CharSequence)} for the
+     * decoded name.
+     *
+     * @param b the raw bytes
+     * @param off the offset of the name
+     * @param len the length of the name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @return the hash code
+     */
+    static int hash(final byte[] b, final int off, final int len, final boolean utf8) {
+        if (utf8) {
+            return isWellFormed(ByteBuffer.wrap(b), off, len) ? hash(b, off, len) : hash(decode(b, off, len, true));
+        }
+        int h = 0;
+        for (int i = 0; i < len; i ++) {
+            final int c = b[off + i];
+            if (c >= 0) {
+                h = 31 * h + c;
+            } else {
+                // U+FFFD
+                h = ((31 * h + 0xef) * 31 + 0xbf) * 31 + 0xbd;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Hash a raw name held in a buffer as it is decoded.  The result is the same as that of
+     * {@link #hash(CharSequence)} for the decoded name.
+     *
+     * @param b the buffer
+     * @param off the absolute offset of the name
+     * @param len the length of the name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @return the hash code
+     */
+    static int hash(final ByteBuffer b, final int off, final int len, final boolean utf8) {
+        if (utf8 && ! isWellFormed(b, off, len)) {
+            // rare
+            return hash(decode(b, off, len, true));
+        }
+        int h = 0;
+        for (int i = 0; i < len; i ++) {
+            final int c = b.get(off + i);
+            if (c >= 0 || utf8) {
+                h = 31 * h + (c & 0xff);
+            } else {
+                // U+FFFD
+                h = ((31 * h + 0xef) * 31 + 0xbf) * 31 + 0xbd;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Hash a name as if it were encoded in UTF-8.  The result is the same as that of {@link #hash(byte[], int, int)}
+     * for the encoded name.
+     *
+     * @param name the name
+     * @return the hash code
+     */
+    static int hash(final CharSequence name) {
+        int h = 0;
+        final int len = name.length();
+        for (int i = 0; i < len; i ++) {
+            final char c = name.charAt(i);
+            if (c < 0x80) {
+                h = 31 * h + c;
+            } else if (c < 0x800) {
+                h = 31 * h + (0xc0 | c >> 6);
+                h = 31 * h + (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(name.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, name.charAt(++ i));
+                h = 31 * h + (0xf0 | cp >> 18);
+                h = 31 * h + (0x80 | cp >> 12 & 0x3f);
+                h = 31 * h + (0x80 | cp >> 6 & 0x3f);
+                h = 31 * h + (0x80 | cp & 0x3f);
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                // unpaired surrogates encode as '?'
+                h = 31 * h + '?';
+            } else {
+                h = 31 * h + (0xe0 | c >> 12);
+                h = 31 * h + (0x80 | c >> 6 & 0x3f);
+                h = 31 * h + (0x80 | c & 0x3f);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Determine whether a raw name is equal to the UTF-8 encoding of the given name.
+     *
+     * @param b the raw bytes
+     * @param off the offset of the raw name
+     * @param len the length of the raw name
+     * @param name the name to compare
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final byte[] b, final int off, final int len, final CharSequence name) {
+        final int cnt = name.length();
+        int p = off;
+        final int end = off + len;
+        for (int i = 0; i < cnt; i ++) {
+            final char c = name.charAt(i);
+            if (c < 0x80) {
+                if (p == end || b[p++] != (byte) c) return false;
+            } else if (c < 0x800) {
+                if (end - p < 2 || b[p++] != (byte) (0xc0 | c >> 6) || b[p++] != (byte) (0x80 | c & 0x3f)) return false;
+            } else if (Character.isHighSurrogate(c) && i + 1 < cnt && Character.isLowSurrogate(name.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, name.charAt(++ i));
+                if (end - p < 4 || b[p++] != (byte) (0xf0 | cp >> 18) || b[p++] != (byte) (0x80 | cp >> 12 & 0x3f) || b[p++] != (byte) (0x80 | cp >> 6 & 0x3f) || b[p++] != (byte) (0x80 | cp & 0x3f)) return false;
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                if (p == end || b[p++] != '?') return false;
+            } else {
+                if (end - p < 3 || b[p++] != (byte) (0xe0 | c >> 12) || b[p++] != (byte) (0x80 | c >> 6 & 0x3f) || b[p++] != (byte) (0x80 | c & 0x3f)) return false;
+            }
+        }
+        return p == end;
+    }
+
+    /**
+     * Determine whether a raw name held in a buffer is equal to the UTF-8 encoding of the given name.
+     *
+     * @param b the buffer
+     * @param off the absolute offset of the raw name
+     * @param len the length of the raw name
+     * @param name the name to compare
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b, final int off, final int len, final CharSequence name) {
+        final int cnt = name.length();
+        int p = off;
+        final int end = off + len;
+        for (int i = 0; i < cnt; i ++) {
+            final char c = name.charAt(i);
+            if (c < 0x80) {
+                if (p == end || b.get(p++) != (byte) c) return false;
+            } else if (c < 0x800) {
+                if (end - p < 2 || b.get(p++) != (byte) (0xc0 | c >> 6) || b.get(p++) != (byte) (0x80 | c & 0x3f)) return false;
+            } else if (Character.isHighSurrogate(c) && i + 1 < cnt && Character.isLowSurrogate(name.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, name.charAt(++ i));
+                if (end - p < 4 || b.get(p++) != (byte) (0xf0 | cp >> 18) || b.get(p++) != (byte) (0x80 | cp >> 12 & 0x3f) || b.get(p++) != (byte) (0x80 | cp >> 6 & 0x3f) || b.get(p++) != (byte) (0x80 | cp & 0x3f)) return false;
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                if (p == end || b.get(p++) != '?') return false;
+            } else {
+                if (end - p < 3 || b.get(p++) != (byte) (0xe0 | c >> 12) || b.get(p++) != (byte) (0x80 | c >> 6 & 0x3f) || b.get(p++) != (byte) (0x80 | c & 0x3f)) return false;
+            }
+        }
+        return p == end;
+    }
+
+    /**
+     * Determine whether a raw name held in a buffer is equal to the given name, as it is decoded.
+     *
+     * @param b the buffer
+     * @param off the absolute offset of the raw name
+     * @param len the length of the raw name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @param name the name to compare
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b, final int off, final int len, final boolean utf8, final CharSequence name) {
+        if (utf8) {
+            // a malformed name decodes with replacement characters, so only such a name can need the slow path
+            return equals(b, off, len, name) || hasReplacement(name) && ! isWellFormed(b, off, len) && decode(b, off, len, true).contentEquals(name);
+        }
+        if (len != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i ++) {
+            final int c = b.get(off + i);
+            if (name.charAt(i) != (c >= 0 ? (char) c : '\ufffd')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether a raw name held in a buffer decodes to the same name as a raw name held in an array, when
+     * both are decoded the same way.
+     *
+     * @param b1 the buffer
+     * @param off1 the absolute offset of the first name
+     * @param len1 the length of the first name
+     * @param b2 the array
+     * @param off2 the offset of the second name
+     * @param len2 the length of the second name
+     * @param utf8 {@code true} if the UTF-8 general purpose flag is set
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b1, final int off1, final int len1, final byte[] b2, final int off2, final int len2, final boolean utf8) {
+        if (utf8) {
+            if (equals(b1, off1, len1, b2, off2, len2)) {
+                return true;
+            }
+            final ByteBuffer w2 = ByteBuffer.wrap(b2);
+            return (! isWellFormed(b1, off1, len1) || ! isWellFormed(w2, off2, len2)) && decode(b1, off1, len1, true).equals(decode(w2, off2, len2, true));
+        }
+        if (len1 != len2) {
+            return false;
+        }
+        for (int i = 0; i < len1; i ++) {
+            final byte c1 = b1.get(off1 + i);
+            final byte c2 = b2[off2 + i];
+            if (c1 != c2 && (c1 >= 0 || c2 >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether two raw names held in buffers decode to the same name.
+     *
+     * @param b1 the first buffer
+     * @param off1 the absolute offset of the first name
+     * @param len1 the length of the first name
+     * @param utf81 {@code true} if the first name has the UTF-8 general purpose flag set
+     * @param b2 the second buffer
+     * @param off2 the absolute offset of the second name
+     * @param len2 the length of the second name
+     * @param utf82 {@code true} if the second name has the UTF-8 general purpose flag set
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b1, final int off1, final int len1, final boolean utf81, final ByteBuffer b2, final int off2, final int len2, final boolean utf82) {
+        if (utf81 != utf82) {
+            // rare: decode the flagged one
+            return utf81 ? equals(b2, off2, len2, false, decode(b1, off1, len1, true)) : equals(b1, off1, len1, false, decode(b2, off2, len2, true));
+        }
+        if (utf81) {
+            if (equals(b1, off1, len1, b2, off2, len2)) {
+                return true;
+            }
+            return (! isWellFormed(b1, off1, len1) || ! isWellFormed(b2, off2, len2)) && decode(b1, off1, len1, true).equals(decode(b2, off2, len2, true));
+        }
+        if (len1 != len2) {
+            return false;
+        }
+        for (int i = 0; i < len1; i ++) {
+            final byte c1 = b1.get(off1 + i);
+            final byte c2 = b2.get(off2 + i);
+            if (c1 != c2 && (c1 >= 0 || c2 >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether a raw name held in a buffer is equal to a raw name held in an array.
+     *
+     * @param b1 the buffer
+     * @param off1 the absolute offset of the first name
+     * @param len1 the length of the first name
+     * @param b2 the array
+     * @param off2 the offset of the second name
+     * @param len2 the length of the second name
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b1, final int off1, final int len1, final byte[] b2, final int off2, final int len2) {
+        if (len1 != len2) {
+            return false;
+        }
+        for (int i = 0; i < len1; i ++) {
+            if (b1.get(off1 + i) != b2[off2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether two raw names held in buffers are equal.
+     *
+     * @param b1 the first buffer
+     * @param off1 the absolute offset of the first name
+     * @param len1 the length of the first name
+     * @param b2 the second buffer
+     * @param off2 the absolute offset of the second name
+     * @param len2 the length of the second name
+     * @return {@code true} if the names are equal
+     */
+    static boolean equals(final ByteBuffer b1, final int off1, final int len1, final ByteBuffer b2, final int off2, final int len2) {
+        if (len1 != len2) {
+            return false;
+        }
+        for (int i = 0; i < len1; i ++) {
+            if (b1.get(off1 + i) != b2.get(off2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether a raw name is well-formed UTF-8, that is, whether the UTF-8 decoder would decode it without
+     * replacing anything.  Overlong forms, surrogates and code points above {@code U+10FFFF} are malformed.
+     *
+     * @param b the buffer
+     * @param off the absolute offset of the name
+     * @param len the length of the name
+     * @return {@code true} if the name is well-formed
+     */
+    static boolean isWellFormed(final ByteBuffer b, final int off, final int len) {
+        final int end = off + len;
+        int p = off;
+        while (p < end) {
+            final int c = b.get(p) & 0xff;
+            if (c < 0x80) {
+                p ++;
+                continue;
+            }
+            final int n;
+            if (c >= 0xc2 && c <= 0xdf) {
+                n = 1;
+            } else if (c >= 0xe0 && c <= 0xef) {
+                n = 2;
+            } else if (c >= 0xf0 && c <= 0xf4) {
+                n = 3;
+            } else {
+                return false;
+            }
+            if (end - p <= n) {
+                return false;
+            }
+            final int c1 = b.get(p + 1) & 0xff;
+            if (c == 0xe0 && c1 < 0xa0 || c == 0xed && c1 > 0x9f || c == 0xf0 && c1 < 0x90 || c == 0xf4 && c1 > 0x8f) {
+                return false;
+            }
+            for (int i = 1; i <= n; i ++) {
+                if ((b.get(p + i) & 0xc0) != 0x80) {
+                    return false;
+                }
+            }
+            p += n + 1;
+        }
+        return true;
+    }
+
+    private static boolean hasReplacement(final CharSequence name) {
+        final int len = name.length();
+        for (int i = 0; i < len; i ++) {
+            if (name.charAt(i) == '\ufffd') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Spread a hash code for use as a table index.
+     *
+     * @param h the hash code
+     * @return the spread hash code
+     */
+    static int spread(final int h) {
+        return h ^ h >>> 16;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path within a zip file system.  Paths use {@code /} as their separator, and an absolute path names an entry
+ * of the archive (without the leading slash).
+ */
+final class ZipPath implements Path {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private final ZipFileSystem fileSystem;
+    // no repeated or trailing slashes, except for the root, which is "/"
+    private final String path;
+    private volatile String[] names;
+
+    ZipPath(final ZipFileSystem fileSystem, final String path) {
+        this.fileSystem = fileSystem;
+        this.path = clean(path);
+    }
+
+    private static String clean(final String path) {
+        final int len = path.length();
+        final StringBuilder b = new StringBuilder(len);
+        char prev = 0;
+        for (int i = 0; i < len; i ++) {
+            final char c = path.charAt(i);
+            if (c == 0) {
+                throw new IllegalArgumentException("Path contains a NUL character");
+            }
+            if (c != '/' || prev != '/') {
+                b.append(c);
+            }
+            prev = c;
+        }
+        final int blen = b.length();
+        if (blen > 1 && b.charAt(blen - 1) == '/') {
+            b.setLength(blen - 1);
+        }
+        return b.toString();
+    }
+
+    private String[] getNames() {
+        String[] names = this.names;
+        if (names == null) {
+            if (path.equals("/")) {
+                names = NO_NAMES;
+            } else if (path.isEmpty()) {
+                names = new String[] { "" };
+            } else {
+                names = (isAbsolute() ? path.substring(1) : path).split("/");
+            }
+            this.names = names;
+        }
+        return names;
+    }
+
+    private ZipPath fromNames(final boolean absolute, final String[] names, final int start, final int end) {
+        final StringBuilder b = new StringBuilder();
+        if (absolute) {
+            b.append('/');
+        }
+        for (int i = start; i < end; i ++) {
+            if (i > start) {
+                b.append('/');
+            }
+            b.append(names[i]);
+        }
+        return new ZipPath(fileSystem, b.toString());
+    }
+
+    /**
+     * Get the name of the archive entry which this path refers to, without any trailing slash.  The root directory
+     * is the empty name.
+     *
+     * @return the entry name
+     */
+    String getEntryName() {
+        final String path = toAbsolutePath().normalize().path;
+        return path.substring(1);
+    }
+
+    static ZipPath checkPath(final Path path) {
+        if (path == null) {
+            throw new NullPointerException("path is null");
+        }
+        if (! (path instanceof ZipPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (ZipPath) path;
+    }
+
+    public ZipFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    public Path getRoot() {
+        return isAbsolute() ? fileSystem.getRoot() : null;
+    }
+
+    public Path getFileName() {
+        final String[] names = getNames();
+        return names.length == 0 ? null : names.length == 1 && ! isAbsolute() ? this : new ZipPath(fileSystem, names[names.length - 1]);
+    }
+
+    public Path getParent() {
+        final String[] names = getNames();
+        if (names.length == 0 || names.length == 1 && ! isAbsolute()) {
+            return null;
+        }
+        return fromNames(isAbsolute(), names, 0, names.length - 1);
+    }
+
+    public int getNameCount() {
+        return getNames().length;
+    }
+
+    public Path getName(final int index) {
+        final String[] names = getNames();
+        if (index < 0 || index >= names.length) {
+            throw new IllegalArgumentException("Invalid name index " + index);
+        }
+        return new ZipPath(fileSystem, names[index]);
+    }
+
+    public Path subpath(final int beginIndex, final int endIndex) {
+        final String[] names = getNames();
+        if (beginIndex < 0 || beginIndex >= names.length || endIndex > names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("Invalid subpath range " + beginIndex + " to " + endIndex);
+        }
+        return fromNames(false, names, beginIndex, endIndex);
+    }
+
+    public boolean startsWith(final Path other) {
+        if (! (other instanceof ZipPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        final ZipPath zipPath = (ZipPath) other;
+        if (zipPath.isAbsolute() != isAbsolute() || zipPath.path.isEmpty() && ! path.isEmpty()) {
+            return false;
+        }
+        final String[] names = getNames();
+        final String[] otherNames = zipPath.getNames();
+        if (otherNames.length > names.length) {
+            return false;
+        }
+        for (int i = 0; i < otherNames.length; i ++) {
+            if (! otherNames[i].equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean startsWith(final String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    public boolean endsWith(final Path other) {
+        if (! (other instanceof ZipPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        final ZipPath zipPath = (ZipPath) other;
+        if (zipPath.isAbsolute()) {
+            return equals(zipPath);
+        }
+        if (zipPath.path.isEmpty()) {
+            return path.isEmpty();
+        }
+        final String[] names = getNames();
+        final String[] otherNames = zipPath.getNames();
+        final int offs = names.length - otherNames.length;
+        if (offs < 0) {
+            return false;
+        }
+        for (int i = 0; i < otherNames.length; i ++) {
+            if (! otherNames[i].equals(names[offs + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean endsWith(final String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    public ZipPath normalize() {
+        final String[] names = getNames();
+        final List<String> result = new ArrayList<String>(names.length);
+        boolean changed = false;
+        for (String name : names) {
+            if (name.equals(".")) {
+                changed = true;
+            } else if (name.equals("..")) {
+                final int size = result.size();
+                if (size > 0 && ! result.get(size - 1).equals("..")) {
+                    result.remove(size - 1);
+                    changed = true;
+                } else if (isAbsolute()) {
+                    // cannot go above the root
+                    changed = true;
+                } else {
+                    result.add(name);
+                }
+            } else {
+                result.add(name);
+            }
+        }
+        return changed ? fromNames(isAbsolute(), result.toArray(new String[result.size()]), 0, result.size()) : this;
+    }
+
+    public ZipPath resolve(final Path other) {
+        final ZipPath zipPath = checkPath(other);
+        if (zipPath.isAbsolute()) {
+            return zipPath;
+        }
+        if (zipPath.path.isEmpty()) {
+            return this;
+        }
+        if (path.isEmpty()) {
+            return zipPath;
+        }
+        return new ZipPath(fileSystem, path + "/" + zipPath.path);
+    }
+
+    public Path resolve(final String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    public Path resolveSibling(final Path other) {
+        checkPath(other);
+        final Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    public Path resolveSibling(final String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    public Path relativize(final Path other) {
+        final ZipPath zipPath = checkPath(other);
+        if (zipPath.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Cannot relativize an absolute path against a relative one");
+        }
+        if (equals(zipPath)) {
+            return new ZipPath(fileSystem, "");
+        }
+        final String[] names = path.isEmpty() ? NO_NAMES : getNames();
+        final String[] otherNames = zipPath.path.isEmpty() ? NO_NAMES : zipPath.getNames();
+        int common = 0;
+        while (common < names.length && common < otherNames.length && names[common].equals(otherNames[common])) {
+            common ++;
+        }
+        final List<String> result = new ArrayList<String>();
+        for (int i = common; i < names.length; i ++) {
+            result.add("..");
+        }
+        result.addAll(Arrays.asList(otherNames).subList(common, otherNames.length));
+        return fromNames(false, result.toArray(new String[result.size()]), 0, result.size());
+    }
+
+    public URI toUri() {
+        try {
+            // the archive URI is already encoded, so only the entry path is quoted
+            final String rawPath = new URI(null, null, toAbsolutePath().path, null).getRawPath();
+            return new URI(ZipFileSystemProvider.SCHEME + ":" + fileSystem.getArchivePath().toUri().toString() + "!" + rawPath);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ZipPath toAbsolutePath() {
+        return isAbsolute() ? this : fileSystem.getRoot().resolve(this);
+    }
+
+    public Path toRealPath(final LinkOption... options) throws IOException {
+        final ZipPath realPath = toAbsolutePath().normalize();
+        fileSystem.getAttributes(realPath);
+        return realPath;
+    }
+
+    public File toFile() {
+        throw new UnsupportedOperationException("Zip paths do not correspond to files");
+    }
+
+    public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>[] events, final WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Zip file systems cannot be watched");
+    }
+
+    public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("Zip file systems cannot be watched");
+    }
+
+    public Iterator<Path> iterator() {
+        final String[] names = getNames();
+        final List<Path> list = new ArrayList<Path>(names.length);
+        for (String name : names) {
+            list.add(new ZipPath(fileSystem, name));
+        }
+        return list.iterator();
+    }
+
+    public int compareTo(final Path other) {
+        return path.compareTo(checkPath(other).path);
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof ZipPath && equals((ZipPath) obj);
+    }
+
+    private boolean equals(final ZipPath other) {
+        return other != null && other.fileSystem == fileSystem && other.path.equals(path);
+    }
+
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+import static org.jboss.jzipfile.ZipCatalogBuilder.findExtra;
+import static org.jboss.jzipfile.ZipCatalogBuilder.getInt;
+import static org.jboss.jzipfile.ZipCatalogBuilder.getLong;
+import static org.jboss.jzipfile.ZipCatalogBuilder.getUnsignedShort;
+
+/**
+ * A forward-only reader for zip files, which reads the local file headers in order without using the central
+ * directory.  This allows archives to be processed from non-seekable sources such as pipes or network streams,
+ * while they are still arriving, in constant memory.
+ * <p>
+ * Entries whose sizes are deferred to a data descriptor (general purpose flag bit 3) are supported for stored
+ * and deflated entries; for stored entries, the data descriptor must carry its (optional) signature.  Until the data
+ * of such an entry has been read in full, its size and compressed size are reported as {@code -1} and its CRC-32 as
+ * {@code 0}.
+ * <p>
+ * Instances of this class are not safe for use by multiple threads.
+ */
+public final class ZipStreamReader implements Closeable {
+
+    private static final int LOCAL_SIG = 0x04034b50;
+    private static final int DESCRIPTOR_SIG = 0x08074b50;
+    private static final int CENTRAL_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int END_SIG = 0x06054b50;
+
+    private static final int GP_DESCRIPTOR = 1 << 3;
+
+    private final InputStream inputStream;
+    private final ZipVerification verification;
+    private final byte[] buf = new byte[16384];
+    private int pos;
+    private int lim;
+    private long bufOffset;
+    private byte[] skipBuffer;
+    private EntryData current;
+    private boolean done;
+    private boolean closed;
+
+    ZipStreamReader(final InputStream inputStream, final ZipVerification verification) {
+        this.inputStream = inputStream;
+        this.verification = verification;
+    }
+
+    /**
+     * Advance to the next entry in the stream.  Any unread data of the current entry is skipped.
+     *
+     * @return the next entry, or {@code null} if the end of the entries (that is, the central directory) was reached
+     * @throws IOException if an I/O error occurs
+     */
+    public ZipEntry nextEntry() throws IOException {
+        checkClosed();
+        final EntryData current = this.current;
+        if (current != null) {
+            this.current = null;
+            current.skipRemaining();
+        }
+        if (done) {
+            return null;
+        }
+        requireFully(4);
+        final int sig = getInt(buf, pos);
+        if (sig == CENTRAL_SIG || sig == ZIP64_END_SIG || sig == END_SIG) {
+            done = true;
+            return null;
+        }
+        if (sig != LOCAL_SIG) {
+            throw new ZipException(String.format("Unexpected signature 0x%08x at offset %d", Integer.valueOf(sig), Long.valueOf(bufOffset + pos)));
+        }
+        final long offset = bufOffset + pos;
+        requireFully(30);
+        final byte[] buf = this.buf;
+        final int pos = this.pos;
+        final int extVers = getUnsignedShort(buf, pos + 4);
+        if (extVers > 45) {
+            throw new ZipException("Entry requires a later version to extract");
+        }
+        final int gpBits = getUnsignedShort(buf, pos + 6);
+        final ZipCompressionMethod method = ZipCompressionMethod.getMethod(getUnsignedShort(buf, pos + 8));
+        final long modTime = Zip.getTimestamp(getUnsignedShort(buf, pos + 10), getUnsignedShort(buf, pos + 12));
+        int crc32 = getInt(buf, pos + 14);
+        long compSize = getInt(buf, pos + 18) & 0xffffffffL;
+        long uncompSize = getInt(buf, pos + 22) & 0xffffffffL;
+        final int fnameLen = getUnsignedShort(buf, pos + 26);
+        final int extraLen = getUnsignedShort(buf, pos + 28);
+        this.pos = pos + 30;
+        final byte[] fileNameBytes = new byte[fnameLen];
+        readFully(fileNameBytes);
+        final byte[] extraBytes = new byte[extraLen];
+        readFully(extraBytes);
+        // in the local header, the zip64 extended information holds both sizes
+        int zpos = findExtra(extraBytes, 0x0001);
+        final boolean zip64 = zpos != -1;
+        if (zip64) {
+            final int end = zpos + getUnsignedShort(extraBytes, zpos - 2);
+            if (uncompSize == 0xffffffffL && zpos + 8 <= end) {
+                uncompSize = getLong(extraBytes, zpos);
+                zpos += 8;
+            }
+            if (compSize == 0xffffffffL && zpos + 8 <= end) {
+                compSize = getLong(extraBytes, zpos);
+            }
+        }
+        final boolean descriptor = (gpBits & GP_DESCRIPTOR) != 0;
+        final String name = ZipNames.decode(fileNameBytes, 0, fnameLen, (gpBits & ZipNames.GP_UTF8) != 0);
+        if (descriptor) {
+            if (method != ZipCompressionMethod.STORE && method != ZipCompressionMethod.DEFLATE) {
+                throw new ZipException(String.format("Cannot find the end of zip entry \"%s\" (compression method %s with a data descriptor)", name, method));
+            }
+            crc32 = 0;
+            compSize = -1L;
+            uncompSize = -1L;
+        } else if (uncompSize < 0L || compSize < 0L) {
+            throw new ZipException("Invalid zip64 extended information for entry");
+        }
+        if (name.indexOf('/') == 0) {
+            throw new ZipException("Leading slash not allowed in file name \"" + name + "\"");
+        }
+        final ZipEntryType type;
+        if (uncompSize <= 0L && name.lastIndexOf('/') == name.length() - 1) {
+            type = ZipEntryType.DIRECTORY;
+        } else {
+            type = ZipEntryType.FILE;
+        }
+        final StreamEntry entry = new StreamEntry(name, offset, uncompSize, compSize, crc32, type, modTime, method, extraBytes);
+        this.current = new EntryData(entry, descriptor, zip64);
+        return entry;
+    }
+
+    /**
+     * Open the data of the current entry.  The returned stream reads the uncompressed data of the entry, verified
+     * according to the mode this reader was created with.  Closing it does not close this reader; any data which is
+     * not read is skipped when the next entry is read.
+     *
+     * @return an uncompressing input stream
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if there is no current entry, or its data was already opened
+     */
+    public InputStream getInputStream() throws IOException {
+        checkClosed();
+        final EntryData current = this.current;
+        if (current == null) {
+            throw new IllegalStateException("No current entry");
+        }
+        if (current.opened) {
+            throw new IllegalStateException("Entry data was already opened");
+        }
+        current.opened = true;
+        final StreamEntry entry = current.entry;
+        final ZipEntryType entryType = entry.getEntryType();
+        if (entryType != ZipEntryType.FILE) {
+            throw new ZipException("Attempt to open a zip entry '" + entry.getName() + "' with an unsupported type '" + entryType + "'");
+        }
+        final ZipCompressionMethod compressionMethod = entry.getCompressionMethod();
+        if (compressionMethod != ZipCompressionMethod.STORE && compressionMethod != ZipCompressionMethod.DEFLATE) {
+            throw new ZipException("Unsupported compression algorithm " + compressionMethod);
+        }
+        return Zip.verify(current, entry, verification);
+    }
+
+    /**
+     * Close this reader and the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        if (! closed) {
+            closed = true;
+            final EntryData current = this.current;
+            if (current != null) {
+                this.current = null;
+                current.release();
+            }
+            inputStream.close();
+        }
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Reader closed");
+        }
+    }
+
+    private void compact() {
+        final int pos = this.pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, lim - pos);
+            bufOffset += (long) pos;
+            lim -= pos;
+            this.pos = 0;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (lim == buf.length) {
+            compact();
+        }
+        final int cnt = inputStream.read(buf, lim, buf.length - lim);
+        if (cnt == -1) {
+            return false;
+        }
+        lim += cnt;
+        return true;
+    }
+
+    private boolean require(final int n) throws IOException {
+        if (buf.length - pos < n) {
+            compact();
+        }
+        while (lim - pos < n) {
+            if (! fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void requireFully(final int n) throws IOException {
+        if (! require(n)) {
+            throw new EOFException("Unexpected end of zip stream");
+        }
+    }
+
+    private void readFully(final byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (pos == lim && ! fill()) {
+                throw new EOFException("Unexpected end of zip stream");
+            }
+            final int cnt = min(lim - pos, b.length - off);
+            System.arraycopy(buf, pos, b, off, cnt);
+            pos += cnt;
+            off += cnt;
+        }
+    }
+
+    private static boolean isHeaderSignature(final int sig) {
+        return sig == LOCAL_SIG || sig == CENTRAL_SIG || sig == ZIP64_END_SIG || sig == END_SIG;
+    }
+
+    private final class EntryData extends InputStream {
+        private final StreamEntry entry;
+        private final boolean descriptor;
+        private final boolean zip64;
+        private long count;
+        private long compressedCount;
+        private InflaterPool.Item item;
+        private boolean opened;
+        private boolean closed;
+        private boolean finished;
+
+        EntryData(final StreamEntry entry, final boolean descriptor, final boolean zip64) {
+            this.entry = entry;
+            this.descriptor = descriptor;
+            this.zip64 = zip64;
+        }
+
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed || ZipStreamReader.this.closed || current != this) {
+                throw new IOException("Stream closed");
+            }
+            return doRead(b, off, len);
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] b = skipBuffer;
+            if (b == null) {
+                b = skipBuffer = new byte[8192];
+            }
+            while (doRead(b, 0, b.length) != -1) {
+                // discard
+            }
+        }
+
+        void release() {
+            final InflaterPool.Item item = this.item;
+            if (item != null) {
+                this.item = null;
+                InflaterPool.INSTANCE.release(item);
+            }
+        }
+
+        private int doRead(final byte[] b, final int off, final int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final int cnt;
+            if (entry.getCompressionMethod() == ZipCompressionMethod.DEFLATE) {
+                cnt = readDeflated(b, off, len);
+            } else if (descriptor) {
+                cnt = readStoredToDescriptor(b, off, len);
+            } else {
+                cnt = readStored(b, off, len);
+            }
+            if (cnt == -1) {
+                finish();
+            } else {
+                count += (long) cnt;
+            }
+            return cnt;
+        }
+
+        private int readStored(final byte[] b, final int off, final int len) throws IOException {
+            final long remaining = entry.getCompressedSize() - compressedCount;
+            if (remaining == 0L) {
+                return -1;
+            }
+            if (pos == lim && ! fill()) {
+                throw new EOFException("Unexpected end of zip stream");
+            }
+            final int cnt = (int) min(remaining, (long) min(len, lim - pos));
+            System.arraycopy(buf, pos, b, off, cnt);
+            pos += cnt;
+            compressedCount += (long) cnt;
+            return cnt;
+        }
+
+        private int readStoredToDescriptor(final byte[] b, final int off, final int len) throws IOException {
+            final byte[] buf = ZipStreamReader.this.buf;
+            for (;;) {
+                final int pos = ZipStreamReader.this.pos;
+                final int end = lim - 3;
+                int i = pos;
+                while (i < end) {
+                    if (buf[i] == 0x50 && buf[i + 1] == 0x4b && buf[i + 2] == 0x07 && buf[i + 3] == 0x08) {
+                        final int res = checkDescriptor(i);
+                        if (res > 0 && i == pos) {
+                            // the data ends here
+                            return -1;
+                        }
+                        if (res != 0) {
+                            break;
+                        }
+                    }
+                    i ++;
+                }
+                if (i > pos) {
+                    // everything before the next possible descriptor is entry data
+                    final int cnt = min(len, i - pos);
+                    System.arraycopy(buf, pos, b, off, cnt);
+                    ZipStreamReader.this.pos = pos + cnt;
+                    compressedCount += (long) cnt;
+                    return cnt;
+                }
+                if (! fill()) {
+                    throw new EOFException("Unexpected end of zip stream");
+                }
+            }
+        }
+
+        /**
+         * Check whether a data descriptor signature found in stored data really starts the data descriptor, by
+         * comparing its sizes with the data read so far and checking for a following header signature.
+         *
+         * @param i the buffer position of the signature
+         * @return 1 if the descriptor is valid, 0 if it is not, or -1 if more data must be read to decide
+         */
+        private int checkDescriptor(final int i) {
+            final byte[] buf = ZipStreamReader.this.buf;
+            final int length = zip64 ? 24 : 16;
+            if (lim - i < length + 4) {
+                return -1;
+            }
+            final long expected = compressedCount + (long) (i - pos);
+            final long compSize;
+            final long uncompSize;
+            if (zip64) {
+                compSize = getLong(buf, i + 8);
+                uncompSize = getLong(buf, i + 16);
+            } else {
+                compSize = getInt(buf, i + 8) & 0xffffffffL;
+                uncompSize = getInt(buf, i + 12) & 0xffffffffL;
+            }
+            return compSize == expected && uncompSize == expected && isHeaderSignature(getInt(buf, i + length)) ? 1 : 0;
+        }
+
+        private int readDeflated(final byte[] b, final int off, final int len) throws IOException {
+            InflaterPool.Item item = this.item;
+            if (item == null) {
+                item = this.item = InflaterPool.INSTANCE.acquire();
+            }
+            final Inflater inf = item.getInflater();
+            try {
+                for (;;) {
+                    final int cnt = inf.inflate(b, off, len);
+                    if (cnt > 0) {
+                        return cnt;
+                    }
+                    if (inf.finished()) {
+                        // hand back the input which follows the deflate stream
+                        pos = lim - inf.getRemaining();
+                        compressedCount = inf.getBytesRead();
+                        release();
+                        return -1;
+                    }
+                    if (inf.needsDictionary()) {
+                        throw new ZipException("Deflate stream requires a preset dictionary");
+                    }
+                    if (inf.needsInput()) {
+                        if (pos == lim && ! fill()) {
+                            throw new EOFException("Unexpected end of zip stream");
+                        }
+                        inf.setInput(buf, pos, lim - pos);
+                        pos = lim;
+                    }
+                }
+            } catch (DataFormatException e) {
+                final String msg = e.getMessage();
+                throw new ZipException(msg == null ? "Invalid deflate stream" : msg);
+            }
+        }
+
+        private void finish() throws IOException {
+            finished = true;
+            final StreamEntry entry = this.entry;
+            if (descriptor) {
+                requireFully(4);
+                if (getInt(buf, pos) == DESCRIPTOR_SIG) {
+                    pos += 4;
+                }
+                final boolean large = zip64 || compressedCount >= 0xffffffffL || count >= 0xffffffffL;
+                requireFully(large ? 20 : 12);
+                entry.crc32 = getInt(buf, pos);
+                if (large) {
+                    entry.compressedSize = getLong(buf, pos + 4);
+                    entry.size = getLong(buf, pos + 12);
+                    pos += 20;
+                } else {
+                    entry.compressedSize = getInt(buf, pos + 4) & 0xffffffffL;
+                    entry.size = getInt(buf, pos + 8) & 0xffffffffL;
+                    pos += 12;
+                }
+            }
+            if (compressedCount != entry.compressedSize) {
+                throw new ZipException(String.format("Compressed size of zip entry \"%s\" does not match (expected %d, got %d)", entry.getName(), Long.valueOf(entry.compressedSize), Long.valueOf(compressedCount)));
+            }
+            final ZipCompressionMethod method = entry.getCompressionMethod();
+            if ((method == ZipCompressionMethod.STORE || method == ZipCompressionMethod.DEFLATE) && count != entry.size) {
+                throw new ZipException(String.format("Size of zip entry \"%s\" does not match (expected %d, got %d)", entry.getName(), Long.valueOf(entry.size), Long.valueOf(count)));
+            }
+        }
+    }
+
+    private static final class StreamEntry implements ZipEntry {
+        private final String name;
+        private final long offset;
+        private final ZipEntryType entryType;
+        private final long modificationTime;
+        private final ZipCompressionMethod compressionMethod;
+        private final byte[] rawExtraData;
+        private long size;
+        private long compressedSize;
+        private int crc32;
+
+        StreamEntry(final String name, final long offset, final long size, final long compressedSize, final int crc32, final ZipEntryType entryType, final long modificationTime, final ZipCompressionMethod compressionMethod, final byte[] rawExtraData) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.crc32 = crc32;
+            this.entryType = entryType;
+            this.modificationTime = modificationTime;
+            this.compressionMethod = compressionMethod;
+            this.rawExtraData = rawExtraData;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getComment() {
+            return "";
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public int getCrc32() {
+            return crc32;
+        }
+
+        public ZipEntryType getEntryType() {
+            return entryType;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        public ZipCompressionMethod getCompressionMethod() {
+            return compressionMethod;
+        }
+
+        public byte[] getRawExtraData() {
+            return rawExtraData;
+        }
+
+        public String toString() {
+            return String.format("Zip Entry: name=\"%s\", compressed size=%d, uncompressed size=%d, offset=%d, type=%s, method=%s, crc32=0x%08x", name, Long.valueOf(compressedSize), Long.valueOf(size), Long.valueOf(offset), entryType, compressionMethod, Integer.valueOf(crc32));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+/**
+ * Possible CRC-32 verification modes for entry data.
+ */
+public enum ZipVerification {
+    /**
+     * Do not verify entry data.
+     */
+    NONE,
+    /**
+     * Verify entry data as it is read; the read which reaches the end of the entry throws an exception if the
+     * checksum or size does not match.  Data which has already been delivered cannot be recalled, so the caller must
+     * read to the end of the stream before trusting what was read.
+     */
+    STREAMING,
+    /**
+     * Read and verify the whole entry before any data is delivered.  The entry is held in memory, so this mode is
+     * suited to small entries.
+     */
+    BEFORE_DELIVERY
+}
@@ -0,0 +1,673 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.jzipfile;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+import static java.lang.Math.min;
+
+/**
+ * A zip file writer which compresses entries in parallel.  The data of each deflated entry is split into blocks
+ * which are compressed independently on an executor, each primed with the last 32 KB of the block before it as its
+ * dictionary, and written out in order; the result is an ordinary zip file.  Zip64 records are written automatically
+ * when the output requires them.
+ * <p>
+ * Entry sizes and CRCs are written in data descriptors, so the output stream need not be seekable; the local header
+ * of such an entry carries an empty zip64 extra field, so that its descriptor always holds 8-byte sizes.  Stored
+ * entries no larger than the block size are buffered and written with their sizes in the local header instead, since
+ * some readers cannot find the end of stored data otherwise.  Instances of this class are not safe for use by
+ * multiple threads.
+ */
+public final class ZipWriter implements Closeable {
+
+    private static final int DICTIONARY_SIZE = 32768;
+    private static final int GP_DESCRIPTOR = 1 << 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream outputStream;
+    private final Executor executor;
+    private final int maxPending;
+    private final ArrayDeque<Chunk> pending = new ArrayDeque<Chunk>();
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final List<Record> records = new ArrayList<Record>();
+    private final Set<String> names = new HashSet<String>();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int blockSize = 131072;
+    private long written;
+    private EntryStream current;
+    private ZipCatalog catalog;
+    private boolean closed;
+
+    /**
+     * Construct a new instance which compresses on the calling thread.
+     *
+     * @param outputStream the output stream to write the zip file to
+     */
+    public ZipWriter(final OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    /**
+     * Construct a new instance which compresses on the given executor.
+     *
+     * @param outputStream the output stream to write the zip file to
+     * @param executor the executor to compress with, or {@code null} to compress on the calling thread
+     */
+    public ZipWriter(final OutputStream outputStream, final Executor executor) {
+        this.outputStream = new BufferedOutputStream(outputStream, 8192);
+        this.executor = executor;
+        maxPending = executor == null ? 1 : Runtime.getRuntime().availableProcessors() * 4;
+    }
+
+    /**
+     * Set the compression level for subsequently written data.
+     *
+     * @param level the compression level, from 0 to 9, or -1 for the default
+     */
+    public void setLevel(final int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Set the size of the blocks which deflated data is split into for compression.  Smaller blocks allow more
+     * parallelism within an entry, at some cost in compression ratio.
+     *
+     * @param blockSize the block size, at least 32768 bytes
+     */
+    public void setBlockSize(final int blockSize) {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Start a new deflated entry, modified at the current time.  Any entry still open is closed first.
+     *
+     * @param name the entry name
+     * @return the stream to write the entry data to
+     * @throws IOException if an I/O error occurs
+     */
+    public OutputStream openEntry(String name) throws IOException {
+        return openEntry(name, ZipCompressionMethod.DEFLATE, System.currentTimeMillis());
+    }
+
+    /**
+     * Start a new entry.  Any entry still open is closed first.  Closing the returned stream ends the entry, but does
+     * not close this writer.
+     *
+     * @param name the entry name
+     * @param compressionMethod the compression method, which must be {@code STORE} or {@code DEFLATE}
+     * @param modificationTime the modification time of the entry
+     * @return the stream to write the entry data to
+     * @throws IOException if an I/O error occurs
+     */
+    public OutputStream openEntry(String name, ZipCompressionMethod compressionMethod, long modificationTime) throws IOException {
+        if (compressionMethod != ZipCompressionMethod.STORE && compressionMethod != ZipCompressionMethod.DEFLATE) {
+            throw new IllegalArgumentException("Unsupported compression method " + compressionMethod);
+        }
+        final Record record = startEntry(name, ZipEntryType.FILE, compressionMethod, modificationTime);
+        if (compressionMethod == ZipCompressionMethod.DEFLATE) {
+            enqueue(new HeaderChunk(record));
+        }
+        return current = new EntryStream(record);
+    }
+
+    /**
+     * Add a directory entry.  Any entry still open is closed first.
+     *
+     * @param name the directory name; a trailing {@code /} is added if missing
+     * @param modificationTime the modification time of the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void addDirectory(String name, long modificationTime) throws IOException {
+        enqueue(new HeaderChunk(startEntry(name.endsWith("/") ? name : name + "/", ZipEntryType.DIRECTORY, ZipCompressionMethod.STORE, modificationTime)));
+    }
+
+    /**
+     * Finish writing the zip file, by waiting for all outstanding compression and writing the central directory.
+     * The underlying stream is flushed but not closed.
+     *
+     * @return the catalog of the written zip file
+     * @throws IOException if an I/O error occurs
+     */
+    public ZipCatalog finish() throws IOException {
+        checkClosed();
+        if (catalog != null) {
+            return catalog;
+        }
+        final EntryStream current = this.current;
+        if (current != null) {
+            current.close();
+        }
+        drain(true);
+        final long dirOffset = written;
+        final ZipCatalogBuilder builder = new ZipCatalogBuilder();
+        for (Record record : records) {
+            builder.addEntry(writeCentralHeader(record), record.nameBytes, (record.gpBits & ZipNames.GP_UTF8) != 0);
+        }
+        final long dirSize = written - dirOffset;
+        final int count = records.size();
+        if (count >= 0xffff || dirOffset >= 0xffffffffL || dirSize >= 0xffffffffL) {
+            final long zip64EndOffset = written;
+            // zip64 end of central directory record
+            writeInt(0x06064b50);
+            writeLong(44L);
+            writeShort(45); // version made by
+            writeShort(45); // version needed
+            writeInt(0); // disk #
+            writeInt(0); // central dir disk #
+            writeLong(count);
+            writeLong(count);
+            writeLong(dirSize);
+            writeLong(dirOffset);
+            // zip64 end of central directory locator
+            writeInt(0x07064b50);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(0x06054b50);
+        writeShort(0); // disk #
+        writeShort(0); // central dir disk #
+        writeShort(min(count, 0xffff));
+        writeShort(min(count, 0xffff));
+        writeInt((int) min(dirSize, 0xffffffffL));
+        writeInt((int) min(dirOffset, 0xffffffffL));
+        writeShort(0); // comment length
+        outputStream.flush();
+        return catalog = builder.getZipCatalog();
+    }
+
+    /**
+     * Finish writing the zip file if that has not yet been done, and close the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        if (! closed) {
+            try {
+                finish();
+                outputStream.close();
+            } finally {
+                closed = true;
+                Zip.safeClose(outputStream);
+                Deflater deflater;
+                while ((deflater = deflaters.poll()) != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private Record startEntry(final String name, final ZipEntryType entryType, final ZipCompressionMethod compressionMethod, final long modificationTime) throws IOException {
+        checkClosed();
+        if (catalog != null) {
+            throw new IOException("Writer finished");
+        }
+        if (name.length() == 0 || name.indexOf('/') == 0) {
+            throw new IllegalArgumentException("Invalid entry name \"" + name + "\"");
+        }
+        final EntryStream current = this.current;
+        if (current != null) {
+            current.close();
+        }
+        if (! names.add(name)) {
+            throw new ZipException("Duplicate zip entry \"" + name + "\"");
+        }
+        final Record record = new Record(name, entryType, compressionMethod, Zip.getDosTime(modificationTime));
+        records.add(record);
+        return record;
+    }
+
+    private void enqueue(final Chunk chunk) throws IOException {
+        pending.add(chunk);
+        drain(false);
+    }
+
+    private void drain(final boolean all) throws IOException {
+        final ArrayDeque<Chunk> pending = this.pending;
+        Chunk chunk;
+        while ((chunk = pending.peek()) != null) {
+            if (! all && ! chunk.isDone() && pending.size() <= maxPending) {
+                return;
+            }
+            pending.remove();
+            chunk.write();
+        }
+    }
+
+    private void write(final byte[] b, final int off, final int len) throws IOException {
+        outputStream.write(b, off, len);
+        written += (long) len;
+    }
+
+    private void writeShort(final int v) throws IOException {
+        final OutputStream os = outputStream;
+        os.write(v);
+        os.write(v >> 8);
+        written += 2L;
+    }
+
+    private void writeInt(final int v) throws IOException {
+        writeShort(v);
+        writeShort(v >> 16);
+    }
+
+    private void writeLong(final long v) throws IOException {
+        writeInt((int) v);
+        writeInt((int) (v >> 32));
+    }
+
+    private void writeLocalHeader(final Record record) throws IOException {
+        record.offset = written;
+        final boolean descriptor = (record.gpBits & GP_DESCRIPTOR) != 0;
+        writeInt(0x04034b50);
+        writeShort(descriptor ? 45 : 20); // version needed
+        writeShort(record.gpBits);
+        writeShort(record.compressionMethod == ZipCompressionMethod.DEFLATE ? 8 : 0);
+        writeInt(record.dosTime);
+        if (descriptor) {
+            writeInt(0); // crc32 and sizes are deferred to the data descriptor
+            writeInt(0);
+            writeInt(0);
+        } else {
+            writeInt(record.crc32);
+            writeInt((int) record.size);
+            writeInt((int) record.size);
+        }
+        writeShort(record.nameBytes.length);
+        writeShort(descriptor ? 20 : 0); // extra length
+        write(record.nameBytes, 0, record.nameBytes.length);
+        if (descriptor) {
+            // the sizes are not known yet, so declare zip64 sizes for the data descriptor up front
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(0L);
+            writeLong(0L);
+        }
+    }
+
+    private void writeDescriptor(final Record record) throws IOException {
+        // the local header of every entry with a descriptor carries a zip64 extra, so the sizes are always 8 bytes
+        writeInt(0x08074b50);
+        writeInt(record.crc32);
+        writeLong(record.compressedSize);
+        writeLong(record.size);
+    }
+
+    private ZipEntry writeCentralHeader(final Record record) throws IOException {
+        final boolean largeSize = record.size >= 0xffffffffL;
+        final boolean largeCompressedSize = record.compressedSize >= 0xffffffffL;
+        final boolean largeOffset = record.offset >= 0xffffffffL;
+        final int zip64Len = (largeSize ? 8 : 0) + (largeCompressedSize ? 8 : 0) + (largeOffset ? 8 : 0);
+        final byte[] extra = new byte[zip64Len == 0 ? 0 : zip64Len + 4];
+        if (zip64Len != 0) {
+            int pos = 0;
+            pos = putShort(extra, pos, 0x0001);
+            pos = putShort(extra, pos, zip64Len);
+            if (largeSize) {
+                pos = putLong(extra, pos, record.size);
+            }
+            if (largeCompressedSize) {
+                pos = putLong(extra, pos, record.compressedSize);
+            }
+            if (largeOffset) {
+                putLong(extra, pos, record.offset);
+            }
+        }
+        final int version = zip64Len == 0 && (record.gpBits & GP_DESCRIPTOR) == 0 ? 20 : 45;
+        writeInt(0x02014b50);
+        writeShort(version); // version made by
+        writeShort(version); // version needed
+        writeShort(record.gpBits);
+        writeShort(record.compressionMethod == ZipCompressionMethod.DEFLATE ? 8 : 0);
+        writeInt(record.dosTime);
+        writeInt(record.crc32);
+        writeInt((int) min(record.compressedSize, 0xffffffffL));
+        writeInt((int) min(record.size, 0xffffffffL));
+        writeShort(record.nameBytes.length);
+        writeShort(extra.length);
+        writeShort(0); // comment length
+        writeShort(0); // disk # start
+        writeShort(0); // internal attr
+        writeInt(record.entryType == ZipEntryType.DIRECTORY ? 0x10 : 0); // external attr
+        writeInt((int) min(record.offset, 0xffffffffL));
+        write(record.nameBytes, 0, record.nameBytes.length);
+        write(extra, 0, extra.length);
+        final long modificationTime = Zip.getTimestamp(record.dosTime & 0xffff, record.dosTime >>> 16);
+        return new ZipEntryImpl(record.name, "", record.offset, record.size, record.compressedSize, record.crc32, record.entryType, modificationTime, record.compressionMethod, extra);
+    }
+
+    private static int putShort(final byte[] b, final int off, final int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+        return off + 2;
+    }
+
+    private static int putLong(final byte[] b, int off, final long v) {
+        for (int i = 0; i < 8; i ++) {
+            b[off ++] = (byte) (v >> (i << 3));
+        }
+        return off;
+    }
+
+    private Deflater getDeflater(final int level) {
+        final Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    private static final class Record {
+        private final String name;
+        private final byte[] nameBytes;
+        private final ZipEntryType entryType;
+        private final ZipCompressionMethod compressionMethod;
+        private final int dosTime;
+        private long offset;
+        private long size;
+        private long compressedSize;
+        private int crc32;
+        private int gpBits;
+
+        Record(final String name, final ZipEntryType entryType, final ZipCompressionMethod compressionMethod, final int dosTime) {
+            this.name = name;
+            this.entryType = entryType;
+            this.compressionMethod = compressionMethod;
+            this.dosTime = dosTime;
+            nameBytes = name.getBytes(UTF_8);
+            gpBits = nameBytes.length == name.length() ? 0 : ZipNames.GP_UTF8;
+            if (entryType == ZipEntryType.FILE) {
+                gpBits |= GP_DESCRIPTOR;
+            }
+        }
+    }
+
+    private abstract static class Chunk {
+        boolean isDone() {
+            return true;
+        }
+
+        abstract void write() throws IOException;
+    }
+
+    private final class HeaderChunk extends Chunk {
+        private final Record record;
+
+        HeaderChunk(final Record record) {
+            this.record = record;
+        }
+
+        void write() throws IOException {
+            writeLocalHeader(record);
+        }
+    }
+
+    private final class DescriptorChunk extends Chunk {
+        private final Record record;
+
+        DescriptorChunk(final Record record) {
+            this.record = record;
+        }
+
+        void write() throws IOException {
+            writeDescriptor(record);
+        }
+    }
+
+    private final class StoredChunk extends Chunk {
+        private final Record record;
+        private final byte[] data;
+        private final int len;
+
+        StoredChunk(final Record record, final byte[] data, final int len) {
+            this.record = record;
+            this.data = data;
+            this.len = len;
+        }
+
+        void write() throws IOException {
+            ZipWriter.this.write(data, 0, len);
+            record.compressedSize += (long) len;
+        }
+    }
+
+    private final class DeflatedChunk extends Chunk implements Runnable {
+        private final Record record;
+        private final byte[] input;
+        private final int inputLen;
+        private final byte[] dictionary;
+        private final int dictionaryLen;
+        private final boolean last;
+        private final int level;
+        private final FutureTask<Void> task = new FutureTask<Void>(this, null);
+        private byte[] output;
+        private int outputLen;
+
+        DeflatedChunk(final Record record, final byte[] input, final int inputLen, final byte[] dictionary, final int dictionaryLen, final boolean last, final int level) {
+            this.record = record;
+            this.input = input;
+            this.inputLen = inputLen;
+            this.dictionary = dictionary;
+            this.dictionaryLen = dictionaryLen;
+            this.last = last;
+            this.level = level;
+        }
+
+        public void run() {
+            final Deflater deflater = getDeflater(level);
+            try {
+                if (dictionary != null) {
+                    // prime with the end of the previous block, so matches can reach back across the boundary
+                    final int len = min(DICTIONARY_SIZE, dictionaryLen);
+                    deflater.setDictionary(dictionary, dictionaryLen - len, len);
+                }
+                final int inputLen = this.inputLen;
+                deflater.setInput(input, 0, inputLen);
+                byte[] output = new byte[inputLen + (inputLen >> 3) + 64];
+                int outputLen = 0;
+                if (last) {
+                    deflater.finish();
+                    while (! deflater.finished()) {
+                        if (outputLen == output.length) {
+                            output = grow(output);
+                        }
+                        outputLen += deflater.deflate(output, outputLen, output.length - outputLen);
+                    }
+                } else {
+                    // end on a byte boundary without ending the deflate stream, so the next block can follow on;
+                    // a pooled deflater whose level was changed may return no output (and consume no input) on
+                    // its first call, so the flush is only complete once all input is taken and there is room left
+                    for (;;) {
+                        outputLen += deflater.deflate(output, outputLen, output.length - outputLen, Deflater.SYNC_FLUSH);
+                        if (outputLen < output.length && deflater.needsInput()) {
+                            break;
+                        }
+                        if (outputLen == output.length) {
+                            output = grow(output);
+                        }
+                    }
+                }
+                this.output = output;
+                this.outputLen = outputLen;
+            } finally {
+                deflater.reset();
+                deflaters.add(deflater);
+            }
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        void write() throws IOException {
+            boolean intr = false;
+            try {
+                for (;;) try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    intr = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException("Compression failed", cause);
+                }
+            } finally {
+                if (intr) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            ZipWriter.this.write(output, 0, outputLen);
+            record.compressedSize += (long) outputLen;
+            output = null;
+        }
+
+        void execute() {
+            final Executor executor = ZipWriter.this.executor;
+            if (executor == null) {
+                task.run();
+            } else try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    private static byte[] grow(final byte[] array) {
+        final byte[] newArray = new byte[array.length << 1];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private final class EntryStream extends OutputStream {
+        private final Record record;
+        private final CRC32 crc = new CRC32();
+        private byte[] buf = new byte[blockSize];
+        private int pos;
+        private byte[] previous;
+        private int previousLen;
+        private long size;
+        private boolean headerQueued;
+        private boolean closed;
+
+        EntryStream(final Record record) {
+            this.record = record;
+        }
+
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(final byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Entry closed");
+            }
+            crc.update(b, off, len);
+            size += (long) len;
+            while (len > 0) {
+                if (pos == buf.length) {
+                    flushBlock(false);
+                }
+                final int cnt = min(len, buf.length - pos);
+                System.arraycopy(b, off, buf, pos, cnt);
+                pos += cnt;
+                off += cnt;
+                len -= cnt;
+            }
+        }
+
+        public void close() throws IOException {
+            if (! closed) {
+                closed = true;
+                current = null;
+                final Record record = this.record;
+                record.crc32 = (int) crc.getValue();
+                record.size = size;
+                flushBlock(true);
+                if ((record.gpBits & GP_DESCRIPTOR) != 0) {
+                    enqueue(new DescriptorChunk(record));
+                }
+            }
+        }
+
+        private void flushBlock(final boolean last) throws IOException {
+            final byte[] buf = this.buf;
+            final int pos = this.pos;
+            if (record.compressionMethod == ZipCompressionMethod.STORE) {
+                if (! headerQueued) {
+                    headerQueued = true;
+                    if (last) {
+                        // the whole entry is at hand, so its sizes can go in the local header
+                        record.gpBits &= ~GP_DESCRIPTOR;
+                    }
+                    enqueue(new HeaderChunk(record));
+                }
+                if (pos > 0) {
+                    enqueue(new StoredChunk(record, buf, pos));
+                }
+            } else {
+                final DeflatedChunk chunk = new DeflatedChunk(record, buf, pos, previous, previousLen, last, level);
+                chunk.execute();
+                enqueue(chunk);
+                previous = buf;
+                previousLen = pos;
+            }
+            this.buf = last ? null : new byte[buf.length];
+            this.pos = 0;
+        }
+    }
+}
@@ -31,6 +31,10 @@ public final class FullExtractor {
     }
 
     public static void main(String[] args) throws IOException {
-        Zip.extract(new File(args[0]), new File(args[1]));
+        if (args.length > 2) {
+            System.out.println(Zip.extract(new File(args[0]), new File(args[1]), Integer.parseInt(args[2])));
+        } else {
+            Zip.extract(new File(args[0]), new File(args[1]));
+        }
     }
 }
@@ -25,10 +25,45 @@ package org.jboss.jzipfile;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.GregorianCalendar;
 import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
 
+import static java.lang.Math.min;
 import static org.testng.AssertJUnit.*;
 import org.testng.annotations.Test;
 
@@ -55,6 +90,15 @@ public final class SimpleZipFilesTests {
         testZipFile(file, new GregorianCalendar(2009, Calendar.JUNE, 12, 19, 24, 16).getTimeInMillis());
     }
 
+    public void testZip64() throws IOException {
+        final File file = testFile("single-zip64.zip");
+        testZipFile(file, new GregorianCalendar(2009, Calendar.JUNE, 12, 19, 24, 16).getTimeInMillis());
+        final ZipEntry entry = Zip.readCatalog(file).allEntries().iterator().next();
+        assertEquals("Wrong size from zip64 extra field", 2856L, entry.getSize());
+        assertEquals("Wrong compressed size from zip64 extra field", 1115L, entry.getCompressedSize());
+        assertEquals("Wrong entry contents size", 2856, readAll(Zip.openEntry(file, entry)).length);
+    }
+
     protected void testZipFile(File file, long expectedModTime) throws IOException {
         final ZipCatalog catalog = Zip.readCatalog(file);
         final Iterator<ZipEntry> i = catalog.allEntries().iterator();
@@ -72,4 +116,1328 @@ public final class SimpleZipFilesTests {
         inputStream.read(new byte[64]);
         inputStream.close();
     }
+
+    public void testVerification() throws IOException {
+        final File file = testFile("single-deflated.zip");
+        final ZipEntry entry = Zip.readCatalog(file).allEntries().iterator().next();
+        for (ZipVerification verification : ZipVerification.values()) {
+            assertEquals("Wrong entry contents size", 2856, readAll(Zip.openEntry(file, entry, verification)).length);
+        }
+        // corrupt one byte of stored data
+        final File corrupt = File.createTempFile("jzipfile", ".zip");
+        try {
+            final byte[] bytes = readAll(new FileInputStream(testFile("single-stored.zip")));
+            bytes[100] ^= 0x20;
+            final FileOutputStream os = new FileOutputStream(corrupt);
+            try {
+                os.write(bytes);
+            } finally {
+                os.close();
+            }
+            final ZipEntry corruptEntry = Zip.readCatalog(corrupt).allEntries().iterator().next();
+            assertEquals("Unverified read should succeed", 2856, readAll(Zip.openEntry(corrupt, corruptEntry)).length);
+            try {
+                readAll(Zip.openEntry(corrupt, corruptEntry, ZipVerification.STREAMING));
+                fail("Expected CRC mismatch");
+            } catch (ZipException expected) {
+            }
+            try {
+                Zip.openEntry(corrupt, corruptEntry, ZipVerification.BEFORE_DELIVERY);
+                fail("Expected CRC mismatch");
+            } catch (ZipException expected) {
+            }
+        } finally {
+            corrupt.delete();
+        }
+    }
+
+    public void testCompact() throws IOException {
+        for (String name : new String[] { "empty.zip", "single-stored.zip", "single-deflated.zip", "single-zip64.zip" }) {
+            final ZipCatalog expected = Zip.readCatalog(testFile(name));
+            final ZipCatalog actual = Zip.readCompactCatalog(testFile(name));
+            assertEquals("Entry count differs", expected.allEntries().size(), actual.allEntries().size());
+            final Iterator<ZipEntry> i = actual.allEntries().iterator();
+            for (ZipEntry entry : expected.allEntries()) {
+                assertEquals("Entries differ", entry.toString(), i.next().toString());
+            }
+            assertEquals("Names differ", expected.indexedByName().keySet(), actual.indexedByName().keySet());
+        }
+        // names without the UTF-8 flag decode as US-ASCII, so both of these are "caf\ufffd.txt"
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File indexFile = File.createTempFile("jzipfile", ".idx");
+        try {
+            final java.util.zip.ZipOutputStream zos = new java.util.zip.ZipOutputStream(new FileOutputStream(file), Charset.forName("ISO-8859-1"));
+            try {
+                for (String name : new String[] { "caf\u00e9.txt", "caf\u00e8.txt", "plain.txt" }) {
+                    zos.putNextEntry(new java.util.zip.ZipEntry(name));
+                    zos.write(name.getBytes("ISO-8859-1"));
+                    zos.closeEntry();
+                }
+            } finally {
+                zos.close();
+            }
+            indexFile.delete();
+            final String decoded = "caf\ufffd.txt";
+            for (ZipCatalog catalog : new ZipCatalog[] { Zip.readCatalog(file), Zip.readCompactCatalog(file), Zip.readIndexedCatalog(file, indexFile), Zip.openCatalogIndex(file, indexFile) }) {
+                assertEquals("Wrong names", Arrays.asList(decoded, "plain.txt"), new ArrayList<String>(catalog.indexedByName().keySet()));
+                for (String name : catalog.indexedByName().keySet()) {
+                    assertTrue("Name not contained", catalog.indexedByName().containsKey(name));
+                    assertEquals("Wrong entry", name, catalog.indexedByName().get(name).getName());
+                    assertEquals("Wrong entry", name, catalog.getEntry(new StringBuilder(name)).getName());
+                }
+                final ZipEntry entry = catalog.getEntry(decoded);
+                assertEquals("Wrong contents", "caf\u00e9.txt", new String(readAll(Zip.openEntry(file, entry)), "ISO-8859-1"));
+                for (String name : new String[] { "caf\u00e9.txt", "caf\u00e8.txt" }) {
+                    final byte[] raw = name.getBytes("ISO-8859-1");
+                    final ZipEntry rawEntry = catalog.getEntry(raw, 0, raw.length);
+                    assertNotNull("Lookup by bytes failed", rawEntry);
+                    assertEquals("Wrong entry", entry.getOffset(), rawEntry.getOffset());
+                }
+                assertNull("Unexpected entry", catalog.getEntry("caf\u00e9.txt"));
+            }
+        } finally {
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    public void testUtf8Names() throws IOException {
+        final File file = testFile("utf8-names.zip");
+        final String stored = "caf\u00e9/men\u00fc.txt";
+        final String deflated = "\u65e5\u672c/\ud83d\ude00.txt";
+        for (ZipCatalog catalog : new ZipCatalog[] { Zip.readCatalog(file), Zip.readCompactCatalog(file) }) {
+            assertEquals("Wrong names", Arrays.asList("caf\u00e9/", stored, deflated), new ArrayList<String>(catalog.indexedByName().keySet()));
+            assertEquals("Wrong entry type", ZipEntryType.DIRECTORY, catalog.getEntry("caf\u00e9/").getEntryType());
+            final ZipEntry entry = catalog.getEntry(new StringBuilder(stored));
+            assertNotNull("Lookup by CharSequence failed", entry);
+            assertEquals("Wrong contents", "stored", new String(readAll(Zip.openEntry(file, entry)), "UTF-8"));
+            final byte[] raw = ("x" + deflated).getBytes("UTF-8");
+            final ZipEntry entry2 = catalog.getEntry(raw, 1, raw.length - 1);
+            assertNotNull("Lookup by bytes failed", entry2);
+            assertEquals("Wrong name", deflated, entry2.getName());
+            assertEquals("Wrong contents", "deflated deflated deflated", new String(readAll(Zip.openEntry(file, entry2)), "UTF-8"));
+            assertNull("Unexpected entry", catalog.getEntry("caf\u00e9"));
+        }
+    }
+
+    public void testMalformedUtf8Names() throws IOException {
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File indexFile = File.createTempFile("jzipfile", ".idx");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                for (String name : new String[] { "caf\u00e9x.txt", "plain.txt" }) {
+                    final OutputStream os = writer.openEntry(name, ZipCompressionMethod.STORE, 0L);
+                    os.write("stored".getBytes("UTF-8"));
+                    os.close();
+                }
+            } finally {
+                writer.close();
+            }
+            // turn the flagged name into malformed UTF-8 (a stray 0xe9) in both headers
+            final byte[] zip = readAll(new FileInputStream(file));
+            final byte[] good = "caf\u00e9x".getBytes("UTF-8");
+            int patched = 0;
+            for (int i = 0; i + good.length <= zip.length; i ++) {
+                if (Arrays.equals(good, Arrays.copyOfRange(zip, i, i + good.length))) {
+                    zip[i + 3] = (byte) 0xe9;
+                    patched ++;
+                }
+            }
+            assertEquals("Name not patched", 2, patched);
+            final FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(zip);
+            } finally {
+                fos.close();
+            }
+            indexFile.delete();
+            for (ZipCatalog catalog : new ZipCatalog[] { Zip.readCatalog(file), Zip.readCompactCatalog(file), Zip.readIndexedCatalog(file, indexFile), Zip.openCatalogIndex(file, indexFile) }) {
+                assertEquals("Wrong name count", 2, catalog.indexedByName().size());
+                for (ZipEntry entry : catalog.allEntries()) {
+                    final String name = entry.getName();
+                    assertNotNull("Lookup by name failed: " + name, catalog.getEntry(name));
+                    assertEquals("Wrong entry", entry.getOffset(), catalog.getEntry(new StringBuilder(name)).getOffset());
+                    assertTrue("Name not contained: " + name, catalog.indexedByName().containsKey(name));
+                    assertEquals("Wrong entry", entry.getOffset(), catalog.indexedByName().get(name).getOffset());
+                }
+                final byte[] raw = "caf\u00e9x.txt".getBytes("UTF-8");
+                raw[3] = (byte) 0xe9;
+                final ZipEntry entry = catalog.getEntry(raw, 0, raw.length);
+                assertNotNull("Lookup by bytes failed", entry);
+                assertTrue("Wrong name", entry.getName().indexOf('\ufffd') != -1);
+                assertEquals("Wrong contents", "stored", new String(readAll(Zip.openEntry(file, entry)), "UTF-8"));
+            }
+        } finally {
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    public void testCatalogIndex() throws IOException {
+        final File indexFile = File.createTempFile("jzipfile", ".idx");
+        try {
+            for (String name : new String[] { "empty.zip", "single-stored.zip", "single-zip64.zip", "utf8-names.zip" }) {
+                final File file = testFile(name);
+                indexFile.delete();
+                assertNull("Index should not exist yet", Zip.openCatalogIndex(file, indexFile));
+                final ZipCatalog expected = Zip.readCatalog(file);
+                final ZipCatalog actual = Zip.readIndexedCatalog(file, indexFile);
+                final Iterator<ZipEntry> i = actual.allEntries().iterator();
+                for (ZipEntry entry : expected.allEntries()) {
+                    final ZipEntry indexed = i.next();
+                    assertEquals("Entries differ", entry.toString(), indexed.toString());
+                    if (entry.getEntryType() == ZipEntryType.FILE) {
+                        assertTrue("Contents differ", Arrays.equals(readAll(Zip.openEntry(file, entry)), readAll(Zip.openEntry(file, indexed))));
+                    }
+                }
+                assertFalse("Extra entry", i.hasNext());
+                assertEquals("Names differ", new ArrayList<String>(expected.indexedByName().keySet()), new ArrayList<String>(actual.indexedByName().keySet()));
+                // does not belong to this archive
+                assertNull("Index should not match", Zip.openCatalogIndex(testFile("single-deflated.zip"), indexFile));
+            }
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    public void testCatalogIndexMismatch() throws IOException {
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File indexFile = File.createTempFile("jzipfile", ".idx");
+        try {
+            // a local header whose name, then method, disagrees with the central record
+            for (int field : new int[] { 30, 8 }) {
+                writeNamed(file, "a.txt");
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.seek(field);
+                    raf.write(field == 8 ? 8 : 'b');
+                } finally {
+                    raf.close();
+                }
+                indexFile.delete();
+                try {
+                    Zip.readIndexedCatalog(file, indexFile);
+                    fail("Expected exception");
+                } catch (ZipException e) {
+                    // expected
+                }
+                assertNull("Index should not have been written", Zip.openCatalogIndex(file, indexFile));
+            }
+        } finally {
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    public void testResolvedCatalog() throws IOException {
+        for (String name : new String[] { "single-stored.zip", "single-deflated.zip", "utf8-names.zip", "data-descriptor.zip" }) {
+            final File file = testFile(name);
+            final ZipCatalog catalog = Zip.readCatalog(file);
+            final ZipCatalog resolved = Zip.readResolvedCatalog(file);
+            final Iterator<ZipEntry> i = resolved.allEntries().iterator();
+            for (ZipEntry entry : catalog.allEntries()) {
+                final ZipEntry resolvedEntry = i.next();
+                if (entry.getEntryType() == ZipEntryType.FILE) {
+                    assertEquals("Offset resolved too early", -1L, Zip.getResolvedDataOffset(entry));
+                    assertTrue("Offset not resolved", Zip.getResolvedDataOffset(resolvedEntry) > resolvedEntry.getOffset());
+                    final byte[] expected = readAll(Zip.openEntry(file, entry));
+                    assertEquals("Lazily resolved offset differs", Zip.getResolvedDataOffset(resolvedEntry), Zip.getResolvedDataOffset(entry));
+                    assertTrue("Contents differ", Arrays.equals(expected, readAll(Zip.openEntry(file, resolvedEntry))));
+                }
+            }
+        }
+    }
+
+    public void testDirectoryIndex() throws IOException {
+        final ZipDirectoryIndex index = Zip.buildDirectoryIndex(Zip.readCatalog(testFile("utf8-names.zip")));
+        final String cafe = "caf\u00e9/";
+        final String nihon = "\u65e5\u672c/";
+        assertEquals("Wrong root children", Arrays.asList(cafe, nihon), index.getChildren(""));
+        assertTrue("Missing explicit directory", index.isDirectory(cafe));
+        assertTrue("Missing implied directory", index.isDirectory("\u65e5\u672c"));
+        assertFalse("File is not a directory", index.isDirectory(cafe + "men\u00fc.txt"));
+        assertEquals("Wrong children", Arrays.asList(cafe + "men\u00fc.txt"), index.getChildren("caf\u00e9"));
+        assertEquals("Wrong subtree", Arrays.asList(cafe, cafe + "men\u00fc.txt", nihon, nihon + "\ud83d\ude00.txt"), index.getSubtree("/"));
+        assertNull("Unexpected directory", index.getChildren("nothing"));
+    }
+
+    public void testMapped() throws IOException {
+        final byte[] expected;
+        final MappedZipArchive stored = MappedZipArchive.open(testFile("single-stored.zip"));
+        try {
+            final ZipEntry entry = stored.getCatalog().allEntries().iterator().next();
+            final ByteBuffer buffer = stored.getEntryBuffer(entry);
+            assertTrue("Buffer should be read-only", buffer.isReadOnly());
+            assertEquals("Wrong buffer size", entry.getSize(), buffer.remaining());
+            expected = new byte[buffer.remaining()];
+            buffer.get(expected);
+            assertTrue("Stream and buffer contents differ", Arrays.equals(expected, readAll(stored.openEntry(entry))));
+        } finally {
+            stored.close();
+        }
+        final MappedZipArchive deflated = MappedZipArchive.open(testFile("single-deflated.zip"));
+        try {
+            final ZipEntry entry = deflated.getCatalog().allEntries().iterator().next();
+            assertTrue("Deflated contents differ", Arrays.equals(expected, readAll(deflated.openEntry(entry))));
+        } finally {
+            deflated.close();
+        }
+    }
+
+    public void testArchive() throws IOException {
+        final byte[] expected = readAll(Zip.openEntry(testFile("single-stored.zip"), Zip.readCatalog(testFile("single-stored.zip")).allEntries().iterator().next()));
+        final ZipArchive archive = ZipArchive.open(testFile("single-deflated.zip"));
+        try {
+            final ZipEntry entry = archive.getCatalog().indexedByName().get("pom.xml");
+            assertNotNull("Missing entry", entry);
+            // interleave two streams to make sure they do not share a position
+            final InputStream first = archive.openEntry(entry);
+            final InputStream second = archive.openEntry(entry);
+            final byte[] head = new byte[100];
+            new DataInputStream(first).readFully(head);
+            assertTrue("Contents differ", Arrays.equals(expected, readAll(second)));
+            final byte[] rest = readAll(first);
+            assertEquals("Wrong total length", expected.length, head.length + rest.length);
+        } finally {
+            archive.close();
+        }
+    }
+
+    public void testReadEntry() throws IOException {
+        final byte[] expected = readAll(Zip.openEntry(testFile("single-stored.zip"), Zip.readCatalog(testFile("single-stored.zip")).allEntries().iterator().next()));
+        for (String name : new String[] { "single-stored.zip", "single-deflated.zip", "single-zip64.zip" }) {
+            final File file = testFile(name);
+            final ZipEntry entry = Zip.readCatalog(file).allEntries().iterator().next();
+            assertTrue("Contents differ", Arrays.equals(expected, Zip.readEntry(file, entry)));
+            final ZipArchive archive = ZipArchive.open(file);
+            try {
+                assertTrue("Contents differ", Arrays.equals(expected, archive.readEntry(entry)));
+                for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(expected.length + 10), ByteBuffer.allocateDirect(expected.length + 10) }) {
+                    buffer.position(5);
+                    assertEquals("Wrong count", expected.length, archive.readEntry(entry, buffer));
+                    assertEquals("Wrong position", expected.length + 5, buffer.position());
+                    buffer.flip();
+                    buffer.position(5);
+                    final byte[] actual = new byte[buffer.remaining()];
+                    buffer.get(actual);
+                    assertTrue("Contents differ", Arrays.equals(expected, actual));
+                }
+                final ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+                try {
+                    archive.readEntry(entry, small);
+                    fail("Expected buffer to be too small");
+                } catch (IllegalArgumentException expectedException) {
+                }
+                assertEquals("Position changed", 0, small.position());
+            } finally {
+                archive.close();
+            }
+        }
+    }
+
+    public void testListener() throws IOException {
+        final File file = testFile("single-deflated.zip");
+        final long[] counts = new long[5];
+        final ZipListener listener = new ZipListener() {
+            public void catalogRead(final File file, final int entryCount, final long directorySize, final long nanos) {
+                counts[0] += entryCount;
+            }
+
+            public void entryOpened(final ZipEntry zipEntry, final long nanos) {
+                counts[1] ++;
+            }
+
+            public void entryRead(final ZipEntry zipEntry, final long bytes, final long compressedBytes, final long inflateNanos) {
+                counts[2] ++;
+                counts[3] += bytes;
+                counts[4] += compressedBytes;
+            }
+        };
+        Zip.addListener(listener);
+        try {
+            final ZipEntry entry = Zip.readCatalog(file).allEntries().iterator().next();
+            assertEquals("Wrong entry contents size", 2856, readAll(Zip.openEntry(file, entry)).length);
+            assertEquals("Wrong entry contents size", 2856, Zip.readEntry(file, entry).length);
+        } finally {
+            Zip.removeListener(listener);
+        }
+        assertTrue("Wrong counts", Arrays.equals(new long[] { 1L, 1L, 2L, 2856L * 2, 1113L * 2 }, counts));
+        Zip.readCatalog(file);
+        assertEquals("Listener still called", 1L, counts[0]);
+    }
+
+    public void testCatalogCache() throws Exception {
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File other = File.createTempFile("jzipfile", ".zip");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] reads = new int[1];
+        final ZipListener listener = new ZipListener() {
+            public void catalogRead(final File readFile, final int entryCount, final long directorySize, final long nanos) {
+                if (readFile.equals(file) && reads[0] ++ == 0) {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        try {
+            writeNamed(file, "a.txt");
+            final ZipCatalogCache cache = new ZipCatalogCache(1L << 20, true);
+            // single flight: callers which arrive while the catalog is read wait for it
+            final List<Future<ZipCatalog>> futures = new ArrayList<Future<ZipCatalog>>();
+            final Callable<ZipCatalog> task = new Callable<ZipCatalog>() {
+                public ZipCatalog call() throws IOException {
+                    return cache.getCatalog(file);
+                }
+            };
+            Zip.addListener(listener);
+            try {
+                futures.add(executor.submit(task));
+                assertTrue("Catalog not read", loading.await(10L, TimeUnit.SECONDS));
+                assertTrue("Catalog being read is not counted", cache.getSize() > 0L);
+                for (int i = 0; i < 3; i ++) {
+                    futures.add(executor.submit(task));
+                }
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+                while (cache.getHitCount() < 3L && System.nanoTime() < deadline) {
+                    Thread.sleep(1L);
+                }
+                release.countDown();
+                final ZipCatalog catalog = futures.get(0).get();
+                for (Future<ZipCatalog> future : futures) {
+                    assertSame("Different catalog", catalog, future.get());
+                }
+            } finally {
+                release.countDown();
+                Zip.removeListener(listener);
+            }
+            assertEquals("Read more than once", 1, reads[0]);
+            assertEquals("Wrong miss count", 1L, cache.getMissCount());
+            assertEquals("Wrong hit count", 3L, cache.getHitCount());
+            final ZipCatalog catalog = cache.getCatalog(file);
+            assertSame("Not cached", catalog, cache.getCatalog(file));
+            // stale: the file is replaced by one with the same size and modification time
+            writeNamed(other, "b.txt");
+            assertEquals("Sizes differ", file.length(), other.length());
+            Files.setLastModifiedTime(other.toPath(), Files.getLastModifiedTime(file.toPath()));
+            final Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            Files.move(other.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (fileKey != null) {
+                final ZipCatalog replaced = cache.getCatalog(file);
+                assertNotSame("Stale catalog returned", catalog, replaced);
+                assertNotNull("Wrong catalog", replaced.getEntry("b.txt"));
+            }
+            // stale: the file is rewritten
+            writeNamed(file, "longer.txt");
+            final ZipCatalog rewritten = cache.getCatalog(file);
+            assertNotNull("Wrong catalog", rewritten.getEntry("longer.txt"));
+            assertSame("Not cached", rewritten, cache.getCatalog(file));
+            // least recently used eviction
+            final long oneSize = cache.getSize();
+            final ZipCatalogCache small = new ZipCatalogCache(oneSize * 2, true);
+            final File[] files = new File[3];
+            try {
+                for (int i = 0; i < files.length; i ++) {
+                    files[i] = File.createTempFile("jzipfile", ".zip");
+                    writeNamed(files[i], "longer.txt");
+                }
+                final ZipCatalog first = small.getCatalog(files[0]);
+                small.getCatalog(files[1]);
+                assertSame("Not cached", first, small.getCatalog(files[0]));
+                small.getCatalog(files[2]);
+                assertEquals("Wrong eviction count", 1L, small.getEvictionCount());
+                assertTrue("Cache too large", small.getSize() <= small.getMaxSize());
+                assertSame("Recently used catalog evicted", first, small.getCatalog(files[0]));
+                final long misses = small.getMissCount();
+                small.getCatalog(files[1]);
+                assertEquals("Least recently used catalog not evicted", misses + 1L, small.getMissCount());
+            } finally {
+                for (File f : files) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+            other.delete();
+        }
+    }
+
+    private static void writeNamed(final File file, final String name) throws IOException {
+        final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+        try {
+            final OutputStream os = writer.openEntry(name, ZipCompressionMethod.STORE, 0L);
+            os.write("contents".getBytes("UTF-8"));
+            os.close();
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testParallelExtract() throws Exception {
+        final Random random = new Random(4L);
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File base = Files.createTempDirectory("jzipfile").toFile();
+        final ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            long size = 0L;
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                writer.addDirectory("a/b/", 0L);
+                writer.addDirectory("empty/", 0L);
+                for (int i = 0; i < 12; i ++) {
+                    // some parents only exist as part of a file name
+                    final String name = (i % 3 == 0 ? "a/b/" : i % 3 == 1 ? "c/d/" : "") + "file" + i + ".bin";
+                    final byte[] data = new byte[random.nextInt(200000)];
+                    for (int j = 0; j < data.length; j ++) {
+                        data[j] = (byte) (j % 7 == 0 ? random.nextInt() : j % 31);
+                    }
+                    final OutputStream os = writer.openEntry(name, i % 2 == 0 ? ZipCompressionMethod.STORE : ZipCompressionMethod.DEFLATE, 0L);
+                    os.write(data);
+                    os.close();
+                    size += data.length;
+                }
+            } finally {
+                writer.close();
+            }
+            long compressedSize = 0L;
+            for (ZipEntry entry : Zip.readCatalog(file).allEntries()) {
+                compressedSize += entry.getCompressedSize();
+            }
+            final File sequential = new File(base, "sequential");
+            sequential.mkdir();
+            Zip.extract(file, sequential);
+            final Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+            listTree(sequential, "", expected);
+            assertTrue("Implicit directory not created", expected.containsKey("c/d/") && expected.containsKey("empty/"));
+            final File threads = new File(base, "threads");
+            threads.mkdir();
+            final ZipExtractStatistics statistics = Zip.extract(file, threads, 4);
+            checkTree(expected, threads);
+            assertEquals("Wrong entry count", 12, statistics.getEntryCount());
+            assertEquals("Wrong size", size, statistics.getSize());
+            assertEquals("Wrong compressed size", compressedSize, statistics.getCompressedSize());
+            // every directory exists before the first file is submitted
+            final File executor = new File(base, "executor");
+            executor.mkdir();
+            final int[] submitted = new int[1];
+            final ZipCatalog catalog = Zip.readCatalog(file);
+            final ZipExtractStatistics executorStatistics = Zip.extract(file, executor, new Executor() {
+                public void execute(final Runnable command) {
+                    if (submitted[0] ++ == 0) {
+                        for (String name : expected.keySet()) {
+                            if (name.endsWith("/")) {
+                                assertTrue("Directory not created first: " + name, new File(executor, name).isDirectory());
+                            }
+                        }
+                        for (String name : catalog.indexedByName().keySet()) {
+                            if (! name.endsWith("/")) {
+                                assertFalse("File extracted too early: " + name, new File(executor, name).exists());
+                            }
+                        }
+                    }
+                    pool.execute(command);
+                }
+            });
+            assertEquals("Wrong submission count", 12, submitted[0]);
+            checkTree(expected, executor);
+            assertEquals("Wrong entry count", 12, executorStatistics.getEntryCount());
+            assertEquals("Wrong size", size, executorStatistics.getSize());
+            assertEquals("Wrong compressed size", compressedSize, executorStatistics.getCompressedSize());
+        } finally {
+            pool.shutdown();
+            deleteTree(base);
+            file.delete();
+        }
+    }
+
+    private static void listTree(final File dir, final String prefix, final Map<String, byte[]> into) throws IOException {
+        final File[] files = dir.listFiles();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                into.put(prefix + file.getName() + "/", null);
+                listTree(file, prefix + file.getName() + "/", into);
+            } else {
+                into.put(prefix + file.getName(), readAll(new FileInputStream(file)));
+            }
+        }
+    }
+
+    private static void checkTree(final Map<String, byte[]> expected, final File dir) throws IOException {
+        final Map<String, byte[]> actual = new TreeMap<String, byte[]>();
+        listTree(dir, "", actual);
+        assertEquals("Extracted paths differ", expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertTrue("Contents differ: " + entry.getKey(), Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+        }
+    }
+
+    private static void deleteTree(final File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test(timeOut = 60000L)
+    public void testExtractStored() throws IOException {
+        final byte[] data = new byte[200000];
+        new Random(12L).nextBytes(data);
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File extracted = File.createTempFile("jzipfile", ".bin");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                final OutputStream os = writer.openEntry("stored.bin", ZipCompressionMethod.STORE, 0L);
+                os.write(data);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipArchive archive = ZipArchive.open(file);
+            try {
+                final ZipEntry entry = archive.getCatalog().getEntry("stored.bin");
+                assertEquals("Wrong size", data.length, archive.extractEntry(entry, extracted));
+                assertTrue("Contents differ", Arrays.equals(data, readAll(new FileInputStream(extracted))));
+                // the entry data now runs past the end of the file, which must fail rather than spin
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    final byte[] header = new byte[30];
+                    raf.seek(entry.getOffset());
+                    raf.readFully(header);
+                    final long dataOffset = entry.getOffset() + 30L + ZipCatalogBuilder.getUnsignedShort(header, 26) + ZipCatalogBuilder.getUnsignedShort(header, 28);
+                    raf.setLength(dataOffset + 1000L);
+                } finally {
+                    raf.close();
+                }
+                try {
+                    archive.extractEntry(entry, extracted);
+                    fail("Expected exception");
+                } catch (EOFException e) {
+                    // expected
+                }
+            } finally {
+                archive.close();
+            }
+        } finally {
+            file.delete();
+            extracted.delete();
+        }
+    }
+
+    public void testInflaterPool() throws IOException {
+        final File file = testFile("single-deflated.zip");
+        final ZipEntry entry = Zip.readCatalog(file).allEntries().iterator().next();
+        // the first open may or may not find a pooled inflater; closing it puts one back
+        assertEquals("Wrong entry contents size", 2856, readAll(Zip.openEntry(file, entry)).length);
+        for (int i = 0; i < 3; i ++) {
+            final long hits = Zip.getInflaterPoolHits();
+            final long misses = Zip.getInflaterPoolMisses();
+            final InputStream is = Zip.openEntry(file, entry);
+            assertEquals("Pooled inflater not reused", hits + 1L, Zip.getInflaterPoolHits());
+            assertEquals("Unexpected inflater created", misses, Zip.getInflaterPoolMisses());
+            // closed part way through
+            assertTrue("No data", is.read(new byte[100]) > 0);
+            is.close();
+        }
+    }
+
+    public void testLongName() throws IOException {
+        final StringBuilder b = new StringBuilder();
+        while (b.length() < 1000) {
+            b.append("long-directory-name/");
+        }
+        final String name = b.append("file.txt").toString();
+        final byte[] data = "long name".getBytes("UTF-8");
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                final OutputStream os = writer.openEntry(name);
+                os.write(data);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipEntry entry = Zip.readCatalog(file).getEntry(name);
+            assertTrue("Contents differ", Arrays.equals(data, readAll(Zip.openEntry(file, entry))));
+            assertTrue("Contents differ", Arrays.equals(data, Zip.readEntry(file, entry)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testNestedArchive() throws IOException {
+        final byte[] expected = readAll(Zip.openEntry(testFile("single-stored.zip"), Zip.readCatalog(testFile("single-stored.zip")).allEntries().iterator().next()));
+        final byte[] inner = readAll(new FileInputStream(testFile("single-deflated.zip")));
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final File extracted = File.createTempFile("jzipfile", ".xml");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                OutputStream os = writer.openEntry("lib/stored.jar", ZipCompressionMethod.STORE, 0L);
+                os.write(inner);
+                os.close();
+                os = writer.openEntry("lib/deflated.jar");
+                os.write(inner);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipArchive archive = ZipArchive.open(file);
+            try {
+                final ZipEntry deflated = archive.getCatalog().getEntry("lib/deflated.jar");
+                try {
+                    archive.openNestedArchive(deflated);
+                    fail("Expected compressed entry to be rejected");
+                } catch (ZipException expectedException) {
+                }
+                final ZipArchive[] nested = {
+                    archive.openNestedArchive(archive.getCatalog().getEntry("lib/stored.jar")),
+                    archive.openNestedArchive(deflated, Long.MAX_VALUE),
+                    archive.openNestedArchive(deflated, 0L),
+                };
+                for (ZipArchive nestedArchive : nested) {
+                    try {
+                        final ZipEntry entry = nestedArchive.getCatalog().getEntry("pom.xml");
+                        assertNotNull("Missing nested entry", entry);
+                        assertTrue("Contents differ", Arrays.equals(expected, readAll(nestedArchive.openEntry(entry))));
+                        assertTrue("Contents differ", Arrays.equals(expected, nestedArchive.readEntry(entry)));
+                        nestedArchive.extractEntry(entry, extracted);
+                        assertTrue("Contents differ", Arrays.equals(expected, readAll(new FileInputStream(extracted))));
+                    } finally {
+                        nestedArchive.close();
+                    }
+                }
+            } finally {
+                archive.close();
+            }
+        } finally {
+            file.delete();
+            extracted.delete();
+        }
+    }
+
+    public void testFileSystem() throws IOException {
+        final byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i ++) {
+            large[i] = (byte) (i % 251);
+        }
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                writer.addDirectory("dir", 0L);
+                OutputStream os = writer.openEntry("dir/stored.bin", ZipCompressionMethod.STORE, 0L);
+                os.write(large);
+                os.close();
+                os = writer.openEntry("dir/sub/deflated.bin");
+                os.write(large);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipCatalog catalog = Zip.readCatalog(file);
+            final FileSystem fileSystem = ZipFileSystemProvider.getInstance().newFileSystem(file.toPath(), null);
+            try {
+                final Path dir = fileSystem.getPath("/dir");
+                assertTrue("Not a directory", Files.isDirectory(dir));
+                assertTrue("Not a directory", Files.isDirectory(fileSystem.getPath("dir", "sub")));
+                final List<String> names = new ArrayList<String>();
+                final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try {
+                    for (Path path : stream) {
+                        names.add(path.getFileName().toString());
+                    }
+                } finally {
+                    stream.close();
+                }
+                assertEquals("Wrong directory listing", Arrays.asList("stored.bin", "sub"), names);
+                for (String name : new String[] { "/dir/stored.bin", "/dir/sub/deflated.bin" }) {
+                    final Path path = fileSystem.getPath(name);
+                    assertTrue("Contents differ", Arrays.equals(large, readAll(Files.newInputStream(path))));
+                    assertEquals("Wrong size", large.length, Files.size(path));
+                    assertEquals("Wrong CRC-32", Long.valueOf(catalog.getEntry(name.substring(1)).getCrc32() & 0xffffffffL), Files.getAttribute(path, "jzipfile:crc"));
+                    final SeekableByteChannel channel = Files.newByteChannel(path);
+                    try {
+                        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+                        channel.position(90000L);
+                        while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                        assertEquals("Wrong byte", large[90000], buffer.get(0));
+                        assertEquals("Wrong byte", large[90999], buffer.get(999));
+                        buffer.clear();
+                        channel.position(10L);
+                        while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                        assertEquals("Wrong byte", large[10], buffer.get(0));
+                    } finally {
+                        channel.close();
+                    }
+                }
+                assertFalse("Missing path exists", Files.exists(fileSystem.getPath("/dir/missing")));
+                try {
+                    Files.newOutputStream(fileSystem.getPath("/dir/new.txt"));
+                    fail("Expected read-only file system");
+                } catch (ReadOnlyFileSystemException expected) {
+                }
+            } finally {
+                fileSystem.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFileSystemUri() throws IOException {
+        final File dir = Files.createTempDirectory("jzipfile dir").toFile();
+        final File file = new File(dir, "my archive.zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                final OutputStream os = writer.openEntry("sub dir/a b\u00e9%.txt", ZipCompressionMethod.STORE, 0L);
+                os.write("spaced".getBytes("UTF-8"));
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipFileSystemProvider provider = ZipFileSystemProvider.getInstance();
+            final URI archiveUri = URI.create("jzipfile:" + file.toURI());
+            final FileSystem fileSystem = provider.newFileSystem(archiveUri, null);
+            try {
+                final Path path = fileSystem.getPath("/sub dir/a b\u00e9%.txt");
+                final URI uri = path.toUri();
+                assertTrue("Archive path not quoted once: " + uri, uri.toString().contains("/my%20archive.zip!/sub%20dir/"));
+                assertEquals("Wrong round trip", path, provider.getPath(uri));
+                // an encoded URI which was not made by toUri()
+                final URI encoded = URI.create("jzipfile:" + file.toURI().toASCIIString() + "!/sub%20dir/a%20b%C3%A9%25.txt");
+                assertEquals("Wrong path", path, provider.getPath(encoded));
+                assertSame("Wrong file system", fileSystem, provider.getFileSystem(encoded));
+                assertEquals("Wrong contents", "spaced", new String(readAll(Files.newInputStream(provider.getPath(encoded))), "UTF-8"));
+            } finally {
+                fileSystem.close();
+            }
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    public void testAsyncReader() throws Exception {
+        final byte[] large = new byte[300000];
+        for (int i = 0; i < large.length; i ++) {
+            large[i] = (byte) ("abcdefghij".charAt(i % 10) + i % 13);
+        }
+        final File file = File.createTempFile("jzipfile", ".zip");
+        final ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        final ExecutorService inflateExecutor = Executors.newFixedThreadPool(2);
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                OutputStream os = writer.openEntry("stored.bin", ZipCompressionMethod.STORE, 0L);
+                os.write(large);
+                os.close();
+                os = writer.openEntry("deflated.bin");
+                os.write(large);
+                os.close();
+                os = writer.openEntry("empty.bin");
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipArchive archive = ZipArchive.open(file);
+            try {
+                final ZipAsyncReader reader = new ZipAsyncReader(archive, ioExecutor, inflateExecutor);
+                for (ZipEntry entry : archive.getCatalog().allEntries()) {
+                    final byte[] expected = archive.readEntry(entry);
+                    final ByteBuffer buffer = reader.readEntry(entry).get();
+                    assertEquals("Wrong entry size", expected.length, buffer.remaining());
+                    assertTrue("Contents differ", Arrays.equals(expected, Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit())));
+                    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    final CountDownLatch latch = new CountDownLatch(1);
+                    final Throwable[] failure = new Throwable[1];
+                    final int[] chunks = new int[1];
+                    reader.readEntry(entry, 4096, os, new ZipChunkHandler<ByteArrayOutputStream>() {
+                        public void chunk(final ByteBuffer chunk, final ByteArrayOutputStream attachment) {
+                            assertTrue("Chunk too large", chunk.remaining() <= 4096);
+                            chunks[0] ++;
+                            attachment.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                        }
+
+                        public void completed(final ByteArrayOutputStream attachment) {
+                            latch.countDown();
+                        }
+
+                        public void failed(final Throwable exc, final ByteArrayOutputStream attachment) {
+                            failure[0] = exc;
+                            latch.countDown();
+                        }
+                    });
+                    assertTrue("Read timed out", latch.await(30L, TimeUnit.SECONDS));
+                    assertNull("Read failed", failure[0]);
+                    assertTrue("Contents differ", Arrays.equals(expected, os.toByteArray()));
+                    assertTrue("Too few chunks", chunks[0] >= expected.length / 4096);
+                }
+                archive.close();
+                try {
+                    reader.readEntry(archive.getCatalog().getEntry("deflated.bin")).get();
+                    fail("Expected read from closed archive to fail");
+                } catch (ExecutionException expected) {
+                }
+            } finally {
+                archive.close();
+            }
+        } finally {
+            ioExecutor.shutdown();
+            inflateExecutor.shutdown();
+            file.delete();
+        }
+    }
+
+    public void testSeekableEntry() throws IOException {
+        // a mix of compressible text and incompressible noise, to get both huffman and stored blocks
+        final byte[] data = new byte[3000000];
+        final Random random = new Random(42L);
+        for (int i = 0; i < data.length; i += 50000) {
+            if (i % 150000 == 0) {
+                final byte[] noise = new byte[min(50000, data.length - i)];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, data, i, noise.length);
+            } else {
+                for (int j = i; j < min(i + 50000, data.length); j ++) {
+                    data[j] = (byte) ("the quick brown fox ".charAt(j % 20) + random.nextInt(3));
+                }
+            }
+        }
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                final OutputStream os = writer.openEntry("data.bin");
+                os.write(data);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipArchive archive = ZipArchive.open(file);
+            final ByteArrayOutputStream saved = new ByteArrayOutputStream();
+            try {
+                final ZipEntry entry = archive.getCatalog().getEntry("data.bin");
+                assertNull("Unexpected index", archive.getInflateIndex(entry));
+                // the first full read records the index
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final SeekableByteChannel channel = archive.openEntryChannel(entry);
+                try {
+                    final ByteBuffer buffer = ByteBuffer.allocate(7001);
+                    while (channel.read(buffer) != -1) {
+                        os.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                } finally {
+                    channel.close();
+                }
+                assertTrue("Contents differ", Arrays.equals(data, os.toByteArray()));
+                final ZipInflateIndex index = archive.getInflateIndex(entry);
+                assertNotNull("Missing index", index);
+                assertTrue("Too few checkpoints", index.getCheckpointCount() >= 2);
+                checkRandomReads(archive, entry, data, random);
+                index.writeTo(saved);
+                assertTrue("Finer index has too few checkpoints", archive.buildInflateIndex(entry, 65536).getCheckpointCount() > index.getCheckpointCount());
+                checkRandomReads(archive, entry, data, random);
+            } finally {
+                archive.close();
+            }
+            final ZipArchive reopened = ZipArchive.open(file);
+            try {
+                final ZipEntry entry = reopened.getCatalog().getEntry("data.bin");
+                reopened.setInflateIndex(entry, ZipInflateIndex.readFrom(new ByteArrayInputStream(saved.toByteArray())));
+                checkRandomReads(reopened, entry, data, random);
+            } finally {
+                reopened.close();
+            }
+            // the bit offset of the first checkpoint follows the 40-byte header and its output offset
+            for (byte b : new byte[] { (byte) 0xff, 0x7f }) {
+                final byte[] corrupt = saved.toByteArray();
+                corrupt[48] = b;
+                try {
+                    ZipInflateIndex.readFrom(new ByteArrayInputStream(corrupt));
+                    fail("Invalid bit offset accepted");
+                } catch (ZipException expected) {
+                }
+            }
+        } finally {
+            file.delete();
+        }
+        final ZipArchive archive = ZipArchive.open(testFile("single-deflated.zip"));
+        try {
+            for (ZipEntry entry : archive.getCatalog().allEntries()) {
+                final byte[] expected = archive.readEntry(entry);
+                final SeekableByteChannel channel = archive.openEntryChannel(entry);
+                try {
+                    final ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+                    while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                    assertTrue("Contents differ", Arrays.equals(expected, buffer.array()));
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    private static void checkRandomReads(ZipArchive archive, ZipEntry entry, byte[] data, Random random) throws IOException {
+        final SeekableByteChannel channel = archive.openEntryChannel(entry);
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(1000);
+            for (int i = 0; i < 50; i ++) {
+                final int position = random.nextInt(data.length);
+                channel.position(position);
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                buffer.flip();
+                final byte[] expected = Arrays.copyOfRange(data, position, min(position + 1000, data.length));
+                assertEquals("Wrong read size", expected.length, buffer.remaining());
+                assertTrue("Contents differ at " + position, Arrays.equals(expected, Arrays.copyOf(buffer.array(), buffer.remaining())));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testEntryCache() throws IOException {
+        final byte[] small = "Manifest-Version: 1.0\nCreated-By: jzipfile\n\n".getBytes("UTF-8");
+        final byte[] large = new byte[100000];
+        Arrays.fill(large, (byte) 'x');
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                OutputStream os = writer.openEntry("META-INF/MANIFEST.MF");
+                os.write(small);
+                os.close();
+                os = writer.openEntry("stored.txt", ZipCompressionMethod.STORE, 0L);
+                os.write(small);
+                os.close();
+                os = writer.openEntry("large.bin");
+                os.write(large);
+                os.close();
+            } finally {
+                writer.close();
+            }
+            for (boolean direct : new boolean[] { false, true }) {
+                final ZipEntryCache cache = new ZipEntryCache(1L << 20, 16384, direct);
+                final ZipArchive archive = ZipArchive.open(file);
+                try {
+                    archive.setEntryCache(cache);
+                    final ZipCatalog catalog = archive.getCatalog();
+                    final ZipEntry manifest = catalog.getEntry("META-INF/MANIFEST.MF");
+                    for (int i = 0; i < 3; i ++) {
+                        assertTrue("Contents differ", Arrays.equals(small, readAll(archive.openEntry(manifest))));
+                        assertTrue("Contents differ", Arrays.equals(large, readAll(archive.openEntry(catalog.getEntry("large.bin")))));
+                        assertTrue("Contents differ", Arrays.equals(small, archive.readEntry(catalog.getEntry("stored.txt"))));
+                    }
+                    final byte[] data = archive.readEntry(manifest);
+                    assertTrue("Contents differ", Arrays.equals(small, data));
+                    // the cached copy must not be shared with the caller
+                    data[0] = 0;
+                    final ByteBuffer buffer = ByteBuffer.allocateDirect(small.length);
+                    assertEquals("Wrong length", small.length, archive.readEntry(manifest, buffer));
+                    buffer.flip();
+                    assertEquals("Wrong contents", ByteBuffer.wrap(small), buffer);
+                    assertEquals("Wrong miss count", 1L, cache.getMissCount());
+                    assertEquals("Wrong hit count", 4L, cache.getHitCount());
+                    assertTrue("Wrong hit rate", Math.abs(cache.getHitRate() - 0.8) < 0.001);
+                    assertEquals("Wrong bytes saved", 4L * small.length, cache.getBytesSaved());
+                    assertEquals("Wrong size", (long) small.length, cache.getSize());
+                    // nor is the array inflated on a miss
+                    cache.clear();
+                    final byte[] missed = archive.readEntry(manifest);
+                    assertTrue("Contents differ", Arrays.equals(small, missed));
+                    missed[0] = 0;
+                    assertTrue("Contents differ", Arrays.equals(small, archive.readEntry(manifest)));
+                    assertEquals("Wrong miss count", 2L, cache.getMissCount());
+                } finally {
+                    archive.close();
+                }
+                assertEquals("Cache not invalidated", 0L, cache.getSize());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testEndRecord() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final ZipWriter writer = new ZipWriter(bos);
+        try {
+            writer.addDirectory("dir", 0L);
+            final OutputStream os = writer.openEntry("dir/file.txt");
+            os.write("some contents".getBytes("UTF-8"));
+            os.close();
+        } finally {
+            writer.close();
+        }
+        final byte[] zip = bos.toByteArray();
+        // a comment holding a stray end record whose own comment runs to the end of the file
+        final byte[] longComment = new byte[1000];
+        Arrays.fill(longComment, (byte) '#');
+        final byte[] stray = { 0x50, 0x4b, 0x05, 0x06, 0, 0, 0, 0, 1, 0, 1, 0, 0x10, 0, 0, 0, (byte) 0xf0, (byte) 0xff, (byte) 0xff, 0x7f, 0x0a, 0 };
+        System.arraycopy(stray, 0, longComment, longComment.length - 32, stray.length);
+        final byte[] maxComment = new byte[0xffff];
+        Arrays.fill(maxComment, (byte) ' ');
+        final byte[][] variants = {
+            withComment(zip, "short comment".getBytes("UTF-8"), 0),
+            withComment(zip, longComment, 0),
+            withComment(zip, maxComment, 0),
+            withComment(zip, new byte[0], 17),
+        };
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            for (byte[] variant : variants) {
+                final FileOutputStream fos = new FileOutputStream(file);
+                try {
+                    fos.write(variant);
+                } finally {
+                    fos.close();
+                }
+                final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    final ZipEndRecord endRecord = ZipEndRecord.find(raf.getChannel());
+                    assertEquals("Wrong end record offset", (long) zip.length - 22L, endRecord.getEndOffset());
+                    assertEquals("Wrong entry count", 2L, endRecord.getEntryCount());
+                } finally {
+                    raf.close();
+                }
+                assertNotNull("Missing entry", Zip.readCatalog(file).getEntry("dir/file.txt"));
+                assertNotNull("Missing entry", Zip.readCompactCatalog(file).getEntry("dir/file.txt"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] withComment(byte[] zip, byte[] comment, int padding) {
+        final byte[] result = new byte[zip.length + comment.length + padding];
+        System.arraycopy(zip, 0, result, 0, zip.length);
+        result[zip.length - 2] = (byte) comment.length;
+        result[zip.length - 1] = (byte) (comment.length >> 8);
+        System.arraycopy(comment, 0, result, zip.length, comment.length);
+        return result;
+    }
+
+    public void testWriterLevels() throws IOException {
+        final byte[] data = new byte[200000];
+        final Random random = new Random(7L);
+        for (int i = 0; i < data.length; i ++) {
+            data[i] = (byte) ("abcdefghij".charAt(random.nextInt(10)) + i % 7);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            for (Executor entryExecutor : new Executor[] { null, executor }) {
+                final ZipWriter writer = new ZipWriter(new FileOutputStream(file), entryExecutor);
+                try {
+                    writer.setBlockSize(65536);
+                    // pooled deflaters are reused at each new level
+                    final int[] levels = { -1, 9, 1, 9, 0, 6 };
+                    for (int i = 0; i < levels.length; i ++) {
+                        writer.setLevel(levels[i]);
+                        final OutputStream os = writer.openEntry("entry" + i + ".bin");
+                        os.write(data);
+                        os.close();
+                    }
+                } finally {
+                    writer.close();
+                }
+                final java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(file);
+                try {
+                    for (int i = 0; i < 6; i ++) {
+                        assertTrue("Contents differ", Arrays.equals(data, readAll(zipFile.getInputStream(zipFile.getEntry("entry" + i + ".bin")))));
+                    }
+                } finally {
+                    zipFile.close();
+                }
+                final ZipCatalog catalog = Zip.readCatalog(file);
+                for (ZipEntry entry : catalog.allEntries()) {
+                    assertTrue("Contents differ", Arrays.equals(data, readAll(Zip.openEntry(file, entry, ZipVerification.STREAMING))));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    public void testStreamReader() throws IOException {
+        for (String name : new String[] { "empty.zip", "single-stored.zip", "single-deflated.zip", "single-zip64.zip", "utf8-names.zip", "data-descriptor.zip" }) {
+            final File file = testFile(name);
+            final ZipCatalog catalog = Zip.readCatalog(file);
+            final ZipStreamReader reader = Zip.readStream(new FileInputStream(file), ZipVerification.STREAMING);
+            try {
+                for (ZipEntry expected : catalog.allEntries()) {
+                    final ZipEntry entry = reader.nextEntry();
+                    assertNotNull("Missing entry in " + name, entry);
+                    assertEquals("Wrong entry name", expected.getName(), entry.getName());
+                    assertEquals("Wrong entry type", expected.getEntryType(), entry.getEntryType());
+                    if (entry.getEntryType() == ZipEntryType.FILE) {
+                        assertTrue("Contents differ", Arrays.equals(readAll(Zip.openEntry(file, expected)), readAll(reader.getInputStream())));
+                        assertEquals("Wrong size", expected.getSize(), entry.getSize());
+                        assertEquals("Wrong CRC-32", expected.getCrc32(), entry.getCrc32());
+                    }
+                }
+                assertNull("Extra entry in " + name, reader.nextEntry());
+            } finally {
+                reader.close();
+            }
+        }
+        // skipping unread entries must find the data descriptors too
+        final ZipStreamReader reader = Zip.readStream(new FileInputStream(testFile("data-descriptor.zip")));
+        try {
+            assertEquals("Wrong entry name", "stored.txt", reader.nextEntry().getName());
+            assertEquals("Wrong entry name", "deflated.txt", reader.nextEntry().getName());
+            assertEquals("Wrong entry contents size", 1400, readAll(reader.getInputStream()).length);
+            assertNull("Extra entry", reader.nextEntry());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testWriter() throws IOException {
+        final byte[] small = "small stored entry".getBytes("UTF-8");
+        final byte[] large = new byte[300000];
+        for (int i = 0; i < large.length; i ++) {
+            large[i] = (byte) ("abcdefghij".charAt(i % 10) + i % 17);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file), executor);
+            try {
+                writer.setBlockSize(65536);
+                writer.addDirectory("dir", 0L);
+                OutputStream os = writer.openEntry("dir/small.txt", ZipCompressionMethod.STORE, 0L);
+                os.write(small);
+                os.close();
+                os = writer.openEntry("dir/large.bin");
+                os.write(large);
+                os.close();
+                os = writer.openEntry("dir/empty");
+                os.close();
+            } finally {
+                writer.close();
+            }
+            final ZipCatalog catalog = Zip.readCatalog(file);
+            assertEquals("Wrong entry count", 4, catalog.allEntries().size());
+            assertEquals("Wrong entry type", ZipEntryType.DIRECTORY, catalog.getEntry("dir/").getEntryType());
+            assertTrue("Contents differ", Arrays.equals(small, readAll(Zip.openEntry(file, catalog.getEntry("dir/small.txt"), ZipVerification.STREAMING))));
+            assertTrue("Contents differ", Arrays.equals(large, readAll(Zip.openEntry(file, catalog.getEntry("dir/large.bin"), ZipVerification.STREAMING))));
+            assertEquals("Wrong entry contents size", 0, readAll(Zip.openEntry(file, catalog.getEntry("dir/empty"), ZipVerification.STREAMING)).length);
+            final ZipStreamReader reader = Zip.readStream(new FileInputStream(file), ZipVerification.STREAMING);
+            try {
+                for (ZipEntry expected : catalog.allEntries()) {
+                    assertEquals("Wrong entry name", expected.getName(), reader.nextEntry().getName());
+                    if (expected.getEntryType() == ZipEntryType.FILE) {
+                        assertEquals("Wrong entry contents size", expected.getSize(), readAll(reader.getInputStream()).length);
+                    }
+                }
+                assertNull("Extra entry", reader.nextEntry());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+    public void testWriterLargeDescriptor() throws IOException {
+        // the descriptor of an entry over 4 GB only fits in 8-byte sizes, which readers expect from the local zip64 extra
+        final long size = 0x100000000L + 12345L;
+        final byte[] block = new byte[1 << 20];
+        final byte[] small = "after the large entry".getBytes("UTF-8");
+        final File file = File.createTempFile("jzipfile", ".zip");
+        try {
+            final ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+            try {
+                writer.setLevel(1);
+                final OutputStream os = writer.openEntry("large.bin");
+                for (long remaining = size; remaining > 0L; remaining -= block.length) {
+                    os.write(block, 0, (int) min(remaining, block.length));
+                }
+                os.close();
+                final OutputStream os2 = writer.openEntry("small.txt", ZipCompressionMethod.STORE, 0L);
+                os2.write(small);
+                os2.close();
+            } finally {
+                writer.close();
+            }
+            final byte[] header = new byte[30 + 9 + 20];
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.readFully(header);
+            } finally {
+                raf.close();
+            }
+            assertEquals("Wrong version needed", 45, header[4]);
+            assertEquals("Wrong local extra length", 20, header[28]);
+            assertEquals("Missing local zip64 extra", 1, header[30 + 9]);
+            final ZipStreamReader reader = Zip.readStream(new FileInputStream(file), ZipVerification.STREAMING);
+            try {
+                final ZipEntry entry = reader.nextEntry();
+                assertEquals("Wrong entry name", "large.bin", entry.getName());
+                assertEquals("Wrong entry contents size", size, count(reader.getInputStream()));
+                assertEquals("Wrong size from data descriptor", size, entry.getSize());
+                assertEquals("Wrong entry name", "small.txt", reader.nextEntry().getName());
+                assertTrue("Contents differ", Arrays.equals(small, readAll(reader.getInputStream())));
+                assertNull("Extra entry", reader.nextEntry());
+            } finally {
+                reader.close();
+            }
+            final java.util.zip.ZipInputStream zis = new java.util.zip.ZipInputStream(new FileInputStream(file));
+            try {
+                assertEquals("Wrong entry name", "large.bin", zis.getNextEntry().getName());
+                assertEquals("Wrong entry contents size", size, count(zis));
+                assertEquals("Wrong entry name", "small.txt", zis.getNextEntry().getName());
+                assertTrue("Contents differ", Arrays.equals(small, readAll(zis)));
+            } finally {
+                zis.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buf = new byte[512];
+            int cnt;
+            while ((cnt = inputStream.read(buf)) != -1) {
+                os.write(buf, 0, cnt);
+            }
+            return os.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static long count(InputStream inputStream) throws IOException {
+        final byte[] buf = new byte[65536];
+        long total = 0L;
+        int cnt;
+        while ((cnt = inputStream.read(buf)) != -1) {
+            total += cnt;
+        }
+        return total;
+    }
 }